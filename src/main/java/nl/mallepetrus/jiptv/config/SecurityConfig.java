@@ -1,7 +1,9 @@
 package nl.mallepetrus.jiptv.config;
 
+import jakarta.servlet.DispatcherType;
 import nl.mallepetrus.jiptv.security.CustomUserDetailsService;
 import nl.mallepetrus.jiptv.security.JwtAuthenticationFilter;
+import nl.mallepetrus.jiptv.security.SegmentTokenFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -29,6 +31,9 @@ public class SecurityConfig {
     @Autowired
     private JwtAuthenticationFilter jwtAuthenticationFilter;
 
+    @Autowired
+    private SegmentTokenFilter segmentTokenFilter;
+
     @Autowired
     private CorsConfigurationSource corsConfigurationSource;
 
@@ -57,6 +62,8 @@ public class SecurityConfig {
             .csrf(csrf -> csrf.disable())
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(authz -> authz
+                // Async dispatches of event streams, the request itself was already authorized
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // Setup endpoints - accessible without authentication
                 .requestMatchers("/setup/**").permitAll()
                 // Authentication endpoints
@@ -85,6 +92,8 @@ public class SecurityConfig {
                 .anyRequest().authenticated()
             )
             .authenticationProvider(authenticationProvider())
+            // HLS requests may carry a segment token instead of a JWT
+            .addFilterBefore(segmentTokenFilter, UsernamePasswordAuthenticationFilter.class)
             .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
         
         return http.build();
@@ -0,0 +1,43 @@
+package nl.mallepetrus.jiptv.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.mallepetrus.jiptv.service.BoundedWorkerPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Worker pools for FFmpeg work. These are deliberately not exposed as {@code Executor} beans
+ * so Spring Boot keeps its own task executor for {@code @Async} methods.
+ */
+@Configuration
+public class TranscodingWorkerConfig {
+
+    @Bean(name = "transcodingWorkerPool", destroyMethod = "shutdown")
+    public BoundedWorkerPool transcodingWorkerPool(
+            @Value("${jiptv.transcoding.max-concurrent-jobs:2}") int maxConcurrentJobs,
+            MeterRegistry meterRegistry) {
+        return new BoundedWorkerPool("transcoding", maxConcurrentJobs, meterRegistry);
+    }
+
+    @Bean(name = "probeWorkerPool", destroyMethod = "shutdown")
+    public BoundedWorkerPool probeWorkerPool(
+            @Value("${jiptv.transcoding.max-concurrent-probes:4}") int maxConcurrentProbes,
+            MeterRegistry meterRegistry) {
+        return new BoundedWorkerPool("probe", maxConcurrentProbes, meterRegistry);
+    }
+
+    @Bean(name = "segmentWorkerPool", destroyMethod = "shutdown")
+    public BoundedWorkerPool segmentWorkerPool(
+            @Value("${jiptv.transcoding.on-demand.max-concurrent-encodes:2}") int maxConcurrentEncodes,
+            MeterRegistry meterRegistry) {
+        return new BoundedWorkerPool("segments", maxConcurrentEncodes, meterRegistry);
+    }
+
+    @Bean(name = "ingestWorkerPool", destroyMethod = "shutdown")
+    public BoundedWorkerPool ingestWorkerPool(
+            @Value("${jiptv.ingest.max-parallel:4}") int maxParallel,
+            MeterRegistry meterRegistry) {
+        return new BoundedWorkerPool("ingest", maxParallel, meterRegistry);
+    }
+}
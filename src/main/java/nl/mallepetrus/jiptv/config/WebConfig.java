@@ -1,6 +1,9 @@
 package nl.mallepetrus.jiptv.config;
 
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -24,6 +27,18 @@ public class WebConfig implements WebMvcConfigurer {
                 .setCachePeriod(31536000); // 1 year cache for immutable assets
     }
 
+    /**
+     * ETags for the stream delivery JSON the TVs poll, answered with 304 when unchanged.
+     * Playlists, segments and videos set their own validators.
+     */
+    @Bean
+    public FilterRegistrationBean<ShallowEtagHeaderFilter> streamDeliveryEtagFilter() {
+        FilterRegistrationBean<ShallowEtagHeaderFilter> registration = new FilterRegistrationBean<>(new ShallowEtagHeaderFilter());
+        registration.addUrlPatterns("/api/stream-delivery/streams/*");
+        registration.setName("streamDeliveryEtagFilter");
+        return registration;
+    }
+
     @Override
     public void addViewControllers(ViewControllerRegistry registry) {
         // Redirect root to admin dashboard
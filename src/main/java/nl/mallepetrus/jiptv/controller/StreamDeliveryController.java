@@ -4,10 +4,18 @@ import nl.mallepetrus.jiptv.entity.StreamSource;
 import nl.mallepetrus.jiptv.entity.TranscodingJob;
 import nl.mallepetrus.jiptv.repository.StreamSourceRepository;
 import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
+import nl.mallepetrus.jiptv.security.SegmentTokenProvider;
+import nl.mallepetrus.jiptv.service.FFmpegTranscodingService;
+import nl.mallepetrus.jiptv.service.FileDeliveryService;
+import nl.mallepetrus.jiptv.service.OnDemandSegmentService;
+import nl.mallepetrus.jiptv.service.PlaylistTemplateCache;
+import nl.mallepetrus.jiptv.service.SegmentCache;
+import nl.mallepetrus.jiptv.service.StreamDeliveryIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
@@ -15,12 +23,23 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.File;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/stream-delivery")
@@ -28,122 +47,282 @@ public class StreamDeliveryController {
 
     private static final Logger logger = LoggerFactory.getLogger(StreamDeliveryController.class);
 
+    // Variant directory names as configured in the ABR ladder
+    private static final Pattern VARIANT_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private static final String PLAYLIST_TYPE = "application/vnd.apple.mpegurl";
+    private static final String SEGMENT_TYPE = "video/mp2t";
+
     private final TranscodingJobRepository jobRepository;
     private final StreamSourceRepository streamSourceRepository;
+    private final OnDemandSegmentService onDemandSegmentService;
+    private final FileDeliveryService fileDeliveryService;
+    private final StreamDeliveryIndex deliveryIndex;
+    private final SegmentCache segmentCache;
+    private final PlaylistTemplateCache playlistTemplates;
+    private final SegmentTokenProvider segmentTokens;
 
     @Value("${jiptv.transcoding.output-dir:./transcoded}")
     private String outputDirectory;
 
+    @Value("${jiptv.delivery.vod-max-age-seconds:0}")
+    private long vodMaxAgeSeconds;
+
     @Autowired
     public StreamDeliveryController(TranscodingJobRepository jobRepository,
-                                  StreamSourceRepository streamSourceRepository) {
+                                  StreamSourceRepository streamSourceRepository,
+                                  OnDemandSegmentService onDemandSegmentService,
+                                  FileDeliveryService fileDeliveryService,
+                                  StreamDeliveryIndex deliveryIndex,
+                                  SegmentCache segmentCache,
+                                  PlaylistTemplateCache playlistTemplates,
+                                  SegmentTokenProvider segmentTokens) {
         this.jobRepository = jobRepository;
         this.streamSourceRepository = streamSourceRepository;
+        this.onDemandSegmentService = onDemandSegmentService;
+        this.fileDeliveryService = fileDeliveryService;
+        this.deliveryIndex = deliveryIndex;
+        this.segmentCache = segmentCache;
+        this.playlistTemplates = playlistTemplates;
+        this.segmentTokens = segmentTokens;
     }
 
     /**
      * Serve HLS playlist for WebOS TV
      */
     @GetMapping("/hls/{streamId}/playlist.m3u8")
-    public ResponseEntity<Resource> getHLSPlaylist(@PathVariable Long streamId) {
+    public ResponseEntity<Resource> getHLSPlaylist(@PathVariable Long streamId,
+                                                   @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws IOException {
         logger.info("Serving HLS playlist for stream: {}", streamId);
 
-        // Find completed HLS job for this stream
-        Optional<TranscodingJob> hlsJob = findCompletedHLSJob(streamId);
+        // Find completed (or still encoding) HLS job for this stream
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableHLSJob(streamId);
         if (hlsJob.isEmpty()) {
-            logger.warn("No completed HLS job found for stream: {}", streamId);
+            // Nothing pre-encoded, fall back to segments encoded on demand
+            Optional<StreamSource> onDemandSource = findOnDemandSource(streamId);
+            if (onDemandSource.isPresent()) {
+                StreamSource source = onDemandSource.get();
+                PlaylistTemplateCache.PlaylistTemplate playlist = playlistTemplates.get(streamId, "on-demand:" + streamId,
+                        source.getDurationSeconds() + "-" + onDemandSegmentService.getSegmentCount(source),
+                        () -> onDemandSegmentService.buildPlaylist(source));
+                // Not cached: it is replaced by the pre-encoded playlist once an HLS job completes
+                return playlistResponse(streamId, playlist, -1, "no-cache", acceptEncoding);
+            }
+
+            logger.warn("No playable HLS job found for stream: {}", streamId);
             return ResponseEntity.notFound().build();
         }
 
-        TranscodingJob job = hlsJob.get();
-        File playlistFile = new File(job.getOutputFile());
-        
-        if (!playlistFile.exists()) {
-            logger.warn("HLS playlist file not found: {}", job.getOutputFile());
+        StreamDeliveryIndex.Rendition job = hlsJob.get();
+        PlaylistTemplateCache.PlaylistTemplate playlist = playlistTemplate(streamId, job, "playlist.m3u8",
+                                                                           Paths.get(job.getHlsOutputFile()));
+        if (playlist == null) {
+            logger.warn("HLS playlist file not found: {}", job.getHlsOutputFile());
+            deliveryIndex.evict(streamId);
             return ResponseEntity.notFound().build();
         }
 
-        Resource resource = new FileSystemResource(playlistFile);
-        
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"))
-                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
-                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                .body(resource);
+        return hlsPlaylistResponse(streamId, job, playlist, acceptEncoding);
     }
 
     /**
      * Serve HLS segments for WebOS TV
      */
     @GetMapping("/hls/{streamId}/segment_{segmentNumber}.ts")
-    public ResponseEntity<Resource> getHLSSegment(@PathVariable Long streamId, 
-                                                @PathVariable String segmentNumber) {
+    public CompletableFuture<ResponseEntity<Resource>> getHLSSegment(@PathVariable Long streamId,
+                                                                   @PathVariable String segmentNumber) throws IOException {
         logger.debug("Serving HLS segment for stream: {}, segment: {}", streamId, segmentNumber);
 
-        // Find completed HLS job for this stream
-        Optional<TranscodingJob> hlsJob = findCompletedHLSJob(streamId);
+        // Find completed (or still encoding) HLS job for this stream
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableHLSJob(streamId);
         if (hlsJob.isEmpty()) {
-            return ResponseEntity.notFound().build();
+            return getOnDemandSegment(streamId, segmentNumber);
         }
 
-        TranscodingJob job = hlsJob.get();
+        StreamDeliveryIndex.Rendition job = hlsJob.get();
         
         // Build segment file path
-        Path playlistPath = Paths.get(job.getOutputFile());
+        Path playlistPath = Paths.get(job.getHlsOutputFile());
         Path segmentPath = playlistPath.getParent().resolve("segment_" + segmentNumber + ".ts");
-        File segmentFile = segmentPath.toFile();
         
-        if (!segmentFile.exists()) {
+        // Hot segments come from memory
+        Resource resource = segmentCache.get(streamId, segmentPath);
+        if (resource == null) {
             logger.warn("HLS segment file not found: {}", segmentPath);
-            return ResponseEntity.notFound().build();
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
         }
-
-        Resource resource = new FileSystemResource(segmentFile);
         
+        return CompletableFuture.completedFuture(hlsSegmentResponse(job, segmentPath.getFileName().toString(), resource));
+    }
+
+    /**
+     * Serve a segment encoded on demand, encoding it (and prefetching the next ones) if it is not cached.
+     * The request thread is released while the segment encodes.
+     */
+    private CompletableFuture<ResponseEntity<Resource>> getOnDemandSegment(Long streamId, String segmentNumber) {
+        Optional<StreamSource> onDemandSource = findOnDemandSource(streamId);
+        if (onDemandSource.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+
+        int index;
+        try {
+            index = Integer.parseInt(segmentNumber);
+        } catch (NumberFormatException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        if (index < 0 || index >= onDemandSegmentService.getSegmentCount(onDemandSource.get())) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+
+        CompletableFuture<Path> segmentFile;
+        try {
+            segmentFile = onDemandSegmentService.getSegment(onDemandSource.get(), index);
+        } catch (RejectedExecutionException e) {
+            // All encoders busy, worth retrying shortly
+            logger.warn("On-demand segment {} of stream {} unavailable: {}", index, streamId, e.getMessage());
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "2")
+                    .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
+                    .build());
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(onDemandSegmentFailed(streamId, index, e));
+        }
+
+        return segmentFile.handle((file, error) -> {
+            if (error != null) {
+                return onDemandSegmentFailed(streamId, index,
+                        error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+            try {
+                return onDemandSegmentResponse(streamId, file);
+            } catch (IOException e) {
+                return onDemandSegmentFailed(streamId, index, e);
+            }
+        });
+    }
+
+    private ResponseEntity<Resource> onDemandSegmentFailed(Long streamId, int index, Throwable error) {
+        logger.warn("On-demand segment {} of stream {} failed: {}", index, streamId, error.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
+                .build();
+    }
+
+    private ResponseEntity<Resource> onDemandSegmentResponse(Long streamId, Path segmentFile) throws IOException {
+        Resource segment = Optional.ofNullable(segmentCache.get(streamId, segmentFile))
+                .orElseGet(() -> new FileSystemResource(segmentFile));
         return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("video/mp2t"))
+                .contentType(MediaType.parseMediaType(SEGMENT_TYPE))
+                .eTag(fileValidator(segment))
+                .lastModified(segment.lastModified())
                 .header(HttpHeaders.CACHE_CONTROL, "public, max-age=3600")
                 .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                .body(resource);
+                .body(segment);
     }
 
     /**
-     * Serve transcoded video file for WebOS TV
+     * Serve the master playlist of an adaptive bitrate HLS ladder
+     */
+    @GetMapping("/hls/{streamId}/master.m3u8")
+    public ResponseEntity<Resource> getHLSMasterPlaylist(@PathVariable Long streamId,
+                                                         @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws IOException {
+        logger.info("Serving HLS master playlist for stream: {}", streamId);
+
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableAdaptiveHLSJob(streamId);
+        if (hlsJob.isEmpty()) {
+            logger.warn("No playable adaptive HLS job found for stream: {}", streamId);
+            return ResponseEntity.notFound().build();
+        }
+
+        PlaylistTemplateCache.PlaylistTemplate master = playlistTemplate(streamId, hlsJob.get(),
+                FFmpegTranscodingService.MASTER_PLAYLIST, Paths.get(hlsJob.get().getHlsOutputFile()));
+        if (master == null) {
+            logger.warn("HLS master playlist file not found: {}", hlsJob.get().getHlsOutputFile());
+            return ResponseEntity.notFound().build();
+        }
+
+        return hlsPlaylistResponse(streamId, hlsJob.get(), master, acceptEncoding);
+    }
+
+    /**
+     * Serve the playlist of one variant of an adaptive bitrate HLS ladder
+     */
+    @GetMapping("/hls/{streamId}/{variant}/playlist.m3u8")
+    public ResponseEntity<Resource> getHLSVariantPlaylist(@PathVariable Long streamId, @PathVariable String variant,
+                                                          @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws IOException {
+        logger.debug("Serving HLS variant playlist for stream: {}, variant: {}", streamId, variant);
+
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableAdaptiveHLSJob(streamId);
+        Optional<Path> playlistPath = hlsJob.flatMap(job -> resolveVariantPath(job, variant, "playlist.m3u8"));
+        PlaylistTemplateCache.PlaylistTemplate playlist = playlistPath.isPresent()
+                ? playlistTemplate(streamId, hlsJob.get(), variant + "/playlist.m3u8", playlistPath.get()) : null;
+        if (playlist == null) {
+            playlistPath.ifPresent(path -> logger.warn("HLS variant file not found: {}", path));
+            return ResponseEntity.notFound().build();
+        }
+
+        return hlsPlaylistResponse(streamId, hlsJob.get(), playlist, acceptEncoding);
+    }
+
+    /**
+     * Serve a segment of one variant of an adaptive bitrate HLS ladder
+     */
+    @GetMapping("/hls/{streamId}/{variant}/segment_{segmentNumber}.ts")
+    public ResponseEntity<Resource> getHLSVariantSegment(@PathVariable Long streamId, @PathVariable String variant,
+                                                       @PathVariable String segmentNumber) throws IOException {
+        logger.debug("Serving HLS segment for stream: {}, variant: {}, segment: {}", streamId, variant, segmentNumber);
+
+        String segmentName = "segment_" + segmentNumber + ".ts";
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableAdaptiveHLSJob(streamId);
+        Optional<Path> segmentPath = hlsJob.flatMap(job -> resolveVariantPath(job, variant, segmentName));
+        Resource segment = segmentPath.isPresent() ? segmentCache.get(streamId, segmentPath.get()) : null;
+        if (segment == null) {
+            segmentPath.ifPresent(path -> logger.warn("HLS variant file not found: {}", path));
+            return ResponseEntity.notFound().build();
+        }
+
+        return hlsSegmentResponse(hlsJob.get(), variant + "/" + segmentName, segment);
+    }
+
+    /**
+     * Serve transcoded video file for WebOS TV, with byte ranges so the TV can seek
      */
     @GetMapping("/transcoded/{streamId}")
-    public ResponseEntity<Resource> getTranscodedVideo(@PathVariable Long streamId,
-                                                     @RequestParam(defaultValue = "WebOS_Compatible") String profile) {
+    public void getTranscodedVideo(@PathVariable Long streamId,
+                                   @RequestParam(defaultValue = "WebOS_Compatible") String profile,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
         logger.info("Serving transcoded video for stream: {}, profile: {}", streamId, profile);
 
         // Find completed transcoding job for this stream and profile
-        Optional<TranscodingJob> transcodingJob = findCompletedTranscodingJob(streamId, profile);
+        Optional<StreamDeliveryIndex.Rendition> transcodingJob = findCompletedTranscodingJob(streamId, profile);
         if (transcodingJob.isEmpty()) {
             logger.warn("No completed transcoding job found for stream: {}, profile: {}", streamId, profile);
-            return ResponseEntity.notFound().build();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        TranscodingJob job = transcodingJob.get();
-        File videoFile = new File(job.getOutputFile());
+        StreamDeliveryIndex.Rendition job = transcodingJob.get();
+        Path videoFile = Paths.get(job.getOutputFile());
         
-        if (!videoFile.exists()) {
+        if (!Files.isRegularFile(videoFile)) {
             logger.warn("Transcoded video file not found: {}", job.getOutputFile());
-            return ResponseEntity.notFound().build();
+            deliveryIndex.evict(streamId);
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        Resource resource = new FileSystemResource(videoFile);
-        
         // Determine content type based on file extension
         String contentType = "video/mp4";
         if (job.getOutputFile().toLowerCase().endsWith(".mkv")) {
             contentType = "video/x-matroska";
         }
         
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CACHE_CONTROL, "public, max-age=86400")
-                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(videoFile.length()))
-                .body(resource);
+        // Validated by the hash stored at completion, so revalidating does not touch the file's metadata
+        long completedAt = job.getCompletedAt() != null
+                ? job.getCompletedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1;
+        fileDeliveryService.serve(request, response, videoFile, contentType, "public, max-age=86400",
+                                  job.getOutputEtag(), completedAt);
     }
 
     /**
@@ -162,14 +341,21 @@ public class StreamDeliveryController {
         info.setOriginalUrl(streamSource.getSourceUrl());
 
         // Check for available HLS
-        Optional<TranscodingJob> hlsJob = findCompletedHLSJob(streamId);
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableHLSJob(streamId);
         if (hlsJob.isPresent()) {
             info.setHlsAvailable(true);
+            info.setHlsComplete(hlsJob.get().isCompleted());
+            String playlistName = hlsJob.get().isAdaptive() ? FFmpegTranscodingService.MASTER_PLAYLIST : "playlist.m3u8";
+            info.setHlsUrl("/api/stream-delivery/hls/" + streamId + "/" + playlistName);
+        } else if (onDemandSegmentService.isAvailable(streamSource)) {
+            info.setHlsAvailable(true);
+            info.setHlsComplete(true);
+            info.setHlsOnDemand(true);
             info.setHlsUrl("/api/stream-delivery/hls/" + streamId + "/playlist.m3u8");
         }
 
         // Check for available transcoded versions
-        Optional<TranscodingJob> transcodingJob = findCompletedTranscodingJob(streamId, "WebOS_Compatible");
+        Optional<StreamDeliveryIndex.Rendition> transcodingJob = findCompletedTranscodingJob(streamId, "WebOS_Compatible");
         if (transcodingJob.isPresent()) {
             info.setTranscodedAvailable(true);
             info.setTranscodedUrl("/api/stream-delivery/transcoded/" + streamId + "?profile=WebOS_Compatible");
@@ -203,11 +389,11 @@ public class StreamDeliveryController {
         availability.setOriginalAvailable(true); // Assume original is always available
 
         // Check HLS availability
-        Optional<TranscodingJob> hlsJob = findCompletedHLSJob(streamId);
-        availability.setHlsAvailable(hlsJob.isPresent());
+        Optional<StreamDeliveryIndex.Rendition> hlsJob = findPlayableHLSJob(streamId);
+        availability.setHlsAvailable(hlsJob.isPresent() || onDemandSegmentService.isAvailable(streamSource));
 
         // Check transcoded availability
-        Optional<TranscodingJob> transcodingJob = findCompletedTranscodingJob(streamId, "WebOS_Compatible");
+        Optional<StreamDeliveryIndex.Rendition> transcodingJob = findCompletedTranscodingJob(streamId, "WebOS_Compatible");
         availability.setTranscodedAvailable(transcodingJob.isPresent());
 
         // Check if transcoding is in progress
@@ -221,23 +407,138 @@ public class StreamDeliveryController {
     }
 
     // Helper methods
-    private Optional<TranscodingJob> findCompletedHLSJob(Long streamId) {
-        return jobRepository.findByStreamSourceIdOrderByCreatedAtDesc(streamId)
-                .stream()
-                .filter(job -> job.getJobType() == TranscodingJob.JobType.SEGMENT)
-                .filter(job -> job.getStatus() == TranscodingJob.Status.COMPLETED)
-                .filter(job -> job.getOutputFile() != null)
-                .findFirst();
+
+    /**
+     * Latest completed HLS job of a stream, or else the latest running one whose (EVENT) playlist
+     * has been written, so playback can start while the encode is still in progress
+     */
+    private Optional<StreamDeliveryIndex.Rendition> findPlayableHLSJob(Long streamId) {
+        return deliveryIndex.get(streamId).findPlayableHls(false);
     }
 
-    private Optional<TranscodingJob> findCompletedTranscodingJob(Long streamId, String profile) {
-        return jobRepository.findByStreamSourceIdOrderByCreatedAtDesc(streamId)
-                .stream()
-                .filter(job -> job.getJobType() == TranscodingJob.JobType.TRANSCODE)
-                .filter(job -> job.getStatus() == TranscodingJob.Status.COMPLETED)
-                .filter(job -> profile.equals(job.getTranscodingProfile()))
-                .filter(job -> job.getOutputFile() != null)
-                .findFirst();
+    private Optional<StreamSource> findOnDemandSource(Long streamId) {
+        return deliveryIndex.get(streamId).getOnDemandSource();
+    }
+
+    private Optional<StreamDeliveryIndex.Rendition> findPlayableAdaptiveHLSJob(Long streamId) {
+        return deliveryIndex.get(streamId).findPlayableHls(true);
+    }
+
+    /**
+     * Path of a file inside a variant directory of an adaptive HLS job, without checking it exists
+     */
+    private Optional<Path> resolveVariantPath(StreamDeliveryIndex.Rendition hlsJob, String variant, String fileName) {
+        if (!VARIANT_NAME.matcher(variant).matches()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(Paths.get(hlsJob.getHlsOutputFile()).getParent().resolve(variant).resolve(fileName));
+    }
+
+    /**
+     * Parsed playlist of an HLS job, or null when the file does not exist. Playlists of a completed job
+     * are identified by the hash stored at completion, so serving a cached one does not touch the disk.
+     */
+    private PlaylistTemplateCache.PlaylistTemplate playlistTemplate(Long streamId, StreamDeliveryIndex.Rendition hlsJob,
+                                                                    String fileName, Path file) throws IOException {
+        String validator = hlsJob.isCompleted() && hlsJob.getHlsEtag() != null
+                ? "\"" + hlsJob.getHlsEtag() + "-" + fileName + "\"" : null;
+        return playlistTemplates.get(streamId, file, validator);
+    }
+
+    /**
+     * Playlist response of an HLS job, validated by the hash stored at completion once the job has completed
+     */
+    private ResponseEntity<Resource> hlsPlaylistResponse(Long streamId, StreamDeliveryIndex.Rendition hlsJob,
+                                                         PlaylistTemplateCache.PlaylistTemplate playlist,
+                                                         String acceptEncoding) {
+        if (!hlsJob.isCompleted()) {
+            return playlistResponse(streamId, playlist, playlist.getLastModified(), "no-cache", acceptEncoding);
+        }
+        long lastModified = hlsJob.getCompletedAt() != null
+                ? hlsJob.getCompletedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : playlist.getLastModified();
+        return playlistResponse(streamId, playlist, lastModified, vodCacheControl(), acceptEncoding);
+    }
+
+    /**
+     * A playlist as served to the current user. With segment tokens enabled its URIs carry the user's
+     * token, so it is private and revalidated on every use. The bytes are sent, or their precomputed
+     * gzip variant when the client accepts it.
+     */
+    private ResponseEntity<Resource> playlistResponse(Long streamId, PlaylistTemplateCache.PlaylistTemplate playlist,
+                                                      long lastModified, String cacheControl, String acceptEncoding) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(PLAYLIST_TYPE))
+                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        Long userId = authentication != null ? SegmentTokenProvider.userId(authentication) : null;
+        if (segmentTokens.isEnabled() && userId != null && playlist.getUriCount() > 0) {
+            String token = segmentTokens.issue(streamId, userId);
+            playlist = playlistTemplates.render(playlist, SegmentTokenProvider.TOKEN_PARAM, token);
+            cacheControl = "private, no-cache";
+        }
+
+        boolean gzip = playlist.getGzip() != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (playlist.getGzip() != null) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        if (lastModified > 0) {
+            response.lastModified(lastModified);
+        }
+        return response.eTag(playlist.getEtag(gzip))
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .body(new ByteArrayResource(gzip ? playlist.getGzip() : playlist.getPlain()));
+    }
+
+    /**
+     * OK response for a segment of an HLS job. Segments of a completed job are validated by the hash
+     * stored at completion. Segments of a running encode are validated by their size and modification time.
+     */
+    private ResponseEntity<Resource> hlsSegmentResponse(StreamDeliveryIndex.Rendition hlsJob, String fileName,
+                                                        Resource segment) throws IOException {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(SEGMENT_TYPE))
+                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+
+        if (!hlsJob.isCompleted()) {
+            return response.eTag(fileValidator(segment))
+                    .lastModified(segment.lastModified())
+                    .header(HttpHeaders.CACHE_CONTROL, "public, max-age=3600")
+                    .body(segment);
+        }
+
+        // Jobs completed before validators were stored fall back to the file's own
+        response.eTag(hlsJob.getHlsEtag() != null ? hlsJob.getHlsEtag() + "-" + fileName : fileValidator(segment));
+        if (hlsJob.getCompletedAt() != null) {
+            response.lastModified(hlsJob.getCompletedAt().atZone(ZoneId.systemDefault()));
+        } else {
+            response.lastModified(segment.lastModified());
+        }
+        return response.header(HttpHeaders.CACHE_CONTROL, vodCacheControl()).body(segment);
+    }
+
+    /**
+     * Output of a completed job. Not immutable: a re-encode of the stream rewrites the same URLs, so
+     * caches revalidate against the stored validators once the max age has passed.
+     */
+    private String vodCacheControl() {
+        return "public, max-age=" + vodMaxAgeSeconds;
+    }
+
+    /**
+     * Weak ETag from size and modification time, known without reading the file (or from memory when cached)
+     */
+    private static String fileValidator(Resource file) throws IOException {
+        return "W/\"" + Long.toHexString(file.contentLength()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    private Optional<StreamDeliveryIndex.Rendition> findCompletedTranscodingJob(Long streamId, String profile) {
+        return deliveryIndex.get(streamId).findTranscoded(profile);
     }
 
     // Response DTOs
@@ -246,6 +547,8 @@ public class StreamDeliveryController {
         private String streamName;
         private String originalUrl;
         private boolean hlsAvailable;
+        private boolean hlsComplete;
+        private boolean hlsOnDemand;
         private String hlsUrl;
         private boolean transcodedAvailable;
         private String transcodedUrl;
@@ -265,6 +568,12 @@ public class StreamDeliveryController {
         public boolean isHlsAvailable() { return hlsAvailable; }
         public void setHlsAvailable(boolean hlsAvailable) { this.hlsAvailable = hlsAvailable; }
         
+        public boolean isHlsComplete() { return hlsComplete; }
+        public void setHlsComplete(boolean hlsComplete) { this.hlsComplete = hlsComplete; }
+        
+        public boolean isHlsOnDemand() { return hlsOnDemand; }
+        public void setHlsOnDemand(boolean hlsOnDemand) { this.hlsOnDemand = hlsOnDemand; }
+        
         public String getHlsUrl() { return hlsUrl; }
         public void setHlsUrl(String hlsUrl) { this.hlsUrl = hlsUrl; }
         
@@ -7,6 +7,7 @@ import nl.mallepetrus.jiptv.entity.StreamTrack;
 import nl.mallepetrus.jiptv.entity.TranscodingJob;
 import nl.mallepetrus.jiptv.entity.UserStreamPreferences;
 import nl.mallepetrus.jiptv.security.UserPrincipal;
+import nl.mallepetrus.jiptv.service.LibraryIngestionService;
 import nl.mallepetrus.jiptv.service.StreamManagementService;
 import nl.mallepetrus.jiptv.service.TranscodingJobQueueService;
 import org.slf4j.Logger;
@@ -35,12 +36,15 @@ public class StreamManagementController {
 
     private final StreamManagementService streamManagementService;
     private final TranscodingJobQueueService transcodingJobQueueService;
+    private final LibraryIngestionService libraryIngestionService;
 
     @Autowired
     public StreamManagementController(StreamManagementService streamManagementService,
-                                    TranscodingJobQueueService transcodingJobQueueService) {
+                                    TranscodingJobQueueService transcodingJobQueueService,
+                                    LibraryIngestionService libraryIngestionService) {
         this.streamManagementService = streamManagementService;
         this.transcodingJobQueueService = transcodingJobQueueService;
+        this.libraryIngestionService = libraryIngestionService;
     }
 
     /**
@@ -74,6 +78,62 @@ public class StreamManagementController {
         }
     }
 
+    /**
+     * Bulk import a directory tree or M3U playlist in the background (Admin only)
+     */
+    @PostMapping("/import")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> importLibrary(
+            @Valid @RequestBody LibraryImportRequest request,
+            @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        
+        logger.info("Admin {} importing library from: {}", userPrincipal.getUsername(), request.getSource());
+        
+        try {
+            LibraryIngestionService.ImportProgress progress =
+                    libraryIngestionService.startImport(request.getSource(), request.isAnalyze());
+            return ResponseEntity.accepted().body(progress);
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Failed to start library import", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * List recent library imports (Admin only)
+     */
+    @GetMapping("/import")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<LibraryIngestionService.ImportProgress>> getLibraryImports() {
+        return ResponseEntity.ok(libraryIngestionService.getImports());
+    }
+
+    /**
+     * Progress and throughput of a library import (Admin only)
+     */
+    @GetMapping("/import/{importId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<LibraryIngestionService.ImportProgress> getLibraryImport(@PathVariable String importId) {
+        return libraryIngestionService.getImport(importId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Cancel a running library import (Admin only)
+     */
+    @DeleteMapping("/import/{importId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, String>> cancelLibraryImport(@PathVariable String importId) {
+        if (libraryIngestionService.cancelImport(importId)) {
+            return ResponseEntity.ok(Map.of("message", "Library import cancelled"));
+        }
+        return ResponseEntity.notFound().build();
+    }
+
     /**
      * Get all stream sources
      */
@@ -329,11 +389,15 @@ public class StreamManagementController {
             }
             
             // Queue transcoding job
+            TranscodingJob.Priority priority = request.getPriority() != null
+                    ? request.getPriority() : TranscodingJob.Priority.PREFETCH;
             TranscodingJob job;
             if (request.isGenerateHLS()) {
-                job = transcodingJobQueueService.queueHLSJob(streamSource, selectedTracks);
+                job = transcodingJobQueueService.queueHLSJob(streamSource, selectedTracks, false,
+                        priority, userPrincipal.getUsername());
             } else {
-                job = transcodingJobQueueService.queueTranscodingJob(streamSource, selectedTracks);
+                job = transcodingJobQueueService.queueTranscodingJob(streamSource, selectedTracks,
+                        priority, userPrincipal.getUsername());
             }
             
             return ResponseEntity.ok(new TranscodingJobResponse(job));
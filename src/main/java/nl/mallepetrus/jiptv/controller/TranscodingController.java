@@ -7,21 +7,38 @@ import nl.mallepetrus.jiptv.entity.TranscodingJob;
 import nl.mallepetrus.jiptv.repository.StreamSourceRepository;
 import nl.mallepetrus.jiptv.repository.StreamTrackRepository;
 import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
+import nl.mallepetrus.jiptv.security.UserPrincipal;
+import nl.mallepetrus.jiptv.service.EncoderCapabilityService;
 import nl.mallepetrus.jiptv.service.FFmpegTranscodingService;
+import nl.mallepetrus.jiptv.service.TranscodingEventBroadcaster;
 import nl.mallepetrus.jiptv.service.TranscodingJobQueueService;
+import nl.mallepetrus.jiptv.service.TranscodingProgressRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import jakarta.validation.Valid;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 @RestController
 @RequestMapping("/api/transcoding")
@@ -34,18 +51,27 @@ public class TranscodingController {
     private final TranscodingJobRepository jobRepository;
     private final StreamSourceRepository streamSourceRepository;
     private final StreamTrackRepository streamTrackRepository;
+    private final EncoderCapabilityService capabilityService;
+    private final TranscodingProgressRegistry progressRegistry;
+    private final TranscodingEventBroadcaster eventBroadcaster;
 
     @Autowired
     public TranscodingController(TranscodingJobQueueService queueService,
                                FFmpegTranscodingService transcodingService,
                                TranscodingJobRepository jobRepository,
                                StreamSourceRepository streamSourceRepository,
-                               StreamTrackRepository streamTrackRepository) {
+                               StreamTrackRepository streamTrackRepository,
+                               EncoderCapabilityService capabilityService,
+                               TranscodingProgressRegistry progressRegistry,
+                               TranscodingEventBroadcaster eventBroadcaster) {
         this.queueService = queueService;
         this.transcodingService = transcodingService;
         this.jobRepository = jobRepository;
         this.streamSourceRepository = streamSourceRepository;
         this.streamTrackRepository = streamTrackRepository;
+        this.capabilityService = capabilityService;
+        this.progressRegistry = progressRegistry;
+        this.eventBroadcaster = eventBroadcaster;
     }
 
     /**
@@ -53,8 +79,9 @@ public class TranscodingController {
      */
     @PostMapping("/jobs")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<TranscodingJobResponse> startTranscodingJob(@Valid @RequestBody TranscodingJobRequest request) {
-        logger.info("Starting transcoding job for stream: {}", request.getStreamSourceId());
+    public ResponseEntity<TranscodingJobResponse> startTranscodingJob(@Valid @RequestBody TranscodingJobRequest request,
+                                                                      @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        logger.info("Starting {} transcoding job for stream: {}", request.getPriority(), request.getStreamSourceId());
 
         // Validate stream source exists
         StreamSource streamSource = streamSourceRepository.findById(request.getStreamSourceId())
@@ -73,13 +100,20 @@ public class TranscodingController {
             throw new RuntimeException("Selected tracks do not belong to the specified stream");
         }
 
+        TranscodingJob.Priority priority = request.getPriority() != null
+                ? request.getPriority() : TranscodingJob.Priority.PREFETCH;
+        String requestedBy = userPrincipal != null ? userPrincipal.getUsername() : null;
+
         TranscodingJob job;
-        if (request.isGenerateHLS()) {
+        if (request.isGenerateHLS() && request.isIncludeTranscodedFile()) {
+            // Queue single-pass MP4 + HLS job
+            job = queueService.queueTranscodeAndHLSJob(streamSource, selectedTracks, priority, requestedBy);
+        } else if (request.isGenerateHLS()) {
             // Queue HLS generation job
-            job = queueService.queueHLSJob(streamSource, selectedTracks);
+            job = queueService.queueHLSJob(streamSource, selectedTracks, request.isAdaptiveBitrate(), priority, requestedBy);
         } else {
             // Queue regular transcoding job
-            job = queueService.queueTranscodingJob(streamSource, selectedTracks);
+            job = queueService.queueTranscodingJob(streamSource, selectedTracks, priority, requestedBy);
         }
 
         return ResponseEntity.ok(new TranscodingJobResponse(job));
@@ -93,7 +127,40 @@ public class TranscodingController {
         TranscodingJob job = jobRepository.findById(jobId)
                 .orElseThrow(() -> new RuntimeException("Transcoding job not found: " + jobId));
 
-        return ResponseEntity.ok(new TranscodingJobResponse(job));
+        // Jobs running on this node report live progress, others what was last flushed
+        return ResponseEntity.ok(new TranscodingJobResponse(progressRegistry.overlay(job)));
+    }
+
+    /**
+     * Stream progress and state changes of a job as server-sent events, starting with its current state.
+     * The stream ends when the job finishes.
+     */
+    @GetMapping(value = "/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("isAuthenticated()")
+    public SseEmitter streamJobEvents(@PathVariable Long jobId,
+                                      @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        TranscodingJob job = jobRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("Transcoding job not found: " + jobId));
+
+        SseEmitter emitter = eventBroadcaster.subscribe(jobId, new TranscodingJobResponse(progressRegistry.overlay(job)),
+                                                        userPrincipal != null ? userPrincipal.getUsername() : null);
+
+        // The job may have finished between loading it and subscribing, its final event is gone then
+        TranscodingJob.Status status = jobRepository.findStatusById(jobId).orElse(null);
+        if (job.isFinished() || status == null
+                || (status != TranscodingJob.Status.PENDING && status != TranscodingJob.Status.RUNNING)) {
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * Stream progress and state changes of all jobs as server-sent events
+     */
+    @GetMapping(value = "/queue/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasRole('ADMIN')")
+    public SseEmitter streamQueueEvents(@AuthenticationPrincipal UserPrincipal userPrincipal) {
+        return eventBroadcaster.subscribe(null, null, userPrincipal != null ? userPrincipal.getUsername() : null);
     }
 
     /**
@@ -115,7 +182,7 @@ public class TranscodingController {
             jobs = jobRepository.findAll(pageable);
         }
 
-        Page<TranscodingJobResponse> response = jobs.map(TranscodingJobResponse::new);
+        Page<TranscodingJobResponse> response = jobs.map(job -> new TranscodingJobResponse(progressRegistry.overlay(job)));
         return ResponseEntity.ok(response);
     }
 
@@ -126,7 +193,7 @@ public class TranscodingController {
     public ResponseEntity<List<TranscodingJobResponse>> getJobsForStream(@PathVariable Long streamId) {
         List<TranscodingJob> jobs = jobRepository.findByStreamSourceIdOrderByCreatedAtDesc(streamId);
         List<TranscodingJobResponse> response = jobs.stream()
-                .map(TranscodingJobResponse::new)
+                .map(job -> new TranscodingJobResponse(progressRegistry.overlay(job)))
                 .collect(Collectors.toList());
 
         return ResponseEntity.ok(response);
@@ -140,15 +207,7 @@ public class TranscodingController {
     public ResponseEntity<TranscodingJobResponse> cancelTranscodingJob(@PathVariable Long jobId) {
         logger.info("Cancelling transcoding job: {}", jobId);
 
-        TranscodingJob job = jobRepository.findById(jobId)
-                .orElseThrow(() -> new RuntimeException("Transcoding job not found: " + jobId));
-
-        if (job.isFinished()) {
-            throw new RuntimeException("Cannot cancel finished job: " + jobId);
-        }
-
-        job.cancel();
-        job = jobRepository.save(job);
+        TranscodingJob job = queueService.cancelJob(jobId);
 
         return ResponseEntity.ok(new TranscodingJobResponse(job));
     }
@@ -180,20 +239,44 @@ public class TranscodingController {
     }
 
     /**
-     * Get job logs
+     * Get job logs: the complete output when this node has it on disk, otherwise the stored
+     * error lines and output tail
      */
     @GetMapping("/jobs/{jobId}/logs")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<String> getJobLogs(@PathVariable Long jobId) {
+    public ResponseEntity<Resource> getJobLogs(@PathVariable Long jobId,
+                                               @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                               String acceptEncoding) {
         TranscodingJob job = jobRepository.findById(jobId)
                 .orElseThrow(() -> new RuntimeException("Transcoding job not found: " + jobId));
 
-        String logs = job.getFfmpegLog();
+        // The gzip file is only complete once the job has finished
+        Path fullLog = transcodingService.getFullLogFile(jobId);
+        if (job.isFinished() && Files.isRegularFile(fullLog)) {
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                return ResponseEntity.ok()
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .body(new FileSystemResource(fullLog));
+            }
+            try {
+                return ResponseEntity.ok()
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .body(new InputStreamResource(new GZIPInputStream(Files.newInputStream(fullLog))));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read log file of job " + jobId, e);
+            }
+        }
+
+        String logs = job.isFinished() ? job.getFfmpegLog()
+                : transcodingService.getRunningJobLog(jobId).orElse(job.getFfmpegLog());
         if (logs == null || logs.isEmpty()) {
             logs = "No logs available for this job.";
         }
 
-        return ResponseEntity.ok(logs);
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(new ByteArrayResource(logs.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
@@ -208,6 +291,29 @@ public class TranscodingController {
         return ResponseEntity.ok(new ApiResponse(message, available));
     }
 
+    /**
+     * Get encoder capabilities and benchmark results of this node
+     */
+    @GetMapping("/capabilities")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<EncoderCapabilityService.EncoderCapabilities> getEncoderCapabilities() {
+        return capabilityService.getCapabilities()
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    /**
+     * Re-run the encoder probe and benchmarks in the background, ignoring cached results.
+     * The outcome is available from GET /capabilities once it finishes.
+     */
+    @PostMapping("/capabilities/probe")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ApiResponse> probeEncoderCapabilities() {
+        logger.info("Re-running encoder capability probe");
+        capabilityService.reprobe();
+        return ResponseEntity.accepted().body(new ApiResponse("Encoder capability probe started"));
+    }
+
     /**
      * Get available transcoding profiles
      */
@@ -230,7 +336,9 @@ public class TranscodingController {
     public ResponseEntity<List<HLSProfileResponse>> getHLSProfiles() {
         List<HLSProfileResponse> profiles = List.of(
             new HLSProfileResponse("WebOS_HLS", "WebOS TV HLS", 
-                "HLS streaming optimized for WebOS TV", 6)
+                "HLS streaming optimized for WebOS TV", 6),
+            new HLSProfileResponse("WebOS_ABR", "WebOS TV Adaptive HLS", 
+                "Adaptive bitrate HLS ladder with a master playlist for WebOS TV", 6)
         );
 
         return ResponseEntity.ok(profiles);
@@ -0,0 +1,35 @@
+package nl.mallepetrus.jiptv.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+public class LibraryImportRequest {
+
+    @NotBlank(message = "Import source is required")
+    private String source; // Directory, local M3U file or M3U URL
+
+    private boolean analyze = true; // Run FFprobe on every discovered source
+
+    public LibraryImportRequest() {}
+
+    public LibraryImportRequest(String source, boolean analyze) {
+        this.source = source;
+        this.analyze = analyze;
+    }
+
+    // Getters and Setters
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public boolean isAnalyze() {
+        return analyze;
+    }
+
+    public void setAnalyze(boolean analyze) {
+        this.analyze = analyze;
+    }
+}
@@ -1,6 +1,7 @@
 package nl.mallepetrus.jiptv.dto;
 
 import jakarta.validation.constraints.NotNull;
+import nl.mallepetrus.jiptv.entity.TranscodingJob;
 import jakarta.validation.constraints.Size;
 
 import java.util.List;
@@ -17,6 +18,15 @@ public class TranscodingJobRequest {
 
     private boolean generateHLS = false;
 
+    // Also produce the MP4 rendition in the same FFmpeg run as the HLS segments
+    private boolean includeTranscodedFile = false;
+
+    // Encode the HLS output as a rendition ladder with a master playlist
+    private boolean adaptiveBitrate = false;
+
+    // INTERACTIVE for a viewer waiting on it, BACKFILL for bulk queuing
+    private TranscodingJob.Priority priority = TranscodingJob.Priority.PREFETCH;
+
     // Constructors
     public TranscodingJobRequest() {}
 
@@ -57,4 +67,28 @@ public class TranscodingJobRequest {
     public void setGenerateHLS(boolean generateHLS) {
         this.generateHLS = generateHLS;
     }
+
+    public boolean isIncludeTranscodedFile() {
+        return includeTranscodedFile;
+    }
+
+    public void setIncludeTranscodedFile(boolean includeTranscodedFile) {
+        this.includeTranscodedFile = includeTranscodedFile;
+    }
+
+    public boolean isAdaptiveBitrate() {
+        return adaptiveBitrate;
+    }
+
+    public void setAdaptiveBitrate(boolean adaptiveBitrate) {
+        this.adaptiveBitrate = adaptiveBitrate;
+    }
+
+    public TranscodingJob.Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(TranscodingJob.Priority priority) {
+        this.priority = priority;
+    }
 }
\ No newline at end of file
@@ -11,15 +11,19 @@ public class TranscodingJobResponse {
     private String streamSourceName;
     private TranscodingJob.JobType jobType;
     private TranscodingJob.Status status;
+    private TranscodingJob.Priority priority;
+    private String requestedBy;
     private String transcodingProfile;
     private Integer progressPercent;
     private Long currentFrame;
     private Long totalFrames;
     private String processingSpeed;
+    private Long currentBitrateKbps;
     private LocalDateTime startedAt;
     private LocalDateTime completedAt;
     private LocalDateTime estimatedCompletionAt;
     private String outputFile;
+    private String hlsPlaylistFile;
     private String formattedOutputSize;
     private String errorMessage;
     private long durationMinutes;
@@ -34,15 +38,19 @@ public class TranscodingJobResponse {
         this.streamSourceName = job.getStreamSource().getName();
         this.jobType = job.getJobType();
         this.status = job.getStatus();
+        this.priority = job.getPriority();
+        this.requestedBy = job.getRequestedBy();
         this.transcodingProfile = job.getTranscodingProfile();
         this.progressPercent = job.getProgressPercent();
         this.currentFrame = job.getCurrentFrame();
         this.totalFrames = job.getTotalFrames();
         this.processingSpeed = job.getProcessingSpeed();
+        this.currentBitrateKbps = job.getCurrentBitrateKbps();
         this.startedAt = job.getStartedAt();
         this.completedAt = job.getCompletedAt();
         this.estimatedCompletionAt = job.getEstimatedCompletionAt();
         this.outputFile = job.getOutputFile();
+        this.hlsPlaylistFile = job.getHlsPlaylistFile();
         this.formattedOutputSize = job.getFormattedOutputSize();
         this.errorMessage = job.getErrorMessage();
         this.durationMinutes = job.getDurationMinutes();
@@ -90,6 +98,22 @@ public class TranscodingJobResponse {
         this.status = status;
     }
 
+    public TranscodingJob.Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(TranscodingJob.Priority priority) {
+        this.priority = priority;
+    }
+
+    public String getRequestedBy() {
+        return requestedBy;
+    }
+
+    public void setRequestedBy(String requestedBy) {
+        this.requestedBy = requestedBy;
+    }
+
     public String getTranscodingProfile() {
         return transcodingProfile;
     }
@@ -130,6 +154,14 @@ public class TranscodingJobResponse {
         this.processingSpeed = processingSpeed;
     }
 
+    public Long getCurrentBitrateKbps() {
+        return currentBitrateKbps;
+    }
+
+    public void setCurrentBitrateKbps(Long currentBitrateKbps) {
+        this.currentBitrateKbps = currentBitrateKbps;
+    }
+
     public LocalDateTime getStartedAt() {
         return startedAt;
     }
@@ -162,6 +194,14 @@ public class TranscodingJobResponse {
         this.outputFile = outputFile;
     }
 
+    public String getHlsPlaylistFile() {
+        return hlsPlaylistFile;
+    }
+
+    public void setHlsPlaylistFile(String hlsPlaylistFile) {
+        this.hlsPlaylistFile = hlsPlaylistFile;
+    }
+
     public String getFormattedOutputSize() {
         return formattedOutputSize;
     }
@@ -0,0 +1,86 @@
+package nl.mallepetrus.jiptv.dto;
+
+import nl.mallepetrus.jiptv.entity.TranscodingJob;
+import nl.mallepetrus.jiptv.service.TranscodingJobEvent;
+import nl.mallepetrus.jiptv.service.TranscodingProgressRegistry;
+
+import java.time.LocalDateTime;
+
+/**
+ * Payload of a pushed job event: a state change (QUEUED, STARTED, COMPLETED, ...) or a PROGRESS update
+ */
+public class TranscodingJobUpdateResponse {
+
+    public static final String PROGRESS = "PROGRESS";
+
+    private Long jobId;
+    private String type;
+    private Long streamSourceId;
+    private TranscodingJob.JobType jobType;
+    private Integer progressPercent;
+    private Long currentFrame;
+    private String processingSpeed;
+    private LocalDateTime estimatedCompletionAt;
+    private Long currentBitrateKbps;
+
+    // Constructors
+    public TranscodingJobUpdateResponse() {}
+
+    public static TranscodingJobUpdateResponse state(TranscodingJobEvent event) {
+        TranscodingJobUpdateResponse update = new TranscodingJobUpdateResponse();
+        update.jobId = event.getJobId();
+        update.type = event.getType().name();
+        update.streamSourceId = event.getStreamSourceId();
+        update.jobType = event.getJobType();
+        return update;
+    }
+
+    public static TranscodingJobUpdateResponse progress(Long jobId, TranscodingProgressRegistry.JobProgress progress) {
+        TranscodingJobUpdateResponse update = new TranscodingJobUpdateResponse();
+        update.jobId = jobId;
+        update.type = PROGRESS;
+        update.progressPercent = progress.getProgressPercent();
+        update.currentFrame = progress.getCurrentFrame();
+        update.processingSpeed = progress.getProcessingSpeed();
+        update.estimatedCompletionAt = progress.getEstimatedCompletionAt();
+        update.currentBitrateKbps = progress.getCurrentBitrateKbps();
+        return update;
+    }
+
+    // Getters
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Long getStreamSourceId() {
+        return streamSourceId;
+    }
+
+    public TranscodingJob.JobType getJobType() {
+        return jobType;
+    }
+
+    public Integer getProgressPercent() {
+        return progressPercent;
+    }
+
+    public Long getCurrentFrame() {
+        return currentFrame;
+    }
+
+    public String getProcessingSpeed() {
+        return processingSpeed;
+    }
+
+    public LocalDateTime getEstimatedCompletionAt() {
+        return estimatedCompletionAt;
+    }
+
+    public Long getCurrentBitrateKbps() {
+        return currentBitrateKbps;
+    }
+}
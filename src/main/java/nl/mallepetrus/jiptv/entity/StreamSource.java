@@ -16,6 +16,9 @@ import java.util.List;
 @EntityListeners(AuditingEntityListener.class)
 public class StreamSource {
 
+    // Bump when analysis extracts more or different metadata, so existing sources get re-analyzed
+    public static final String CURRENT_ANALYSIS_VERSION = "1.0";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -42,6 +45,9 @@ public class StreamSource {
     @Column(name = "file_hash")
     private String fileHash;
 
+    @Column(name = "file_modified_at")
+    private LocalDateTime fileModifiedAt;
+
     @Column(name = "content_type")
     private String contentType;
 
@@ -55,7 +61,7 @@ public class StreamSource {
     private LocalDateTime analyzedAt;
 
     @Column(name = "analysis_version")
-    private String analysisVersion = "1.0";
+    private String analysisVersion = CURRENT_ANALYSIS_VERSION;
 
     @CreatedDate
     @Column(name = "created_at", nullable = false, updatable = false)
@@ -142,6 +148,14 @@ public class StreamSource {
         this.fileHash = fileHash;
     }
 
+    public LocalDateTime getFileModifiedAt() {
+        return fileModifiedAt;
+    }
+
+    public void setFileModifiedAt(LocalDateTime fileModifiedAt) {
+        this.fileModifiedAt = fileModifiedAt;
+    }
+
     public String getContentType() {
         return contentType;
     }
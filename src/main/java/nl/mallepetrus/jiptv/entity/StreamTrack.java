@@ -15,8 +15,10 @@ import java.util.Map;
 @EntityListeners(AuditingEntityListener.class)
 public class StreamTrack {
 
+    // Pooled sequence ids, so the tracks of an analysis are inserted as one JDBC batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stream_tracks_id_seq")
+    @SequenceGenerator(name = "stream_tracks_id_seq", sequenceName = "stream_tracks_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
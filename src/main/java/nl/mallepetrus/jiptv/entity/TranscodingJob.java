@@ -41,6 +41,9 @@ public class TranscodingJob {
     @Column(name = "output_file", columnDefinition = "TEXT")
     private String outputFile;
 
+    @Column(name = "hls_playlist_file", columnDefinition = "TEXT")
+    private String hlsPlaylistFile; // Only set for TRANSCODE_HLS jobs, outputFile holds the MP4
+
     @Column(name = "ffmpeg_command", columnDefinition = "TEXT")
     private String ffmpegCommand;
 
@@ -64,6 +67,9 @@ public class TranscodingJob {
     @Column(name = "processing_speed", length = 20)
     private String processingSpeed; // "2.5x", "1.2x"
 
+    @Transient
+    private Long currentBitrateKbps; // Output bitrate so far, only known on the node running the job
+
     // Timing
     @Column(name = "started_at")
     private LocalDateTime startedAt;
@@ -78,12 +84,32 @@ public class TranscodingJob {
     @Column(name = "output_size_bytes")
     private Long outputSizeBytes;
 
+    @Column(name = "output_etag", length = 64)
+    private String outputEtag; // Content hash of the transcoded file, set on completion
+
+    @Column(name = "hls_etag", length = 64)
+    private String hlsEtag; // Content hash of the HLS playlists and segments, set on completion
+
     @Column(name = "error_message", columnDefinition = "TEXT")
     private String errorMessage;
 
     @Column(name = "ffmpeg_log", columnDefinition = "TEXT")
     private String ffmpegLog;
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Priority priority = Priority.PREFETCH;
+
+    @Column(name = "requested_by", length = 100)
+    private String requestedBy; // Username that queued the job, null for system jobs
+
+    // Claim lease, only written by the claim/heartbeat queries in TranscodingJobRepository
+    @Column(name = "claimed_by", length = 100, insertable = false, updatable = false)
+    private String claimedBy;
+
+    @Column(name = "lease_expires_at", insertable = false, updatable = false)
+    private LocalDateTime leaseExpiresAt;
+
     @CreatedDate
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -106,7 +132,15 @@ public class TranscodingJob {
         ANALYSIS,
         TRANSCODE,
         THUMBNAIL,
-        SEGMENT
+        SEGMENT,
+        TRANSCODE_HLS
+    }
+
+    // Claimed in this order; running BACKFILL jobs may be paused to make room for INTERACTIVE ones
+    public enum Priority {
+        INTERACTIVE,
+        PREFETCH,
+        BACKFILL
     }
 
     public enum Status {
@@ -166,6 +200,14 @@ public class TranscodingJob {
         this.outputFile = outputFile;
     }
 
+    public String getHlsPlaylistFile() {
+        return hlsPlaylistFile;
+    }
+
+    public void setHlsPlaylistFile(String hlsPlaylistFile) {
+        this.hlsPlaylistFile = hlsPlaylistFile;
+    }
+
     public String getFfmpegCommand() {
         return ffmpegCommand;
     }
@@ -222,6 +264,14 @@ public class TranscodingJob {
         this.processingSpeed = processingSpeed;
     }
 
+    public Long getCurrentBitrateKbps() {
+        return currentBitrateKbps;
+    }
+
+    public void setCurrentBitrateKbps(Long currentBitrateKbps) {
+        this.currentBitrateKbps = currentBitrateKbps;
+    }
+
     public LocalDateTime getStartedAt() {
         return startedAt;
     }
@@ -254,6 +304,22 @@ public class TranscodingJob {
         this.outputSizeBytes = outputSizeBytes;
     }
 
+    public String getOutputEtag() {
+        return outputEtag;
+    }
+
+    public void setOutputEtag(String outputEtag) {
+        this.outputEtag = outputEtag;
+    }
+
+    public String getHlsEtag() {
+        return hlsEtag;
+    }
+
+    public void setHlsEtag(String hlsEtag) {
+        this.hlsEtag = hlsEtag;
+    }
+
     public String getErrorMessage() {
         return errorMessage;
     }
@@ -270,6 +336,30 @@ public class TranscodingJob {
         this.ffmpegLog = ffmpegLog;
     }
 
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public String getRequestedBy() {
+        return requestedBy;
+    }
+
+    public void setRequestedBy(String requestedBy) {
+        this.requestedBy = requestedBy;
+    }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -325,6 +415,18 @@ public class TranscodingJob {
         return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
     }
 
+    public boolean producesHls() {
+        return jobType == JobType.SEGMENT || jobType == JobType.TRANSCODE_HLS;
+    }
+
+    public boolean producesTranscodedFile() {
+        return jobType == JobType.TRANSCODE || jobType == JobType.TRANSCODE_HLS;
+    }
+
+    public String getHlsOutputFile() {
+        return jobType == JobType.TRANSCODE_HLS ? hlsPlaylistFile : outputFile;
+    }
+
     public long getDurationMinutes() {
         if (startedAt == null) return 0;
         
@@ -4,6 +4,7 @@ import nl.mallepetrus.jiptv.entity.StreamSource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -15,11 +16,30 @@ import java.util.Optional;
 @Repository
 public interface StreamSourceRepository extends JpaRepository<StreamSource, Long> {
 
+    // Page through active sources in id order, for the background re-analysis sweep
+    @Query("SELECT s FROM StreamSource s WHERE s.active = true AND s.id > :afterId ORDER BY s.id")
+    List<StreamSource> findActiveAfterId(@Param("afterId") Long afterId, Pageable pageable);
+
+    // Record a changed size/mtime of a file whose content turned out to be unchanged
+    @Modifying
+    @Query("UPDATE StreamSource s SET s.fileSize = :fileSize, s.fileHash = :fileHash, " +
+           "s.fileModifiedAt = :fileModifiedAt WHERE s.id = :id")
+    int updateFileState(@Param("id") Long id, @Param("fileSize") Long fileSize,
+                        @Param("fileHash") String fileHash, @Param("fileModifiedAt") LocalDateTime fileModifiedAt);
+
     // Find by source type
     List<StreamSource> findBySourceTypeAndActiveTrue(StreamSource.SourceType sourceType);
 
     // Find by file hash (for duplicate detection)
-    Optional<StreamSource> findByFileHash(String fileHash);
+    // First match, sources added before duplicate detection may share a hash
+    Optional<StreamSource> findFirstByFileHashOrderByIdAsc(String fileHash);
+
+    // Known source URLs and hashes, loaded once per library import
+    @Query("SELECT s.sourceUrl FROM StreamSource s")
+    List<String> findAllSourceUrls();
+
+    @Query("SELECT s.fileHash FROM StreamSource s WHERE s.fileHash IS NOT NULL")
+    List<String> findAllFileHashes();
 
     // Find active sources
     List<StreamSource> findByActiveTrue();
@@ -3,6 +3,7 @@ package nl.mallepetrus.jiptv.repository;
 import nl.mallepetrus.jiptv.entity.StreamSource;
 import nl.mallepetrus.jiptv.entity.StreamTrack;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -105,6 +106,8 @@ public interface StreamTrackRepository extends JpaRepository<StreamTrack, Long>
            "t.codecName IS NOT NULL ORDER BY t.codecName")
     List<String> findDistinctCodecsByStreamSource(@Param("streamSource") StreamSource streamSource);
 
-    // Delete tracks by stream source (for re-analysis)
-    void deleteByStreamSource(StreamSource streamSource);
+    // Delete tracks by stream source (for re-analysis) in a single statement
+    @Modifying
+    @Query("DELETE FROM StreamTrack t WHERE t.streamSource = :streamSource")
+    int deleteByStreamSource(@Param("streamSource") StreamSource streamSource);
 }
\ No newline at end of file
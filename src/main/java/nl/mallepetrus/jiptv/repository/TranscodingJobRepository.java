@@ -9,8 +9,10 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -38,6 +40,11 @@ public interface TranscodingJobRepository extends JpaRepository<TranscodingJob,
     List<TranscodingJob> findByStreamSourceAndJobTypeAndStatusInOrderByCreatedAtDesc(
             StreamSource streamSource, TranscodingJob.JobType jobType, List<TranscodingJob.Status> statuses);
 
+    // Find jobs by stream source, job type, profile and status
+    List<TranscodingJob> findByStreamSourceAndJobTypeAndTranscodingProfileAndStatusInOrderByCreatedAtDesc(
+            StreamSource streamSource, TranscodingJob.JobType jobType, String transcodingProfile,
+            List<TranscodingJob.Status> statuses);
+
     // Find pending jobs (queue)
     List<TranscodingJob> findByStatusInOrderByCreatedAtAsc(List<TranscodingJob.Status> statuses);
 
@@ -83,11 +90,11 @@ public interface TranscodingJobRepository extends JpaRepository<TranscodingJob,
            "ORDER BY j.completedAt DESC")
     Optional<TranscodingJob> findLatestCompletedAnalysis(@Param("streamSource") StreamSource streamSource);
 
-    // Update job progress
+    // Update job progress, never touching a job that has finished meanwhile
     @Modifying
     @Query("UPDATE TranscodingJob j SET j.progressPercent = :progress, j.currentFrame = :currentFrame, " +
            "j.processingSpeed = :speed, j.estimatedCompletionAt = :estimatedCompletion " +
-           "WHERE j.id = :jobId")
+           "WHERE j.id = :jobId AND j.status = 'RUNNING'")
     int updateJobProgress(@Param("jobId") Long jobId,
                          @Param("progress") Integer progress,
                          @Param("currentFrame") Long currentFrame,
@@ -112,6 +119,15 @@ public interface TranscodingJobRepository extends JpaRepository<TranscodingJob,
     int cancelStuckJobs(@Param("stuckThreshold") LocalDateTime stuckThreshold,
                        @Param("cancelTime") LocalDateTime cancelTime);
 
+    // Deliverable output of a stream, newest first: id, jobType, status, outputFile, hlsPlaylistFile, transcodingProfile,
+    // outputEtag, hlsEtag, completedAt
+    @Query("SELECT j.id, j.jobType, j.status, j.outputFile, j.hlsPlaylistFile, j.transcodingProfile, " +
+           "j.outputEtag, j.hlsEtag, j.completedAt " +
+           "FROM TranscodingJob j WHERE j.streamSource.id = :streamSourceId " +
+           "AND j.status IN ('COMPLETED', 'RUNNING') AND j.jobType IN ('TRANSCODE', 'SEGMENT', 'TRANSCODE_HLS') " +
+           "ORDER BY j.createdAt DESC")
+    List<Object[]> findDeliverableOutputs(@Param("streamSourceId") Long streamSourceId);
+
     // Statistics queries
     @Query("SELECT j.status, COUNT(j) FROM TranscodingJob j GROUP BY j.status")
     List<Object[]> getJobCountsByStatus();
@@ -135,7 +151,11 @@ public interface TranscodingJobRepository extends JpaRepository<TranscodingJob,
 
     // Queue management
     @Query("SELECT j FROM TranscodingJob j WHERE j.status = 'PENDING' " +
-           "ORDER BY j.jobType ASC, j.createdAt ASC")
+           "ORDER BY CASE j.priority " +
+           "WHEN 'INTERACTIVE' THEN 1 " +
+           "WHEN 'PREFETCH' THEN 2 " +
+           "ELSE 3 " +
+           "END, j.jobType ASC, j.createdAt ASC")
     List<TranscodingJob> findJobQueue(Pageable pageable);
 
     // Find next job to process
@@ -144,7 +164,106 @@ public interface TranscodingJobRepository extends JpaRepository<TranscodingJob,
            "WHEN 'ANALYSIS' THEN 1 " +
            "WHEN 'THUMBNAIL' THEN 2 " +
            "WHEN 'TRANSCODE' THEN 3 " +
+           "WHEN 'TRANSCODE_HLS' THEN 3 " +
            "WHEN 'SEGMENT' THEN 4 " +
            "END, j.createdAt ASC")
     Optional<TranscodingJob> findNextJobToProcess();
-}
\ No newline at end of file
+
+    // Lock the next pending job of the given types, skipping rows already locked by other nodes.
+    // Highest priority class first; within a class the requester with the fewest running jobs goes first.
+    @Query(value = "SELECT j.id FROM transcoding_jobs j WHERE j.status = 'PENDING' AND j.job_type IN (:jobTypes) " +
+           "ORDER BY CASE j.priority " +
+           "WHEN 'INTERACTIVE' THEN 1 " +
+           "WHEN 'PREFETCH' THEN 2 " +
+           "ELSE 3 " +
+           "END, " +
+           "(SELECT COUNT(*) FROM transcoding_jobs r WHERE r.status = 'RUNNING' " +
+           "AND r.requested_by IS NOT DISTINCT FROM j.requested_by), " +
+           "CASE j.job_type " +
+           "WHEN 'ANALYSIS' THEN 1 " +
+           "WHEN 'THUMBNAIL' THEN 2 " +
+           "WHEN 'TRANSCODE' THEN 3 " +
+           "WHEN 'TRANSCODE_HLS' THEN 3 " +
+           "WHEN 'SEGMENT' THEN 4 " +
+           "END, j.created_at ASC " +
+           "LIMIT 1 FOR UPDATE OF j SKIP LOCKED", nativeQuery = true)
+    Optional<Long> lockNextPendingJobId(@Param("jobTypes") Collection<String> jobTypes);
+
+    // Pending jobs of a priority class, used to decide whether running jobs should be preempted
+    @Query(value = "SELECT COUNT(*) FROM transcoding_jobs WHERE status = 'PENDING' " +
+           "AND priority = :priority AND job_type IN (:jobTypes)", nativeQuery = true)
+    long countPendingJobsWithPriority(@Param("priority") String priority,
+                                      @Param("jobTypes") Collection<String> jobTypes);
+
+    // Pending jobs of the given types, whatever their priority
+    @Query(value = "SELECT COUNT(*) FROM transcoding_jobs WHERE status = 'PENDING' " +
+           "AND job_type IN (:jobTypes)", nativeQuery = true)
+    long countPendingJobsOfTypes(@Param("jobTypes") Collection<String> jobTypes);
+
+    // Move a job that is still waiting up to a more urgent priority class
+    @Transactional
+    @Modifying
+    @Query("UPDATE TranscodingJob j SET j.priority = :priority WHERE j.id = :jobId AND j.status = 'PENDING'")
+    int raisePendingJobPriority(@Param("jobId") Long jobId, @Param("priority") TranscodingJob.Priority priority);
+
+    // Flip a locked PENDING job to RUNNING and take a lease on it
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE TranscodingJob j SET j.status = 'RUNNING', j.startedAt = :now, " +
+           "j.claimedBy = :nodeId, j.leaseExpiresAt = :leaseExpiresAt " +
+           "WHERE j.id = :jobId AND j.status = 'PENDING'")
+    int claimJob(@Param("jobId") Long jobId,
+                @Param("nodeId") String nodeId,
+                @Param("now") LocalDateTime now,
+                @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    // Heartbeat for jobs running on a node
+    @Modifying
+    @Query("UPDATE TranscodingJob j SET j.leaseExpiresAt = :leaseExpiresAt " +
+           "WHERE j.id IN :jobIds AND j.claimedBy = :nodeId AND j.status = 'RUNNING'")
+    int renewLeases(@Param("jobIds") Collection<Long> jobIds,
+                   @Param("nodeId") String nodeId,
+                   @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    // Put jobs of crashed nodes back in the queue
+    @Modifying
+    @Query("UPDATE TranscodingJob j SET j.status = 'PENDING', j.startedAt = NULL, j.progressPercent = 0, " +
+           "j.claimedBy = NULL, j.leaseExpiresAt = NULL " +
+           "WHERE j.status = 'RUNNING' AND j.leaseExpiresAt < :now")
+    int releaseExpiredLeases(@Param("now") LocalDateTime now);
+
+    // Put jobs claimed by a previous run of this node back in the queue
+    @Modifying
+    @Query("UPDATE TranscodingJob j SET j.status = 'PENDING', j.startedAt = NULL, j.progressPercent = 0, " +
+           "j.claimedBy = NULL, j.leaseExpiresAt = NULL " +
+           "WHERE j.status = 'RUNNING' AND j.claimedBy = :nodeId")
+    int releaseLeasesOfNode(@Param("nodeId") String nodeId);
+
+    // Save the state of a claimed job, only while it still runs under the node's claim so a cancel or
+    // a reclaim by another node is never overwritten
+    @Transactional
+    @Modifying
+    @Query("UPDATE TranscodingJob j SET j.status = :#{#job.status}, j.outputFile = :#{#job.outputFile}, " +
+           "j.hlsPlaylistFile = :#{#job.hlsPlaylistFile}, j.ffmpegCommand = :#{#job.ffmpegCommand}, " +
+           "j.transcodingProfile = :#{#job.transcodingProfile}, j.targetTracks = :#{#job.targetTracks}, " +
+           "j.progressPercent = :#{#job.progressPercent}, j.currentFrame = :#{#job.currentFrame}, " +
+           "j.processingSpeed = :#{#job.processingSpeed}, j.estimatedCompletionAt = :#{#job.estimatedCompletionAt}, " +
+           "j.startedAt = :#{#job.startedAt}, j.completedAt = :#{#job.completedAt}, " +
+           "j.outputSizeBytes = :#{#job.outputSizeBytes}, j.outputEtag = :#{#job.outputEtag}, " +
+           "j.hlsEtag = :#{#job.hlsEtag}, j.errorMessage = :#{#job.errorMessage}, " +
+           "j.ffmpegLog = :#{#job.ffmpegLog}, j.updatedAt = :now " +
+           "WHERE j.id = :#{#job.id} AND j.status = 'RUNNING' AND j.claimedBy = :nodeId")
+    int updateClaimedJob(@Param("job") TranscodingJob job,
+                        @Param("nodeId") String nodeId,
+                        @Param("now") LocalDateTime now);
+
+    // Jobs of the given ones that still run under the node's claim
+    @Query("SELECT j.id FROM TranscodingJob j WHERE j.id IN :jobIds AND j.claimedBy = :nodeId AND j.status = 'RUNNING'")
+    List<Long> findClaimedJobIds(@Param("jobIds") Collection<Long> jobIds, @Param("nodeId") String nodeId);
+
+    @Query("SELECT j.status FROM TranscodingJob j WHERE j.id = :jobId")
+    Optional<TranscodingJob.Status> findStatusById(@Param("jobId") Long jobId);
+
+    // Load a claimed job together with its stream source for use outside the transaction
+    @Query("SELECT j FROM TranscodingJob j JOIN FETCH j.streamSource WHERE j.id = :jobId")
+    Optional<TranscodingJob> findByIdWithStreamSource(@Param("jobId") Long jobId);
+}
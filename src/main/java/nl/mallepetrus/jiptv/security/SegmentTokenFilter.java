@@ -0,0 +1,69 @@
+package nl.mallepetrus.jiptv.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Authenticates HLS playlist and segment requests by the segment token in their URL, so players that
+ * cannot send an Authorization header can follow the URLs of the playlists served to their user.
+ * Requests without a (valid) token go on to JWT authentication as usual.
+ */
+@Component
+public class SegmentTokenFilter extends OncePerRequestFilter {
+
+    private static final String HLS_PATH = "/api/stream-delivery/hls/";
+
+    @Autowired
+    private SegmentTokenProvider tokenProvider;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !tokenProvider.isEnabled()
+                || !request.getRequestURI().startsWith(HLS_PATH, request.getContextPath().length());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                  FilterChain filterChain) throws ServletException, IOException {
+        String token = request.getParameter(SegmentTokenProvider.TOKEN_PARAM);
+        Long streamId = token != null ? streamId(request) : null;
+
+        if (streamId != null && ("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod()))) {
+            // The principal is the user ID, enough to issue tokens for the playlists this request serves
+            Long userId = tokenProvider.verify(token, streamId);
+            if (userId != null) {
+                SecurityContextHolder.getContext().setAuthentication(
+                        UsernamePasswordAuthenticationToken.authenticated(userId, null, List.of()));
+            }
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * Stream ID from /api/stream-delivery/hls/{streamId}/..., or null
+     */
+    private static Long streamId(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        int start = request.getContextPath().length() + HLS_PATH.length();
+        int end = uri.indexOf('/', start);
+        if (end <= start) {
+            return null;
+        }
+        try {
+            return Long.parseLong(uri, start, end, 10);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
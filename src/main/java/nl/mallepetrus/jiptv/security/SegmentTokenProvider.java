@@ -0,0 +1,121 @@
+package nl.mallepetrus.jiptv.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Short-lived tokens that authorize a user's HLS requests for one stream, appended to the playlist
+ * and segment URLs of the playlists they are served. Checking one is a single HMAC, no JWT parsing
+ * or user lookup per segment.
+ *
+ * A token is {@code <expires>.<user>.<signature>}: expiry in epoch seconds, the numeric user ID, and a
+ * truncated HMAC-SHA256 over stream ID, expiry and user ID. The ID rather than the username (an email
+ * address) goes in the URL, so access logs of proxies and CDNs do not collect personal data. Expiry is
+ * rounded up to a window, so playlists rendered for the same user within a window carry the same URLs.
+ */
+@Component
+public class SegmentTokenProvider {
+
+    public static final String TOKEN_PARAM = "token";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_BYTES = 16;
+
+    private final boolean enabled;
+    private final long ttlSeconds;
+    private final long windowSeconds;
+    private final SecretKeySpec key;
+
+    // Mac instances are not thread safe, one per thread saves a provider lookup per check
+    private final ThreadLocal<Mac> mac;
+
+    public SegmentTokenProvider(
+            @Value("${jiptv.delivery.segment-tokens.enabled:true}") boolean enabled,
+            @Value("${jiptv.delivery.segment-tokens.secret:${jiptv.jwt.secret}}") String secret,
+            @Value("${jiptv.delivery.segment-tokens.ttl-seconds:14400}") long ttlSeconds) {
+
+        if (secret == null || secret.length() < 32) {
+            throw new IllegalArgumentException("Segment token secret must be at least 32 characters long for security");
+        }
+
+        this.enabled = enabled;
+        this.ttlSeconds = ttlSeconds;
+        this.windowSeconds = Math.max(1, ttlSeconds / 4);
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Token for a user's requests of one stream, valid for at least the configured TTL
+     */
+    public String issue(Long streamId, Long userId) {
+        long now = System.currentTimeMillis() / 1000;
+        long expires = (now / windowSeconds + 1) * windowSeconds + ttlSeconds;
+        return expires + "." + userId
+                + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(streamId, expires, userId));
+    }
+
+    /**
+     * The ID of the user a token was issued to, or null when it is malformed, expired or for another stream
+     */
+    public Long verify(String token, Long streamId) {
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (secondDot < 0) {
+            return null;
+        }
+
+        try {
+            long expires = Long.parseLong(token, 0, firstDot, 10);
+            if (expires < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            long userId = Long.parseLong(token, firstDot + 1, secondDot, 10);
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(secondDot + 1));
+            return MessageDigest.isEqual(signature, sign(streamId, expires, userId)) ? userId : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * ID of an authenticated user: the {@link UserPrincipal} of a JWT login, or the ID that
+     * {@link SegmentTokenFilter} authenticated from a token. Null for any other principal.
+     */
+    public static Long userId(Authentication authentication) {
+        Object principal = authentication.getPrincipal();
+        if (principal instanceof UserPrincipal user) {
+            return user.getId();
+        }
+        return principal instanceof Long id ? id : null;
+    }
+
+    private byte[] sign(Long streamId, long expires, long userId) {
+        Mac hmac = mac.get();
+        hmac.update((streamId + ":" + expires + ":" + userId).getBytes(StandardCharsets.UTF_8));
+        return Arrays.copyOf(hmac.doFinal(), SIGNATURE_BYTES);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac hmac = Mac.getInstance(ALGORITHM);
+            hmac.init(key);
+            return hmac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package nl.mallepetrus.jiptv.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker pool for long running external processes (FFmpeg, FFprobe).
+ *
+ * Work is admitted in two steps: callers first reserve a slot with {@link #tryReserveSlot()}
+ * and only then pick up work (e.g. claim a job from the database). This keeps the number of
+ * concurrent processes bounded in memory instead of relying on a racy database count.
+ *
+ * The slots are the only limit: every admitted task gets a thread right away. A paused task keeps
+ * its thread while its slot is lent out, so the task admitted on the lent slot needs a thread of
+ * its own. Threads beyond {@code maxConcurrent} are only created for lent slots and exit when idle.
+ */
+public class BoundedWorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedWorkerPool.class);
+
+    private final String name;
+    private final int maxConcurrent;
+    private final SlotSemaphore slots;
+    private final ThreadPoolExecutor executor;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final ThreadLocal<WorkerStats> currentWorker = new ThreadLocal<>();
+    private final Counter rejectedCounter;
+
+    public BoundedWorkerPool(String name, int maxConcurrent, MeterRegistry meterRegistry) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Worker pool '" + name + "' needs at least one slot");
+        }
+
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.slots = new SlotSemaphore(maxConcurrent);
+        this.executor = new ThreadPoolExecutor(maxConcurrent, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new WorkerThreadFactory(meterRegistry));
+
+        Gauge.builder("jiptv.workers.active", this, BoundedWorkerPool::getActiveSlots)
+                .tag("pool", name)
+                .description("Reserved or running worker slots")
+                .register(meterRegistry);
+        Gauge.builder("jiptv.workers.max", this, BoundedWorkerPool::getMaxConcurrent)
+                .tag("pool", name)
+                .description("Maximum concurrent worker slots")
+                .register(meterRegistry);
+        Gauge.builder("jiptv.workers.saturation", this, BoundedWorkerPool::getSaturation)
+                .tag("pool", name)
+                .description("Fraction of worker slots in use")
+                .register(meterRegistry);
+        Gauge.builder("jiptv.workers.threads", executor, ThreadPoolExecutor::getPoolSize)
+                .tag("pool", name)
+                .description("Worker threads, more than the maximum while slots are lent out")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("jiptv.workers.rejected")
+                .tag("pool", name)
+                .description("Reservation attempts rejected because the pool was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reserve a worker slot without blocking. Every successful reservation must be followed by
+     * either {@link #runReserved(String, Runnable)} or {@link #cancelReservation()}.
+     */
+    public boolean tryReserveSlot() {
+        boolean reserved = slots.tryAcquire();
+        if (!reserved) {
+            rejectedCounter.increment();
+        }
+        return reserved;
+    }
+
+    /**
+     * Reserve a worker slot, waiting up to the given time for one to free up. Meant for interactive
+     * work that a client is waiting on; background work should use {@link #tryReserveSlot()}.
+     */
+    public boolean reserveSlot(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean reserved = slots.tryAcquire(timeout, unit);
+        if (!reserved) {
+            rejectedCounter.increment();
+        }
+        return reserved;
+    }
+
+    /**
+     * Reserve a worker slot, waiting as long as it takes. Meant for a producer that should go no
+     * faster than the pool, such as a bulk import; interrupt the waiting thread to give up.
+     */
+    public void reserveSlot() throws InterruptedException {
+        slots.acquire();
+    }
+
+    /**
+     * Borrow up to {@code max} extra slots without blocking, e.g. to run parts of one job in parallel.
+     * Unlike {@link #tryReserveSlot()} a short result is not counted as a rejection.
+     *
+     * @return number of slots reserved
+     */
+    public int tryReserveSlots(int max) {
+        int reserved = 0;
+        while (reserved < max && slots.tryAcquire()) {
+            reserved++;
+        }
+        return reserved;
+    }
+
+    /**
+     * Give back a reservation that did not result in any work
+     */
+    public void cancelReservation() {
+        slots.release();
+    }
+
+    /**
+     * Let other work use the slot of a running task while that task is paused (e.g. a preempted
+     * FFmpeg process). Must be undone with {@link #tryReclaimSlot()} or {@link #reclaimSlot()}
+     * before the task finishes.
+     */
+    public void lendSlot() {
+        slots.release();
+    }
+
+    /**
+     * Take a lent slot back if one is free
+     */
+    public boolean tryReclaimSlot() {
+        return slots.tryAcquire();
+    }
+
+    /**
+     * Take a lent slot back right away, overcommitting the pool until the next slot is released
+     */
+    public void reclaimSlot() {
+        slots.forceAcquire();
+    }
+
+    /**
+     * Run a task on a previously reserved slot. The slot is released once the task has finished,
+     * before the returned future completes, so completion callbacks always see the freed slot.
+     */
+    public CompletableFuture<Void> runReserved(String taskName, Runnable task) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        try {
+            executor.execute(() -> {
+                Thread thread = Thread.currentThread();
+                String originalName = thread.getName();
+                thread.setName(originalName + "-" + taskName);
+
+                Throwable failure = null;
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    thread.setName(originalName);
+                    slots.release();
+                }
+
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Attribute CPU time of a child process (e.g. FFmpeg) to the worker running it
+     */
+    public void recordChildCpuTime(Duration cpuTime) {
+        WorkerStats stats = currentWorker.get();
+        if (stats != null && cpuTime != null) {
+            stats.childCpuNanos.addAndGet(cpuTime.toNanos());
+        }
+    }
+
+    public void shutdown() {
+        logger.info("Shutting down worker pool: {}", name);
+        executor.shutdownNow();
+    }
+
+    public String getName() { return name; }
+    public int getMaxConcurrent() { return maxConcurrent; }
+    public int getAvailableSlots() { return Math.max(0, slots.availablePermits()); }
+    public int getActiveSlots() { return maxConcurrent - slots.availablePermits(); }
+    public int getThreadCount() { return executor.getPoolSize(); }
+    public double getSaturation() { return (double) getActiveSlots() / maxConcurrent; }
+
+    // Fair semaphore whose permits can be taken without waiting, possibly going below zero
+    private static class SlotSemaphore extends Semaphore {
+        SlotSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        void forceAcquire() {
+            reducePermits(1);
+        }
+    }
+
+    private class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final MeterRegistry meterRegistry;
+
+        WorkerThreadFactory(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            String workerName = name + "-" + threadNumber.getAndIncrement();
+            WorkerStats stats = new WorkerStats();
+            FunctionCounter cpuTime = FunctionCounter.builder("jiptv.workers.cpu.time", stats, s -> s.cpuSeconds(threadMXBean))
+                    .tag("pool", name)
+                    .tag("worker", workerName)
+                    .baseUnit("seconds")
+                    .description("CPU time used by a worker thread and the processes it supervised")
+                    .register(meterRegistry);
+
+            // Threads for lent slots exit when idle, their numbers are not reused so their meters must go too
+            Thread thread = new Thread(() -> {
+                currentWorker.set(stats);
+                try {
+                    runnable.run();
+                } finally {
+                    meterRegistry.remove(cpuTime);
+                }
+            }, workerName);
+            stats.threadId = thread.threadId();
+
+            return thread;
+        }
+    }
+
+    private static class WorkerStats {
+        private volatile long threadId;
+        private final AtomicLong childCpuNanos = new AtomicLong();
+
+        double cpuSeconds(ThreadMXBean threadMXBean) {
+            long threadCpu = threadMXBean.isThreadCpuTimeSupported() ? threadMXBean.getThreadCpuTime(threadId) : 0;
+            return (Math.max(threadCpu, 0) + childCpuNanos.get()) / 1_000_000_000.0;
+        }
+    }
+}
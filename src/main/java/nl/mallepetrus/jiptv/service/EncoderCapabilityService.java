@@ -0,0 +1,450 @@
+package nl.mallepetrus.jiptv.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes the installed FFmpeg (encoders, filters) and the host CPU, and benchmarks the presets of
+ * the software encoders on a synthetic clip. Transcoding profiles use the results to pick the best
+ * quality preset that still encodes fast enough on this host. Hardware encoders are listed but not
+ * benchmarked, as profiles do not use them.
+ */
+@Service
+public class EncoderCapabilityService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EncoderCapabilityService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    // Software presets from fastest to slowest (best compression)
+    private static final List<String> X264_PRESETS = List.of(
+            "ultrafast", "superfast", "veryfast", "faster", "fast", "medium", "slow");
+    private static final List<String> X265_PRESETS = List.of(
+            "ultrafast", "superfast", "veryfast", "faster", "fast", "medium");
+
+    // CPU features that matter for software encoders
+    private static final Set<String> RELEVANT_CPU_FLAGS = Set.of(
+            "sse4_1", "sse4_2", "avx", "avx2", "avx512f", "avx512bw", "fma", "bmi2", "neon", "asimd", "sve");
+
+    @Value("${jiptv.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${jiptv.transcoding.capability-probe.enabled:true}")
+    private boolean probeEnabled;
+
+    @Value("${jiptv.transcoding.capability-probe.benchmark-seconds:3}")
+    private int benchmarkSeconds;
+
+    @Value("${jiptv.transcoding.capability-probe.benchmark-size:1920x1080}")
+    private String benchmarkSize;
+
+    @Value("${jiptv.transcoding.capability-probe.cache-file:}")
+    private String cacheFile;
+
+    @Value("${jiptv.transcoding.target-speed:1.5}")
+    private double targetSpeed;
+
+    @Value("${jiptv.transcoding.max-concurrent-jobs:2}")
+    private int maxConcurrentJobs;
+
+    private volatile EncoderCapabilities capabilities;
+
+    /**
+     * Probe in the background once the application is up, so startup is not delayed
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void probeOnStartup() {
+        if (!probeEnabled) {
+            logger.info("Encoder capability probe disabled");
+            return;
+        }
+        probe(false);
+    }
+
+    /**
+     * Probe again in the background, ignoring a cached result
+     */
+    @Async
+    public CompletableFuture<EncoderCapabilities> reprobe() {
+        return CompletableFuture.completedFuture(probe(true));
+    }
+
+    /**
+     * Probe FFmpeg and the CPU and benchmark the candidate encoders
+     *
+     * @param force ignore a cached result for the same FFmpeg build and CPU
+     */
+    public synchronized EncoderCapabilities probe(boolean force) {
+        EncoderCapabilities result = new EncoderCapabilities();
+        result.setProbedAt(LocalDateTime.now());
+
+        try {
+            String version = runFFmpeg(List.of(ffmpegPath, "-hide_banner", "-version"), 10).lines()
+                    .findFirst().orElse("unknown");
+            result.setFfmpegVersion(version);
+        } catch (Exception e) {
+            logger.warn("Encoder capability probe skipped, FFmpeg not available: {}", e.getMessage());
+            result.setAvailable(false);
+            capabilities = result;
+            return result;
+        }
+
+        readCpuInfo(result);
+        result.setCacheKey(result.getFfmpegVersion() + "|" + result.getCpuModel() + "|" + result.getCpuCount()
+                + "|" + benchmarkSize + "|" + benchmarkSeconds);
+
+        if (!force) {
+            Optional<EncoderCapabilities> cached = loadCached(result.getCacheKey());
+            if (cached.isPresent()) {
+                logger.info("Using cached encoder benchmarks from {}", cached.get().getProbedAt());
+                capabilities = cached.get();
+                return cached.get();
+            }
+        }
+
+        try {
+            parseEncoders(runFFmpeg(List.of(ffmpegPath, "-hide_banner", "-encoders"), 10), result);
+            result.setFilters(parseFilters(runFFmpeg(List.of(ffmpegPath, "-hide_banner", "-filters"), 10)));
+        } catch (Exception e) {
+            logger.warn("Failed to list FFmpeg encoders/filters: {}", e.getMessage());
+        }
+
+        // Benchmark each encoder from its fastest to its slowest preset; stop once a preset is
+        // too slow, as the slower ones will not meet the target either
+        for (Map.Entry<String, List<String>> candidate : benchmarkCandidates(result).entrySet()) {
+            for (String preset : candidate.getValue()) {
+                EncoderBenchmark benchmark = benchmark(candidate.getKey(), preset);
+                result.getBenchmarks().add(benchmark);
+                if (!benchmark.isSucceeded() || benchmark.getSpeed() < requiredSpeed()) {
+                    break;
+                }
+            }
+        }
+
+        result.setAvailable(true);
+        capabilities = result;
+        storeCached(result);
+
+        logger.info("Encoder capability probe finished: {} video encoders, {} benchmarks, CPU flags {}",
+                   result.getVideoEncoders().size(), result.getBenchmarks().size(), result.getCpuFlags());
+        return result;
+    }
+
+    /**
+     * Best quality preset of an encoder that meets the target speed on this host. Falls back to the
+     * fastest benchmarked preset if none does, and to the given preset if the encoder was not benchmarked.
+     */
+    public String selectPreset(String encoder, String fallbackPreset) {
+        EncoderCapabilities current = capabilities;
+        if (current == null || !current.isAvailable()) {
+            return fallbackPreset;
+        }
+
+        List<EncoderBenchmark> results = current.getBenchmarks().stream()
+                .filter(b -> b.isSucceeded() && encoder.equals(b.getEncoder()) && b.getPreset() != null)
+                .toList();
+        if (results.isEmpty()) {
+            return fallbackPreset;
+        }
+
+        double required = requiredSpeed();
+        return results.stream()
+                .filter(b -> b.getSpeed() >= required)
+                .max(Comparator.comparingInt(b -> presetRank(encoder, b.getPreset())))
+                .or(() -> results.stream().max(Comparator.comparingDouble(EncoderBenchmark::getSpeed)))
+                .map(EncoderBenchmark::getPreset)
+                .orElse(fallbackPreset);
+    }
+
+    /**
+     * Profile with the preset selected for this host
+     */
+    public FFmpegTranscodingService.TranscodingProfile tuneProfile(FFmpegTranscodingService.TranscodingProfile profile) {
+        String preset = selectPreset(profile.getVideoCodec(), profile.getVideoPreset());
+        if (preset.equals(profile.getVideoPreset())) {
+            return profile;
+        }
+        logger.debug("Using preset {} instead of {} for profile {}", preset, profile.getVideoPreset(), profile.getName());
+        return profile.withVideoPreset(preset);
+    }
+
+    public Optional<EncoderCapabilities> getCapabilities() {
+        return Optional.ofNullable(capabilities);
+    }
+
+    /**
+     * Speed a single benchmark run must reach, as all job slots share the CPU
+     */
+    private double requiredSpeed() {
+        return targetSpeed * Math.max(1, maxConcurrentJobs);
+    }
+
+    private int presetRank(String encoder, String preset) {
+        List<String> presets = encoder.equals("libx265") ? X265_PRESETS : X264_PRESETS;
+        return presets.indexOf(preset);
+    }
+
+    private Map<String, List<String>> benchmarkCandidates(EncoderCapabilities result) {
+        Map<String, List<String>> candidates = new LinkedHashMap<>();
+        if (result.getVideoEncoders().contains("libx264")) {
+            candidates.put("libx264", X264_PRESETS);
+        }
+        if (result.getVideoEncoders().contains("libx265")) {
+            candidates.put("libx265", X265_PRESETS);
+        }
+        return candidates;
+    }
+
+    /**
+     * Encode a synthetic clip and measure the speed relative to realtime
+     */
+    private EncoderBenchmark benchmark(String encoder, String preset) {
+        List<String> command = List.of(
+                ffmpegPath, "-hide_banner", "-nostats", "-loglevel", "error",
+                "-f", "lavfi", "-i", "testsrc2=size=" + benchmarkSize + ":rate=25:duration=" + benchmarkSeconds,
+                "-pix_fmt", "yuv420p", "-c:v", encoder, "-preset", preset, "-f", "null", "-");
+
+        EncoderBenchmark benchmark = new EncoderBenchmark();
+        benchmark.setEncoder(encoder);
+        benchmark.setPreset(preset);
+
+        long start = System.nanoTime();
+        try {
+            // A run slower than 0.1x is useless for transcoding, give up on it
+            runFFmpeg(command, benchmarkSeconds * 10 + 5);
+            double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            benchmark.setSpeed(Math.round(benchmarkSeconds / elapsedSeconds * 100) / 100.0);
+            benchmark.setSucceeded(true);
+            logger.info("Encoder benchmark {} {}: {}x realtime", encoder, preset, benchmark.getSpeed());
+        } catch (Exception e) {
+            benchmark.setSucceeded(false);
+            benchmark.setError(e.getMessage());
+            logger.info("Encoder benchmark {} {} failed: {}", encoder, preset, e.getMessage());
+        }
+        return benchmark;
+    }
+
+    private void parseEncoders(String output, EncoderCapabilities result) {
+        // Lines look like " V....D libx264              libx264 H.264 / AVC / MPEG-4 AVC"
+        boolean listStarted = false;
+        for (String line : output.split("\n")) {
+            if (line.trim().startsWith("------")) {
+                listStarted = true;
+                continue;
+            }
+            String[] parts = line.trim().split("\\s+", 3);
+            if (!listStarted || parts.length < 2 || parts[0].length() != 6) {
+                continue;
+            }
+            switch (parts[0].charAt(0)) {
+                case 'V' -> result.getVideoEncoders().add(parts[1]);
+                case 'A' -> result.getAudioEncoders().add(parts[1]);
+                default -> { }
+            }
+        }
+    }
+
+    private Set<String> parseFilters(String output) {
+        // Lines look like " ... scale             V->V       Scale the input video size"
+        Set<String> filters = new TreeSet<>();
+        for (String line : output.split("\n")) {
+            String[] parts = line.trim().split("\\s+", 4);
+            if (parts.length >= 3 && parts[2].contains("->")) {
+                filters.add(parts[1]);
+            }
+        }
+        return filters;
+    }
+
+    private void readCpuInfo(EncoderCapabilities result) {
+        result.setCpuCount(Runtime.getRuntime().availableProcessors());
+
+        Path cpuInfo = Paths.get("/proc/cpuinfo");
+        if (!Files.isReadable(cpuInfo)) {
+            return;
+        }
+
+        try {
+            for (String line : Files.readAllLines(cpuInfo)) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String key = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+
+                if (result.getCpuModel() == null && (key.equals("model name") || key.equals("Model"))) {
+                    result.setCpuModel(value);
+                } else if (result.getCpuFlags().isEmpty() && (key.equals("flags") || key.equals("Features"))) {
+                    for (String flag : value.split("\\s+")) {
+                        if (RELEVANT_CPU_FLAGS.contains(flag)) {
+                            result.getCpuFlags().add(flag);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not read CPU info: {}", e.getMessage());
+        }
+    }
+
+    private Optional<EncoderCapabilities> loadCached(String cacheKey) {
+        if (cacheFile == null || cacheFile.isBlank() || !Files.exists(Paths.get(cacheFile))) {
+            return Optional.empty();
+        }
+        try {
+            EncoderCapabilities cached = objectMapper.readValue(Paths.get(cacheFile).toFile(), EncoderCapabilities.class);
+            return cacheKey.equals(cached.getCacheKey()) ? Optional.of(cached) : Optional.empty();
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable encoder benchmark cache {}: {}", cacheFile, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private void storeCached(EncoderCapabilities result) {
+        if (cacheFile == null || cacheFile.isBlank()) {
+            return;
+        }
+        try {
+            Path path = Paths.get(cacheFile);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(path.toFile(), result);
+        } catch (IOException e) {
+            logger.warn("Failed to write encoder benchmark cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    private String runFFmpeg(List<String> command, int timeoutSeconds) throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        Process process = processBuilder.start();
+
+        StringBuilder output = new StringBuilder();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    output.append(line).append("\n");
+                }
+            } catch (IOException e) {
+                // Process was killed
+            }
+        }, "ffmpeg-probe-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new RuntimeException("FFmpeg did not finish within " + timeoutSeconds + " seconds");
+        }
+        reader.join(1000);
+
+        if (process.exitValue() != 0) {
+            String lastLine = output.toString().lines().reduce((first, second) -> second).orElse("");
+            throw new RuntimeException("FFmpeg exited with code " + process.exitValue() + ": " + lastLine);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Probe result for this host
+     */
+    public static class EncoderCapabilities {
+        private boolean available;
+        private String ffmpegVersion;
+        private String cpuModel;
+        private int cpuCount;
+        private Set<String> cpuFlags = new TreeSet<>();
+        private Set<String> videoEncoders = new TreeSet<>();
+        private Set<String> audioEncoders = new TreeSet<>();
+        private Set<String> filters = new TreeSet<>();
+        private List<EncoderBenchmark> benchmarks = new ArrayList<>();
+        private String cacheKey;
+        private LocalDateTime probedAt;
+
+        public boolean isAvailable() { return available; }
+        public void setAvailable(boolean available) { this.available = available; }
+
+        public String getFfmpegVersion() { return ffmpegVersion; }
+        public void setFfmpegVersion(String ffmpegVersion) { this.ffmpegVersion = ffmpegVersion; }
+
+        public String getCpuModel() { return cpuModel; }
+        public void setCpuModel(String cpuModel) { this.cpuModel = cpuModel; }
+
+        public int getCpuCount() { return cpuCount; }
+        public void setCpuCount(int cpuCount) { this.cpuCount = cpuCount; }
+
+        public Set<String> getCpuFlags() { return cpuFlags; }
+        public void setCpuFlags(Set<String> cpuFlags) { this.cpuFlags = cpuFlags; }
+
+        public Set<String> getVideoEncoders() { return videoEncoders; }
+        public void setVideoEncoders(Set<String> videoEncoders) { this.videoEncoders = videoEncoders; }
+
+        public Set<String> getAudioEncoders() { return audioEncoders; }
+        public void setAudioEncoders(Set<String> audioEncoders) { this.audioEncoders = audioEncoders; }
+
+        public Set<String> getFilters() { return filters; }
+        public void setFilters(Set<String> filters) { this.filters = filters; }
+
+        public List<EncoderBenchmark> getBenchmarks() { return benchmarks; }
+        public void setBenchmarks(List<EncoderBenchmark> benchmarks) { this.benchmarks = benchmarks; }
+
+        public String getCacheKey() { return cacheKey; }
+        public void setCacheKey(String cacheKey) { this.cacheKey = cacheKey; }
+
+        public LocalDateTime getProbedAt() { return probedAt; }
+        public void setProbedAt(LocalDateTime probedAt) { this.probedAt = probedAt; }
+    }
+
+    /**
+     * Speed of one encoder/preset on the synthetic clip, relative to realtime
+     */
+    public static class EncoderBenchmark {
+        private String encoder;
+        private String preset;
+        private double speed;
+        private boolean succeeded;
+        private String error;
+
+        public String getEncoder() { return encoder; }
+        public void setEncoder(String encoder) { this.encoder = encoder; }
+
+        public String getPreset() { return preset; }
+        public void setPreset(String preset) { this.preset = preset; }
+
+        public double getSpeed() { return speed; }
+        public void setSpeed(double speed) { this.speed = speed; }
+
+        public boolean isSucceeded() { return succeeded; }
+        public void setSucceeded(boolean succeeded) { this.succeeded = succeeded; }
+
+        public String getError() { return error; }
+        public void setError(String error) { this.error = error; }
+    }
+}
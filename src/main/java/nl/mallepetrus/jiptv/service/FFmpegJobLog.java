@@ -0,0 +1,139 @@
+package nl.mallepetrus.jiptv.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output of the FFmpeg processes of one job.
+ *
+ * Fed with the stderr of the job's processes; progress is read from stdout by {@link FFmpegProgressParser}
+ * and does not pass through here. Keeps only what is worth storing with the job: the last
+ * {@code tailChars} characters of regular output and the first error lines, leaving out any stats
+ * lines. Optionally every line is also written to a gzip file on disk, which the logs endpoint streams.
+ * Safe to append to from several threads (chunk lanes and their stderr readers).
+ */
+public class FFmpegJobLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FFmpegJobLog.class);
+
+    private static final int MAX_ERROR_LINES = 50;
+    private static final int FILE_BUFFER_BYTES = 64 * 1024;
+
+    // Periodic stats line of processes run without -nostats
+    private static final Pattern PROGRESS_LINE = Pattern.compile("[a-z_0-9]+=.*");
+    private static final Pattern ERROR_LINE = Pattern.compile("(?i)error|invalid|failed|could not|no such");
+
+    private final int tailChars;
+    private final Deque<String> tail = new ArrayDeque<>();
+    private final Deque<String> errors = new ArrayDeque<>();
+    private final Matcher progressMatcher = PROGRESS_LINE.matcher("");
+    private final Matcher errorMatcher = ERROR_LINE.matcher("");
+    private int tailLength;
+    private long droppedLines;
+    private long droppedErrors;
+    private Writer fullLog;
+
+    public FFmpegJobLog(int tailChars, Path fullLogFile) {
+        this.tailChars = tailChars;
+        if (fullLogFile != null) {
+            try {
+                Files.createDirectories(fullLogFile.getParent());
+                fullLog = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(Files.newOutputStream(fullLogFile), FILE_BUFFER_BYTES),
+                        StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.warn("Could not open full FFmpeg log {}, keeping the tail only: {}", fullLogFile, e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void append(String line) {
+        writeFullLog(line);
+
+        if (progressMatcher.reset(line).matches()) {
+            return;
+        }
+
+        if (errorMatcher.reset(line).find()) {
+            if (errors.size() < MAX_ERROR_LINES) {
+                errors.addLast(line);
+            } else {
+                droppedErrors++;
+            }
+        }
+
+        tail.addLast(line);
+        tailLength += line.length() + 1;
+        while (tailLength > tailChars && tail.size() > 1) {
+            tailLength -= tail.removeFirst().length() + 1;
+            droppedLines++;
+        }
+    }
+
+    /**
+     * Error lines and output tail, as stored in the job's ffmpeg_log column
+     */
+    public synchronized String summary() {
+        StringBuilder summary = new StringBuilder(tailLength + 256);
+        if (!errors.isEmpty()) {
+            summary.append("--- ").append(errors.size() + droppedErrors).append(" error lines");
+            if (droppedErrors > 0) {
+                summary.append(", first ").append(errors.size()).append(" shown");
+            }
+            summary.append(" ---\n");
+            errors.forEach(line -> summary.append(line).append('\n'));
+        }
+        if (droppedLines > 0 || !errors.isEmpty()) {
+            summary.append("--- last ").append(tail.size()).append(" lines");
+            if (droppedLines > 0) {
+                summary.append(", ").append(droppedLines).append(" earlier lines omitted");
+            }
+            summary.append(" ---\n");
+        }
+        tail.forEach(line -> summary.append(line).append('\n'));
+        return summary.toString();
+    }
+
+    private void writeFullLog(String line) {
+        if (fullLog == null) {
+            return;
+        }
+        try {
+            fullLog.write(line);
+            fullLog.write('\n');
+        } catch (IOException e) {
+            logger.warn("Writing full FFmpeg log failed, keeping the tail only: {}", e.getMessage());
+            closeFullLog();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeFullLog();
+    }
+
+    private void closeFullLog() {
+        if (fullLog != null) {
+            try {
+                fullLog.close();
+            } catch (IOException e) {
+                logger.warn("Closing full FFmpeg log failed: {}", e.getMessage());
+            }
+            fullLog = null;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package nl.mallepetrus.jiptv.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader for the key=value blocks FFmpeg writes with {@code -progress pipe:1}.
+ *
+ * Works on the raw bytes of the stream with a reused buffer: keys are compared byte by byte and numbers
+ * are parsed in place, so reading a line allocates nothing. Only the keys used for telemetry are kept;
+ * the listener is called once per block, when its closing {@code progress=continue|end} line is read.
+ * Stderr is not part of this stream and must be drained separately.
+ */
+public class FFmpegProgressParser {
+
+    /**
+     * Called at the end of every progress block, with the parser holding the block's values
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onProgress(FFmpegProgressParser progress);
+    }
+
+    public static final long UNKNOWN = -1;
+
+    private static final int READ_BUFFER_BYTES = 8192;
+    private static final int MAX_LINE_BYTES = 256;
+
+    private static final byte[] OUT_TIME_US = key("out_time_us");
+    private static final byte[] FRAME = key("frame");
+    private static final byte[] SPEED = key("speed");
+    private static final byte[] TOTAL_SIZE = key("total_size");
+    private static final byte[] PROGRESS = key("progress");
+    private static final byte[] END = key("end");
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[READ_BUFFER_BYTES];
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int lineLength;
+    private boolean lineTooLong;
+
+    private long outTimeUs = UNKNOWN;
+    private long frame = UNKNOWN;
+    private double speed = Double.NaN;
+    private long totalSize = UNKNOWN;
+    private boolean end;
+    private long blocks;
+
+    public FFmpegProgressParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read until the end of the stream, calling the listener for every block
+     */
+    public void run(Listener listener) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    if (!lineTooLong && parseLine()) {
+                        blocks++;
+                        listener.onProgress(this);
+                    }
+                    lineLength = 0;
+                    lineTooLong = false;
+                } else if (b != '\r') {
+                    if (lineLength < MAX_LINE_BYTES) {
+                        line[lineLength++] = b;
+                    } else {
+                        lineTooLong = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse the line in the buffer, returns true when it closed a block
+     */
+    private boolean parseLine() {
+        int separator = indexOf('=');
+        if (separator <= 0) {
+            return false;
+        }
+        int valueStart = separator + 1;
+
+        if (keyEquals(OUT_TIME_US, separator)) {
+            outTimeUs = parseLong(valueStart, lineLength);
+        } else if (keyEquals(FRAME, separator)) {
+            frame = parseLong(valueStart, lineLength);
+        } else if (keyEquals(SPEED, separator)) {
+            // "1.23x", or "N/A" before the first frame
+            int valueEnd = lineLength > valueStart && line[lineLength - 1] == 'x' ? lineLength - 1 : lineLength;
+            speed = parseDecimal(valueStart, valueEnd);
+        } else if (keyEquals(TOTAL_SIZE, separator)) {
+            totalSize = parseLong(valueStart, lineLength);
+        } else if (keyEquals(PROGRESS, separator)) {
+            end = lineLength - valueStart == END.length && regionEquals(END, valueStart);
+            return true;
+        }
+        return false;
+    }
+
+    private int indexOf(char c) {
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(byte[] key, int keyLength) {
+        return keyLength == key.length && regionEquals(key, 0);
+    }
+
+    private boolean regionEquals(byte[] expected, int offset) {
+        for (int i = 0; i < expected.length; i++) {
+            if (line[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseLong(int from, int to) {
+        while (from < to && line[from] == ' ') {
+            from++;
+        }
+        boolean negative = from < to && line[from] == '-';
+        if (negative) {
+            from++;
+        }
+        if (from == to) {
+            return UNKNOWN;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return UNKNOWN;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? UNKNOWN : value;
+    }
+
+    private double parseDecimal(int from, int to) {
+        while (from < to && line[from] == ' ') {
+            from++;
+        }
+        long digits = 0;
+        long scale = 1;
+        boolean fraction = false;
+        boolean any = false;
+        for (int i = from; i < to; i++) {
+            byte b = line[i];
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (b >= '0' && b <= '9') {
+                digits = digits * 10 + (b - '0');
+                if (fraction) {
+                    scale *= 10;
+                }
+                any = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        return any ? (double) digits / scale : Double.NaN;
+    }
+
+    private static byte[] key(String key) {
+        return key.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Output time reached, in microseconds, or {@link #UNKNOWN}
+     */
+    public long getOutTimeUs() { return outTimeUs; }
+
+    /**
+     * Frames written so far, or {@link #UNKNOWN}
+     */
+    public long getFrame() { return frame; }
+
+    /**
+     * Encoding speed as a multiple of real time, NaN when not known yet
+     */
+    public double getSpeed() { return speed; }
+
+    /**
+     * Bytes written to the output so far, or {@link #UNKNOWN}
+     */
+    public long getTotalSize() { return totalSize; }
+
+    /**
+     * Whether the last block was the final one ({@code progress=end})
+     */
+    public boolean isEnd() { return end; }
+
+    public long getBlocks() { return blocks; }
+
+    /**
+     * Output bitrate so far in kbit/s, or {@link #UNKNOWN}
+     */
+    public long getBitrateKbps() {
+        if (totalSize <= 0 || outTimeUs <= 0) {
+            return UNKNOWN;
+        }
+        return totalSize * 8_000 / outTimeUs;
+    }
+}
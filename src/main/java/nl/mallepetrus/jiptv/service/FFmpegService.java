@@ -1,34 +1,41 @@
 package nl.mallepetrus.jiptv.service;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import nl.mallepetrus.jiptv.entity.StreamSource;
 import nl.mallepetrus.jiptv.entity.StreamTrack;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 public class FFmpegService {
 
     private static final Logger logger = LoggerFactory.getLogger(FFmpegService.class);
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MediaFingerprintService fingerprintService;
 
     @Value("${jiptv.ffmpeg.path:ffmpeg}")
     private String ffmpegPath;
@@ -53,28 +60,40 @@ public class FFmpegService {
             "dts", "truehd", "eac3", "dts-hd", "mlp", "flac"
     );
 
+    @Autowired
+    public FFmpegService(MediaFingerprintService fingerprintService) {
+        this.fingerprintService = fingerprintService;
+    }
+
     /**
      * Analyze stream using FFprobe to extract track information
      */
     public StreamAnalysisResult analyzeStream(StreamSource streamSource) {
+        return analyzeStream(streamSource, null);
+    }
+
+    /**
+     * Analyze stream using FFprobe, with the fingerprint of a local file when the caller just took it
+     * (its modification time set on the source), so the file is not hashed twice
+     */
+    public StreamAnalysisResult analyzeStream(StreamSource streamSource, String fileHash) {
         logger.info("Starting FFprobe analysis for stream: {}", streamSource.getName());
         
         try {
             // Build FFprobe command
             List<String> command = buildFFprobeCommand(streamSource.getSourceUrl());
             
-            // Execute FFprobe
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            
-            Process process = processBuilder.start();
+            // Execute FFprobe, stderr is drained separately so it never ends up in the JSON
+            Process process = new ProcessBuilder(command).start();
+            StderrTail stderr = StderrTail.capture(process, "ffprobe-stderr");
             
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
+            // Parse FFprobe JSON output while it is being written
+            StreamAnalysisResult result = null;
+            Exception parseFailure = null;
+            try (InputStream output = process.getInputStream()) {
+                result = parseFFprobeOutput(streamSource, output);
+            } catch (Exception e) {
+                parseFailure = e;
             }
             
             boolean finished = process.waitFor(ffmpegTimeoutSeconds, TimeUnit.SECONDS);
@@ -85,11 +104,14 @@ public class FFmpegService {
             
             if (process.exitValue() != 0) {
                 throw new RuntimeException("FFprobe failed with exit code: " + process.exitValue() + 
-                                         "\nOutput: " + output.toString());
+                                         "\nOutput: " + stderr.get());
+            }
+            if (parseFailure != null) {
+                throw parseFailure;
             }
             
-            // Parse FFprobe JSON output
-            return parseFFprobeOutput(streamSource, output.toString());
+            recordFileHash(streamSource, fileHash);
+            return result;
             
         } catch (Exception e) {
             logger.error("FFprobe analysis failed for stream: {}", streamSource.getName(), e);
@@ -97,44 +119,230 @@ public class FFmpegService {
         }
     }
 
+    /**
+     * Timestamps (seconds from the start of the file) of the keyframes of the first video stream around
+     * the given positions, ascending. Only a window of packets around each position is read
+     * ({@code -read_intervals}), and only their flags, so the source is neither read in full nor decoded.
+     */
+    public List<Double> getKeyframeTimestamps(String sourceUrl, List<Double> positions, double windowSeconds) {
+        if (positions.isEmpty()) {
+            return List.of();
+        }
+
+        // Read intervals are absolute timestamps, positions are relative to the start of the file
+        double startTime = getStartTime(sourceUrl);
+        StringBuilder intervals = new StringBuilder();
+        for (double position : positions) {
+            if (intervals.length() > 0) {
+                intervals.append(',');
+            }
+            intervals.append(String.format(Locale.ROOT, "%.3f%%+%.3f",
+                    Math.max(0, startTime + position - windowSeconds / 2), windowSeconds));
+        }
+
+        List<String> command = Arrays.asList(
+                ffprobePath,
+                "-v", "error",
+                "-select_streams", "v:0",
+                "-read_intervals", intervals.toString(),
+                "-show_entries", "packet=pts_time,flags",
+                "-of", "csv=p=0",
+                sourceUrl
+        );
+
+        try {
+            // Only packet lines on stdout; stderr is drained separately so warnings never get parsed
+            Process process = new ProcessBuilder(command).start();
+            StderrTail stderr = StderrTail.capture(process, "ffprobe-keyframes-stderr");
+
+            List<Double> keyframes = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Packet lines look like "12.345000,K__"
+                    int comma = line.indexOf(',');
+                    if (comma > 0 && line.startsWith("K", comma + 1)) {
+                        String pts = line.substring(0, comma);
+                        if (!pts.equals("N/A")) {
+                            keyframes.add(Double.parseDouble(pts));
+                        }
+                    }
+                }
+            }
+
+            boolean finished = process.waitFor(ffmpegTimeoutSeconds, TimeUnit.SECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                throw new RuntimeException("FFprobe keyframe scan timed out after " + ffmpegTimeoutSeconds + " seconds");
+            }
+            if (process.exitValue() != 0) {
+                throw new RuntimeException("FFprobe keyframe scan failed with exit code: " + process.exitValue()
+                                           + "\nOutput: " + stderr.get());
+            }
+
+            // Seek positions given to -ss are relative to the start of the file; windows may overlap
+            return keyframes.stream().map(pts -> pts - startTime).distinct().sorted().toList();
+
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            throw new RuntimeException("Keyframe scan failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Start time of the container in seconds, 0 when unknown. Read from the header only.
+     */
+    private double getStartTime(String sourceUrl) {
+        List<String> command = Arrays.asList(
+                ffprobePath,
+                "-v", "error",
+                "-show_entries", "format=start_time",
+                "-of", "csv=p=0",
+                sourceUrl
+        );
+
+        try {
+            Process process = new ProcessBuilder(command).start();
+            StderrTail stderr = StderrTail.capture(process, "ffprobe-start-time-stderr");
+            String output;
+            try (InputStream input = process.getInputStream()) {
+                output = new String(input.readAllBytes()).trim();
+            }
+            boolean finished = process.waitFor(30, TimeUnit.SECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                throw new RuntimeException("FFprobe start time probe timed out");
+            }
+            if (process.exitValue() != 0) {
+                throw new RuntimeException("FFprobe start time probe failed with exit code: " + process.exitValue()
+                                           + "\nOutput: " + stderr.get());
+            }
+            return output.isEmpty() || output.equals("N/A") ? 0 : Double.parseDouble(output);
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            throw new RuntimeException("Start time probe failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Check whether the source has at least one stream of a type ("v", "a" or "s")
+     */
+    public boolean hasStreamOfType(String sourceUrl, String streamType) {
+        List<String> command = Arrays.asList(
+                ffprobePath,
+                "-v", "error",
+                "-select_streams", streamType,
+                "-show_entries", "stream=index",
+                "-of", "csv=p=0",
+                sourceUrl
+        );
+
+        try {
+            // Only stream indexes on stdout; stderr is drained separately so a warning never counts as a stream
+            Process process = new ProcessBuilder(command).start();
+            StderrTail stderr = StderrTail.capture(process, "ffprobe-streams-stderr");
+            String output;
+            try (InputStream input = process.getInputStream()) {
+                output = new String(input.readAllBytes()).trim();
+            }
+            boolean finished = process.waitFor(30, TimeUnit.SECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                throw new RuntimeException("FFprobe stream check timed out");
+            }
+            if (process.exitValue() != 0) {
+                logger.debug("FFprobe stream check of {} failed with exit code {}: {}",
+                             sourceUrl, process.exitValue(), stderr.get());
+                return false;
+            }
+            return !output.isEmpty();
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException("Stream check failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Grab a single frame as a JPEG thumbnail, scaled to the given width
+     */
+    public void generateThumbnail(String sourceUrl, Path outputFile, double atSeconds, int width) {
+        List<String> command = Arrays.asList(
+                ffmpegPath,
+                "-v", "error",
+                "-ss", String.format(Locale.ROOT, "%.3f", atSeconds),
+                "-i", sourceUrl,
+                "-frames:v", "1",
+                "-vf", "scale=" + width + ":-2",
+                "-q:v", "3",
+                "-y",
+                outputFile.toString()
+        );
+
+        try {
+            Files.createDirectories(outputFile.getParent());
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output;
+            try (InputStream input = process.getInputStream()) {
+                output = new String(input.readAllBytes());
+            }
+            boolean finished = process.waitFor(ffmpegTimeoutSeconds, TimeUnit.SECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                throw new RuntimeException("Thumbnail generation timed out after " + ffmpegTimeoutSeconds + " seconds");
+            }
+            if (process.exitValue() != 0 || !Files.exists(outputFile)) {
+                throw new RuntimeException("FFmpeg thumbnail failed with exit code: " + process.exitValue() + 
+                                         "\nOutput: " + output.trim());
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException("Thumbnail generation failed: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Build FFprobe command for stream analysis
      */
     private List<String> buildFFprobeCommand(String sourceUrl) {
         return Arrays.asList(
                 ffprobePath,
-                "-v", "quiet",
+                "-v", "error",
                 "-print_format", "json",
                 "-show_format",
                 "-show_streams",
-                "-show_chapters",
                 sourceUrl
         );
     }
 
     /**
-     * Parse FFprobe JSON output and create StreamTrack entities
+     * Parse FFprobe JSON output and create StreamTrack entities.
+     * The output is read as a token stream; only one stream object is materialized at a time and
+     * sections we do not use are skipped without building a tree.
      */
-    private StreamAnalysisResult parseFFprobeOutput(StreamSource streamSource, String jsonOutput) {
-        try {
-            JsonNode root = objectMapper.readTree(jsonOutput);
+    private StreamAnalysisResult parseFFprobeOutput(StreamSource streamSource, InputStream jsonOutput) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(jsonOutput)) {
             StreamAnalysisResult result = new StreamAnalysisResult();
             
-            // Parse format information
-            JsonNode format = root.get("format");
-            if (format != null) {
-                updateStreamSourceFromFormat(streamSource, format);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("FFprobe output is not a JSON object");
             }
             
-            // Parse streams (tracks)
-            JsonNode streams = root.get("streams");
-            if (streams != null && streams.isArray()) {
-                for (int i = 0; i < streams.size(); i++) {
-                    JsonNode stream = streams.get(i);
-                    StreamTrack track = parseStreamTrack(streamSource, stream, i);
-                    if (track != null) {
-                        result.addTrack(track);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                
+                if ("format".equals(section) && value == JsonToken.START_OBJECT) {
+                    // Parse format information
+                    JsonNode format = objectMapper.readTree(parser);
+                    updateStreamSourceFromFormat(streamSource, format);
+                } else if ("streams".equals(section) && value == JsonToken.START_ARRAY) {
+                    // Parse streams (tracks)
+                    int i = 0;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        JsonNode stream = objectMapper.readTree(parser);
+                        StreamTrack track = parseStreamTrack(streamSource, stream, i++);
+                        if (track != null) {
+                            result.addTrack(track);
+                        }
                     }
+                } else {
+                    parser.skipChildren();
                 }
             }
             
@@ -171,17 +379,29 @@ public class FFmpegService {
             streamSource.setContentType(formatName);
         }
         
-        // Calculate file hash if it's a local file
-        if (streamSource.getSourceType() == StreamSource.SourceType.FILE) {
-            try {
-                String hash = calculateFileHash(streamSource.getSourceUrl());
-                streamSource.setFileHash(hash);
-            } catch (Exception e) {
-                logger.warn("Failed to calculate file hash for: {}", streamSource.getSourceUrl(), e);
-            }
-        }
-        
         streamSource.setAnalyzedAt(LocalDateTime.now());
+        streamSource.setAnalysisVersion(StreamSource.CURRENT_ANALYSIS_VERSION);
+    }
+
+    /**
+     * Calculate file hash if it's a local file, with the modification time it was taken at
+     */
+    private void recordFileHash(StreamSource streamSource, String knownHash) {
+        if (streamSource.getSourceType() != StreamSource.SourceType.FILE) {
+            return;
+        }
+        if (knownHash != null) {
+            streamSource.setFileHash(knownHash);
+            return;
+        }
+        try {
+            Path path = Paths.get(streamSource.getSourceUrl());
+            streamSource.setFileModifiedAt(fingerprintService.lastModified(path));
+            String hash = fingerprintService.fingerprint(path);
+            streamSource.setFileHash(hash);
+        } catch (Exception e) {
+            logger.warn("Failed to calculate file hash for: {}", streamSource.getSourceUrl(), e);
+        }
     }
 
     /**
@@ -368,31 +588,6 @@ public class FFmpegService {
         }
     }
 
-    /**
-     * Calculate SHA-256 hash of a file
-     */
-    private String calculateFileHash(String filePath) throws IOException, NoSuchAlgorithmException {
-        Path path = Paths.get(filePath);
-        if (!Files.exists(path)) {
-            throw new IOException("File not found: " + filePath);
-        }
-        
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] fileBytes = Files.readAllBytes(path);
-        byte[] hashBytes = digest.digest(fileBytes);
-        
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        
-        return hexString.toString();
-    }
-
     /**
      * Check if FFmpeg/FFprobe is available
      */
@@ -464,4 +659,65 @@ public class FFmpegService {
             return tracks.stream().anyMatch(StreamTrack::isTranscodingRequired);
         }
     }
+
+    /**
+     * Drains a process' stderr on its own thread, keeping only the last lines for error messages.
+     * Every line can also be handed to a consumer, such as a job log.
+     */
+    static class StderrTail {
+        private static final int MAX_LINES = 20;
+
+        private final Deque<String> lines = new ArrayDeque<>();
+        private final Consumer<String> lineConsumer;
+        private final Thread reader;
+
+        private StderrTail(Process process, String threadName, Consumer<String> lineConsumer) {
+            this.lineConsumer = lineConsumer;
+            this.reader = new Thread(() -> drain(process), threadName);
+            this.reader.setDaemon(true);
+        }
+
+        static StderrTail capture(Process process, String threadName) {
+            return capture(process, threadName, null);
+        }
+
+        static StderrTail capture(Process process, String threadName, Consumer<String> lineConsumer) {
+            StderrTail tail = new StderrTail(process, threadName, lineConsumer);
+            tail.reader.start();
+            return tail;
+        }
+
+        private void drain(Process process) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (lineConsumer != null) {
+                        lineConsumer.accept(line);
+                    }
+                    synchronized (lines) {
+                        lines.addLast(line);
+                        if (lines.size() > MAX_LINES) {
+                            lines.removeFirst();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Process went away, keep what we have
+            }
+        }
+
+        /**
+         * Last stderr lines, waiting briefly for the reader to reach the end of the stream
+         */
+        String get() {
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (lines) {
+                return String.join("\n", lines);
+            }
+        }
+    }
 }
\ No newline at end of file
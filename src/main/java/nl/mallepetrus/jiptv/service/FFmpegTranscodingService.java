@@ -1,26 +1,46 @@
 package nl.mallepetrus.jiptv.service;
 
 import nl.mallepetrus.jiptv.entity.*;
+import nl.mallepetrus.jiptv.repository.StreamTrackRepository;
 import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Stream;
 
 @Service
 public class FFmpegTranscodingService {
@@ -39,31 +59,94 @@ public class FFmpegTranscodingService {
     @Value("${jiptv.transcoding.timeout:3600}")
     private int transcodingTimeoutSeconds;
 
+    @Value("${jiptv.transcoding.abr-ladder:" + HLSRendition.DEFAULT_LADDER + "}")
+    private String abrLadder;
+
+    @Value("${jiptv.transcoding.log.tail-chars:65536}")
+    private int logTailChars;
+
+    @Value("${jiptv.transcoding.log.full-log:true}")
+    private boolean fullLogEnabled;
+
+    @Value("${jiptv.transcoding.chunked.enabled:true}")
+    private boolean chunkedEnabled;
+
+    @Value("${jiptv.transcoding.chunked.min-duration-seconds:1800}")
+    private int chunkedMinDurationSeconds;
+
+    @Value("${jiptv.transcoding.chunked.min-chunk-seconds:120}")
+    private int chunkedMinChunkSeconds;
+
+    @Value("${jiptv.transcoding.chunked.max-chunks:8}")
+    private int chunkedMaxChunks;
+
     private final TranscodingJobRepository jobRepository;
+    private final BoundedWorkerPool workerPool;
+    private final ApplicationEventPublisher eventPublisher;
+    private final EncoderCapabilityService capabilityService;
+    private final FFmpegService ffmpegService;
+    private final TranscodingProgressRegistry progressRegistry;
+    private final MediaFingerprintService fingerprintService;
+    private final TranscodingJobLeaseService leaseService;
+    private final StreamTrackRepository streamTrackRepository;
+
+    // FFmpeg processes of the jobs running on this node, by job ID (chunked jobs run several at once)
+    private final Map<Long, Set<Process>> runningProcesses = new ConcurrentHashMap<>();
+    private final Set<Long> cancelledJobs = ConcurrentHashMap.newKeySet();
 
-    // Progress parsing patterns
-    private static final Pattern FRAME_PATTERN = Pattern.compile("frame=\\s*(\\d+)");
-    private static final Pattern TIME_PATTERN = Pattern.compile("time=(\\d{2}):(\\d{2}):(\\d{2})\\.(\\d{2})");
-    private static final Pattern SPEED_PATTERN = Pattern.compile("speed=\\s*([\\d.]+)x");
+    // Priority of the jobs running on this node, and the ones paused (SIGSTOP) to make room for others
+    private final Map<Long, TranscodingJob.Priority> runningPriorities = new ConcurrentHashMap<>();
+    private final Set<Long> suspendedJobs = ConcurrentHashMap.newKeySet();
+    private final Object suspendLock = new Object();
+
+    // Output of the jobs running on this node, so their logs can be read before they finish
+    private final Map<Long, FFmpegJobLog> runningLogs = new ConcurrentHashMap<>();
+
+    private static final long CPU_SAMPLE_INTERVAL_MS = 5000;
+    private static final long PROGRESS_REPORT_INTERVAL_MS = 1000;
+    private static final double KEYFRAME_PROBE_WINDOW_SECONDS = 20;
+    private static final String HLS_JOB_DIR_PREFIX = "job_";
+
+    public static final String MASTER_PLAYLIST = "master.m3u8";
+
+    // RFC 6381 codec strings for the master playlist
+    private static final String H264_HIGH_40_CODEC = "avc1.640028";
+    private static final String H264_HIGH_31_CODEC = "avc1.64001f";
+    private static final String AAC_CODEC = "mp4a.40.2";
 
     @Autowired
-    public FFmpegTranscodingService(TranscodingJobRepository jobRepository) {
+    public FFmpegTranscodingService(TranscodingJobRepository jobRepository,
+                                    @Qualifier("transcodingWorkerPool") BoundedWorkerPool workerPool,
+                                    ApplicationEventPublisher eventPublisher,
+                                    EncoderCapabilityService capabilityService,
+                                    FFmpegService ffmpegService,
+                                    TranscodingProgressRegistry progressRegistry,
+                                    MediaFingerprintService fingerprintService,
+                                    TranscodingJobLeaseService leaseService,
+                                    StreamTrackRepository streamTrackRepository) {
         this.jobRepository = jobRepository;
+        this.workerPool = workerPool;
+        this.eventPublisher = eventPublisher;
+        this.capabilityService = capabilityService;
+        this.ffmpegService = ffmpegService;
+        this.progressRegistry = progressRegistry;
+        this.fingerprintService = fingerprintService;
+        this.leaseService = leaseService;
+        this.streamTrackRepository = streamTrackRepository;
     }
 
     /**
-     * Start transcoding job for WebOS TV compatibility
+     * Start a queued transcoding job for WebOS TV compatibility.
+     * The caller must hold a reserved slot on the transcoding worker pool.
      */
-    public TranscodingJob startTranscodingJob(StreamSource streamSource, List<StreamTrack> selectedTracks, 
+    public TranscodingJob startTranscodingJob(TranscodingJob job, List<StreamTrack> selectedTracks,
                                             TranscodingProfile profile) {
-        logger.info("Starting transcoding job for stream: {} with profile: {}", 
-                   streamSource.getName(), profile.getName());
+        StreamSource streamSource = job.getStreamSource();
+        profile = capabilityService.tuneProfile(profile);
+        logger.info("Starting transcoding job {} for stream: {} with profile: {}", 
+                   job.getId(), streamSource.getName(), profile.getName());
 
-        // Create transcoding job
-        TranscodingJob job = new TranscodingJob(streamSource, TranscodingJob.JobType.TRANSCODE, 
-                                              streamSource.getSourceUrl());
         job.setTranscodingProfile(profile.getName());
-        job.setTargetTracks(createTargetTracksJson(selectedTracks));
         
         // Generate output paths
         String outputPath = generateOutputPath(streamSource, profile);
@@ -73,43 +156,102 @@ public class FFmpegTranscodingService {
         List<String> command = buildTranscodingCommand(streamSource, selectedTracks, profile, outputPath);
         job.setFfmpegCommand(String.join(" ", command));
         
-        job = jobRepository.save(job);
+        saveStartingJob(job);
         
-        // Start transcoding in background thread
-        startTranscodingProcess(job, command);
+        // Start transcoding on the worker pool, split into parallel chunks for long sources
+        if (isChunkable(streamSource, selectedTracks, profile)) {
+            TranscodingJob chunkedJob = job;
+            TranscodingProfile chunkedProfile = profile;
+            runOnReservedSlot(job, () -> executeChunkedTranscodingJob(chunkedJob, selectedTracks, chunkedProfile, command));
+        } else {
+            startTranscodingProcess(job, command, null);
+        }
         
         return job;
     }
 
     /**
-     * Generate HLS segments for adaptive streaming
+     * Generate HLS segments for a queued job.
+     * The caller must hold a reserved slot on the transcoding worker pool.
      */
-    public TranscodingJob generateHLSSegments(StreamSource streamSource, List<StreamTrack> selectedTracks,
+    public TranscodingJob generateHLSSegments(TranscodingJob job, List<StreamTrack> selectedTracks,
                                             HLSProfile hlsProfile) {
-        logger.info("Generating HLS segments for stream: {} with profile: {}", 
-                   streamSource.getName(), hlsProfile.getName());
+        StreamSource streamSource = job.getStreamSource();
+        logger.info("Generating HLS segments for job {} stream: {} with profile: {}", 
+                   job.getId(), streamSource.getName(), hlsProfile.getName());
 
-        TranscodingJob job = new TranscodingJob(streamSource, TranscodingJob.JobType.SEGMENT, 
-                                              streamSource.getSourceUrl());
         job.setTranscodingProfile(hlsProfile.getName());
-        job.setTargetTracks(createTargetTracksJson(selectedTracks));
         
         // Generate HLS output directory
-        String hlsOutputDir = generateHLSOutputPath(streamSource, hlsProfile);
-        job.setOutputFile(hlsOutputDir + "/playlist.m3u8");
+        String hlsOutputDir = generateHLSOutputPath(streamSource, hlsProfile, job.getId());
         
-        // Build HLS FFmpeg command
-        List<String> command = buildHLSCommand(streamSource, selectedTracks, hlsProfile, hlsOutputDir);
+        List<String> command;
+        OutputFinalizer finalizer;
+        if (hlsProfile.isAdaptive()) {
+            // Rendition ladder; the master playlist starts with nominal bitrates so playback can begin
+            // while encoding, and is rewritten with measured bitrates once all variants are complete
+            StreamTrack videoTrack = sourceVideoTrack(streamSource, selectedTracks);
+            List<HLSRendition> renditions = selectRenditions(HLSRendition.parseLadder(abrLadder), videoTrack);
+            job.setOutputFile(hlsOutputDir + "/" + MASTER_PLAYLIST);
+            command = buildAdaptiveHLSCommand(streamSource, selectedTracks, hlsProfile, renditions, hlsOutputDir);
+            try {
+                writeMasterPlaylist(Paths.get(hlsOutputDir), renditions, videoTrack, false);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write HLS master playlist in " + hlsOutputDir, e);
+            }
+            finalizer = completedJob -> {
+                for (HLSRendition rendition : renditions) {
+                    finishEventPlaylist(Paths.get(hlsOutputDir, rendition.getName(), "playlist.m3u8"));
+                }
+                writeMasterPlaylist(Paths.get(hlsOutputDir), renditions, videoTrack, true);
+            };
+        } else {
+            job.setOutputFile(hlsOutputDir + "/playlist.m3u8");
+            command = buildHLSCommand(streamSource, selectedTracks, hlsProfile, hlsOutputDir);
+            finalizer = completedJob -> finishEventPlaylist(Paths.get(completedJob.getOutputFile()));
+        }
         job.setFfmpegCommand(String.join(" ", command));
         
-        job = jobRepository.save(job);
+        saveStartingJob(job);
         
-        // Start HLS generation in background thread
-        startTranscodingProcess(job, command);
+        // Start HLS generation on the worker pool
+        startTranscodingProcess(job, command, finalizer);
         
         return job;
     }
 
+    /**
+     * Produce the MP4 rendition and the HLS segments of a queued job from a single FFmpeg run.
+     * The caller must hold a reserved slot on the transcoding worker pool.
+     */
+    public TranscodingJob startTranscodeAndHLSJob(TranscodingJob job, List<StreamTrack> selectedTracks,
+                                                TranscodingProfile profile, HLSProfile hlsProfile) {
+        StreamSource streamSource = job.getStreamSource();
+        profile = capabilityService.tuneProfile(profile);
+        logger.info("Starting combined transcode and HLS job {} for stream: {} with profiles: {}, {}",
+                   job.getId(), streamSource.getName(), profile.getName(), hlsProfile.getName());
+
+        job.setTranscodingProfile(profile.getName());
+
+        // Generate output paths
+        String outputPath = generateOutputPath(streamSource, profile);
+        String hlsOutputDir = generateHLSOutputPath(streamSource, hlsProfile, job.getId());
+        job.setOutputFile(outputPath);
+        job.setHlsPlaylistFile(hlsOutputDir + "/playlist.m3u8");
+
+        // Build single-pass FFmpeg command
+        List<String> command = buildTranscodeAndHLSCommand(streamSource, selectedTracks, profile, hlsProfile,
+                                                           outputPath, hlsOutputDir);
+        job.setFfmpegCommand(String.join(" ", command));
+
+        saveStartingJob(job);
+
+        // Start transcoding on the worker pool
+        startTranscodingProcess(job, command, completedJob -> finishEventPlaylist(Paths.get(completedJob.getHlsPlaylistFile())));
+
+        return job;
+    }
+
     /**
      * Build FFmpeg command for transcoding
      */
@@ -190,7 +332,8 @@ public class FFmpegTranscodingService {
         command.add("-f");
         command.add(profile.getOutputFormat());
         
-        // Progress reporting
+        // Progress reporting, machine readable on stdout instead of the stats line on stderr
+        command.add("-nostats");
         command.add("-progress");
         command.add("pipe:1");
         
@@ -218,7 +361,7 @@ public class FFmpegTranscodingService {
         command.add("-c:v");
         command.add("libx264");
         command.add("-preset");
-        command.add("fast");
+        command.add(capabilityService.selectPreset("libx264", "fast"));
         command.add("-crf");
         command.add("23");
         
@@ -236,11 +379,14 @@ public class FFmpegTranscodingService {
         command.add("-hls_time");
         command.add(String.valueOf(hlsSegmentDuration));
         command.add("-hls_playlist_type");
-        command.add("vod");
+        command.add("event");
+        command.add("-hls_flags");
+        command.add("temp_file");
         command.add("-hls_segment_filename");
         command.add(outputDir + "/segment_%03d.ts");
         
-        // Progress reporting
+        // Progress reporting, machine readable on stdout instead of the stats line on stderr
+        command.add("-nostats");
         command.add("-progress");
         command.add("pipe:1");
         
@@ -254,27 +400,631 @@ public class FFmpegTranscodingService {
     }
 
     /**
-     * Start transcoding process in background thread
+     * Build a single FFmpeg command that decodes the source once and writes both the MP4 and the HLS output.
+     * When both outputs need the same video encode, it is encoded once and fanned out with the tee muxer;
+     * streams only the MP4 gets (subtitles, copied audio) are sent to it alone with the tee's per-output
+     * {@code select}. Only when the video itself differs (the MP4 copies a compatible video stream) each
+     * output gets its own encoder, still sharing the decode and the source read.
      */
-    private void startTranscodingProcess(TranscodingJob job, List<String> command) {
-        Thread transcodingThread = new Thread(() -> {
+    private List<String> buildTranscodeAndHLSCommand(StreamSource streamSource, List<StreamTrack> selectedTracks,
+                                                   TranscodingProfile profile, HLSProfile hlsProfile,
+                                                   String outputPath, String hlsOutputDir) {
+        StreamTrack videoTrack = findTrack(selectedTracks, StreamTrack.TrackType.VIDEO);
+        StreamTrack audioTrack = findTrack(selectedTracks, StreamTrack.TrackType.AUDIO);
+        StreamTrack subtitleTrack = findTrack(selectedTracks, StreamTrack.TrackType.SUBTITLE);
+
+        int audioChannels = audioTrack != null && audioTrack.getChannels() != null
+                ? Math.min(audioTrack.getChannels(), profile.getMaxAudioChannels())
+                : profile.getMaxAudioChannels();
+
+        // MP4 rendition: copy compatible streams, otherwise encode with the profile settings
+        boolean mp4CopiesVideo = videoTrack != null && videoTrack.isWebosCompatible() && !profile.isForceReencode();
+        List<String> mp4VideoArgs = mp4CopiesVideo
+                ? List.of("-c:v", "copy") : videoEncodeArgs(profile.getVideoCodec(), profile);
+        List<String> mp4AudioArgs = audioTrack != null && audioTrack.isWebosCompatible() && !profile.isForceReencode()
+                ? List.of("-c:a", "copy") : audioEncodeArgs(profile.getAudioCodec(), profile.getAudioBitrate(), audioChannels);
+
+        // HLS rendition: always H.264/AAC for WebOS, with the same scaling and quality as the MP4
+        List<String> hlsVideoArgs = videoEncodeArgs(hlsProfile.getVideoCodec(), profile);
+        List<String> hlsAudioArgs = audioEncodeArgs(hlsProfile.getAudioCodec(), profile.getAudioBitrate(), audioChannels);
+
+        // Subtitles only go into the MP4
+        List<String> subtitleArgs = new ArrayList<>();
+        if (subtitleTrack != null) {
+            subtitleArgs.addAll(streamMap(subtitleTrack, "s"));
+            subtitleArgs.add("-c:s");
+            subtitleArgs.add(subtitleTrack.isWebosCompatible() ? "copy" : "mov_text");
+        }
+
+        String segmentPattern = hlsOutputDir + "/segment_%03d.ts";
+        String playlistPath = hlsOutputDir + "/playlist.m3u8";
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        command.add("-nostats");
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add("-i");
+        command.add(streamSource.getSourceUrl());
+
+        if (mp4VideoArgs.equals(hlsVideoArgs)) {
+            // Encode the video once, mux twice. Output streams: video, the subtitle if any, then the
+            // audio (optional, so last); MP4 and HLS audio are separate streams only when they differ.
+            List<String> mp4Streams = new ArrayList<>(List.of("0"));
+            List<String> hlsStreams = new ArrayList<>(List.of("0"));
+            int nextStream = 1;
+
+            command.addAll(streamMap(videoTrack, "v"));
+            command.addAll(hlsVideoArgs);
+            if (subtitleTrack != null) {
+                command.addAll(subtitleArgs);
+                mp4Streams.add(String.valueOf(nextStream++));
+            }
+            if (mp4AudioArgs.equals(hlsAudioArgs)) {
+                command.addAll(streamMap(audioTrack, "a"));
+                command.addAll(hlsAudioArgs);
+                mp4Streams.add(String.valueOf(nextStream));
+                hlsStreams.add(String.valueOf(nextStream));
+            } else {
+                command.addAll(streamMap(audioTrack, "a"));
+                command.addAll(forAudioStream(mp4AudioArgs, 0));
+                mp4Streams.add(String.valueOf(nextStream++));
+                command.addAll(streamMap(audioTrack, "a"));
+                command.addAll(forAudioStream(hlsAudioArgs, 1));
+                hlsStreams.add(String.valueOf(nextStream));
+            }
+
+            command.add("-f");
+            command.add("tee");
+            command.add("[f=" + profile.getOutputFormat() + ":select=" + String.join(",", mp4Streams) + "]"
+                    + escapeTeeTarget(outputPath)
+                    + "|[f=hls:select=" + String.join(",", hlsStreams) + ":hls_time=" + hlsSegmentDuration
+                    + ":hls_playlist_type=event:hls_flags=temp_file"
+                    + ":hls_segment_filename=" + escapeTeeOption(segmentPattern) + "]"
+                    + escapeTeeTarget(playlistPath));
+        } else {
+            // Decode once, encode per output
+            command.addAll(streamMap(videoTrack, "v"));
+            command.addAll(streamMap(audioTrack, "a"));
+            command.addAll(mp4VideoArgs);
+            command.addAll(mp4AudioArgs);
+            command.addAll(subtitleArgs);
+            command.add("-f");
+            command.add(profile.getOutputFormat());
+            command.add(outputPath);
+
+            command.addAll(streamMap(videoTrack, "v"));
+            command.addAll(streamMap(audioTrack, "a"));
+            command.addAll(hlsVideoArgs);
+            command.addAll(hlsAudioArgs);
+            command.add("-f");
+            command.add("hls");
+            command.add("-hls_time");
+            command.add(String.valueOf(hlsSegmentDuration));
+            command.add("-hls_playlist_type");
+            command.add("event");
+            command.add("-hls_flags");
+            command.add("temp_file");
+            command.add("-hls_segment_filename");
+            command.add(segmentPattern);
+            command.add(playlistPath);
+        }
+
+        return command;
+    }
+
+    /**
+     * Audio options applied to one output audio stream only
+     */
+    private List<String> forAudioStream(List<String> audioArgs, int audioIndex) {
+        return audioArgs.stream()
+                .map(arg -> switch (arg) {
+                    case "-c:a", "-b:a" -> arg + ":" + audioIndex;
+                    case "-ac" -> "-ac:a:" + audioIndex;
+                    default -> arg;
+                })
+                .toList();
+    }
+
+    private StreamTrack findTrack(List<StreamTrack> tracks, StreamTrack.TrackType trackType) {
+        return tracks.stream()
+                .filter(t -> t.getTrackType() == trackType)
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Map the selected track, or the first stream of the given type if no track was selected
+     */
+    private List<String> streamMap(StreamTrack track, String streamType) {
+        if (track != null && track.getTrackIndex() != null) {
+            return List.of("-map", "0:" + track.getTrackIndex());
+        }
+        return List.of("-map", "0:" + streamType + ":0" + ("v".equals(streamType) ? "" : "?"));
+    }
+
+    private List<String> videoEncodeArgs(String videoCodec, TranscodingProfile profile) {
+        List<String> args = new ArrayList<>(List.of(
+                "-c:v", videoCodec,
+                "-preset", profile.getVideoPreset(),
+                "-crf", String.valueOf(profile.getVideoCrf())));
+        if (profile.getMaxWidth() > 0) {
+            // Only ever scale down
+            args.add("-vf");
+            args.add(String.format("scale='min(%d,iw)':-2", profile.getMaxWidth()));
+        }
+        return args;
+    }
+
+    private List<String> audioEncodeArgs(String audioCodec, int bitrateKbps, int channels) {
+        return List.of("-c:a", audioCodec, "-b:a", bitrateKbps + "k", "-ac", String.valueOf(channels));
+    }
+
+    /**
+     * Escape a value inside the [option=value] part of a tee output
+     */
+    private String escapeTeeOption(String value) {
+        return value.replace("\\", "\\\\").replace(":", "\\:").replace("|", "\\|")
+                .replace("[", "\\[").replace("]", "\\]");
+    }
+
+    /**
+     * Escape a tee output filename
+     */
+    private String escapeTeeTarget(String value) {
+        return value.replace("\\", "\\\\").replace("|", "\\|").replace("[", "\\[");
+    }
+
+    /**
+     * The selected video track, or the source's first video track which FFmpeg maps when none is selected
+     */
+    private StreamTrack sourceVideoTrack(StreamSource streamSource, List<StreamTrack> selectedTracks) {
+        StreamTrack videoTrack = findTrack(selectedTracks, StreamTrack.TrackType.VIDEO);
+        if (videoTrack != null) {
+            return videoTrack;
+        }
+        return streamTrackRepository.findByStreamSourceAndTrackTypeOrderByTrackIndexAsc(
+                streamSource, StreamTrack.TrackType.VIDEO).stream().findFirst().orElse(null);
+    }
+
+    /**
+     * Renditions of the configured ladder that make sense for the source: never upscale,
+     * but always keep at least the lowest video rendition
+     */
+    static List<HLSRendition> selectRenditions(List<HLSRendition> ladder, StreamTrack videoTrack) {
+        Integer sourceHeight = videoTrack != null ? videoTrack.getHeight() : null;
+        if (sourceHeight == null || sourceHeight <= 0) {
+            return ladder;
+        }
+
+        List<HLSRendition> renditions = new ArrayList<>();
+        HLSRendition lowestVideo = null;
+        for (HLSRendition rendition : ladder) {
+            if (rendition.isAudioOnly() || rendition.getHeight() <= sourceHeight) {
+                renditions.add(rendition);
+            }
+            if (!rendition.isAudioOnly() && (lowestVideo == null || rendition.getHeight() < lowestVideo.getHeight())) {
+                lowestVideo = rendition;
+            }
+        }
+        if (lowestVideo != null && renditions.stream().allMatch(HLSRendition::isAudioOnly)) {
+            renditions.add(0, lowestVideo);
+        }
+        return renditions;
+    }
+
+    /**
+     * Build a one-pass FFmpeg command for an HLS rendition ladder: the source is decoded once,
+     * split and scaled per rendition, and every variant gets keyframes on the same timestamps
+     * so players can switch between them at any segment boundary.
+     */
+    private List<String> buildAdaptiveHLSCommand(StreamSource streamSource, List<StreamTrack> selectedTracks,
+                                               HLSProfile hlsProfile, List<HLSRendition> renditions,
+                                               String outputDir) {
+        StreamTrack videoTrack = findTrack(selectedTracks, StreamTrack.TrackType.VIDEO);
+        StreamTrack audioTrack = findTrack(selectedTracks, StreamTrack.TrackType.AUDIO);
+        String videoInput = videoTrack != null && videoTrack.getTrackIndex() != null
+                ? "0:" + videoTrack.getTrackIndex() : "0:v:0";
+        String audioInput = audioTrack != null && audioTrack.getTrackIndex() != null
+                ? "0:" + audioTrack.getTrackIndex() : "0:a:0";
+
+        List<HLSRendition> videoRenditions = renditions.stream().filter(r -> !r.isAudioOnly()).toList();
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        command.add("-nostats");
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add("-i");
+        command.add(streamSource.getSourceUrl());
+
+        // Shared decoder, split once and scale per rendition
+        if (!videoRenditions.isEmpty()) {
+            StringBuilder filter = new StringBuilder("[" + videoInput + "]split=" + videoRenditions.size());
+            for (int i = 0; i < videoRenditions.size(); i++) {
+                filter.append("[s").append(i).append("]");
+            }
+            for (int i = 0; i < videoRenditions.size(); i++) {
+                filter.append(";[s").append(i).append("]scale=-2:").append(videoRenditions.get(i).getHeight())
+                      .append("[v").append(i).append("]");
+            }
+            command.add("-filter_complex");
+            command.add(filter.toString());
+        }
+
+        // Output streams in ladder order, each variant carries its own audio stream
+        List<String> streamMap = new ArrayList<>();
+        List<String> bitrateArgs = new ArrayList<>();
+        int videoIndex = 0;
+        int audioIndex = 0;
+        for (HLSRendition rendition : renditions) {
+            if (rendition.isAudioOnly()) {
+                streamMap.add("a:" + audioIndex + ",name:" + rendition.getName());
+            } else {
+                command.add("-map");
+                command.add("[v" + videoIndex + "]");
+                int videoBitrate = rendition.getVideoBitrateKbps();
+                bitrateArgs.addAll(List.of(
+                        "-b:v:" + videoIndex, videoBitrate + "k",
+                        "-maxrate:v:" + videoIndex, (int) (videoBitrate * 1.07) + "k",
+                        "-bufsize:v:" + videoIndex, (int) (videoBitrate * 1.5) + "k"));
+                streamMap.add("v:" + videoIndex + ",a:" + audioIndex + ",name:" + rendition.getName());
+                videoIndex++;
+            }
+            command.add("-map");
+            command.add(audioInput);
+            bitrateArgs.addAll(List.of("-b:a:" + audioIndex, rendition.getAudioBitrateKbps() + "k"));
+            audioIndex++;
+        }
+
+        // Video settings, keyframes aligned to segment boundaries across all variants
+        if (!videoRenditions.isEmpty()) {
+            command.add("-c:v");
+            command.add(hlsProfile.getVideoCodec());
+            command.add("-preset");
+            command.add(capabilityService.selectPreset(hlsProfile.getVideoCodec(), "fast"));
+            command.add("-profile:v");
+            command.add("high");
+            command.add("-sc_threshold");
+            command.add("0");
+            command.add("-force_key_frames");
+            command.add("expr:gte(t,n_forced*" + hlsProfile.getSegmentDuration() + ")");
+        }
+
+        // Audio settings (always AAC stereo for WebOS)
+        command.add("-c:a");
+        command.add(hlsProfile.getAudioCodec());
+        command.add("-ac");
+        command.add("2");
+        command.addAll(bitrateArgs);
+
+        // HLS specific settings
+        command.add("-f");
+        command.add("hls");
+        command.add("-hls_time");
+        command.add(String.valueOf(hlsProfile.getSegmentDuration()));
+        command.add("-hls_playlist_type");
+        command.add("event");
+        command.add("-hls_flags");
+        command.add("temp_file");
+        command.add("-hls_segment_filename");
+        command.add(outputDir + "/%v/segment_%03d.ts");
+        command.add("-var_stream_map");
+        command.add(String.join(" ", streamMap));
+
+        // Variant playlists; the master playlist is written by us once the variants are measured
+        command.add(outputDir + "/%v/playlist.m3u8");
+
+        // FFmpeg does not create the variant directories itself
+        try {
+            for (HLSRendition rendition : renditions) {
+                Files.createDirectories(Paths.get(outputDir, rendition.getName()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create HLS variant directories in " + outputDir, e);
+        }
+
+        return command;
+    }
+
+    /**
+     * Write the master playlist of an HLS rendition ladder. When measured, BANDWIDTH is the peak segment
+     * bitrate of the variant's segments, so players step down before they stall; before the variants
+     * are complete the nominal ladder bitrates are used.
+     */
+    private void writeMasterPlaylist(Path outputDir, List<HLSRendition> renditions, StreamTrack videoTrack,
+                                     boolean measured) throws IOException {
+        double aspectRatio = videoTrack != null && videoTrack.getWidth() != null && videoTrack.getHeight() != null
+                && videoTrack.getHeight() > 0
+                ? (double) videoTrack.getWidth() / videoTrack.getHeight() : 16.0 / 9.0;
+
+        StringBuilder master = new StringBuilder();
+        master.append("#EXTM3U\n");
+        master.append("#EXT-X-VERSION:3\n");
+        master.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+
+        for (HLSRendition rendition : renditions) {
+            Path variantPlaylist = outputDir.resolve(rendition.getName()).resolve("playlist.m3u8");
+            long[] bandwidth = measured ? measureVariantBandwidth(variantPlaylist) : new long[] {0, 0};
+            long peakBandwidth = bandwidth[0] > 0 ? bandwidth[0] : rendition.getNominalBandwidth();
+
+            master.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(peakBandwidth);
+            if (bandwidth[1] > 0) {
+                master.append(",AVERAGE-BANDWIDTH=").append(bandwidth[1]);
+            }
+            if (rendition.isAudioOnly()) {
+                master.append(",CODECS=\"").append(AAC_CODEC).append("\"");
+            } else {
+                int width = (int) Math.round(rendition.getHeight() * aspectRatio / 2) * 2;
+                master.append(",RESOLUTION=").append(width).append("x").append(rendition.getHeight());
+                master.append(",CODECS=\"").append(rendition.getHeight() > 720 ? H264_HIGH_40_CODEC : H264_HIGH_31_CODEC)
+                      .append(",").append(AAC_CODEC).append("\"");
+            }
+            master.append("\n");
+            master.append(rendition.getName()).append("/playlist.m3u8\n");
+        }
+
+        Files.createDirectories(outputDir);
+        writeAtomically(outputDir.resolve(MASTER_PLAYLIST), master.toString());
+        logger.info("Wrote HLS master playlist with {} variants: {}", renditions.size(), outputDir.resolve(MASTER_PLAYLIST));
+    }
+
+    /**
+     * HLS output is written as an EVENT playlist so it can be served while the job is running;
+     * once complete it is turned into a VOD playlist so players treat the title as seekable and final.
+     */
+    private void finishEventPlaylist(Path playlist) throws IOException {
+        if (!Files.exists(playlist)) {
+            return;
+        }
+
+        List<String> lines = new ArrayList<>(Files.readAllLines(playlist));
+        lines.replaceAll(line -> line.equals("#EXT-X-PLAYLIST-TYPE:EVENT") ? "#EXT-X-PLAYLIST-TYPE:VOD" : line);
+        if (!lines.contains("#EXT-X-ENDLIST")) {
+            lines.add("#EXT-X-ENDLIST");
+        }
+        writeAtomically(playlist, String.join("\n", lines) + "\n");
+    }
+
+    /**
+     * Replace a playlist without readers ever seeing a partially written file
+     */
+    private void writeAtomically(Path target, String content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(temp, content);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Peak and average bitrate (bits/s) of a variant, from its segment sizes and EXTINF durations
+     */
+    private long[] measureVariantBandwidth(Path variantPlaylist) {
+        long peak = 0;
+        long totalBytes = 0;
+        double totalSeconds = 0;
+
+        try {
+            double segmentDuration = 0;
+            for (String line : Files.readAllLines(variantPlaylist)) {
+                if (line.startsWith("#EXTINF:")) {
+                    String value = line.substring("#EXTINF:".length());
+                    int comma = value.indexOf(',');
+                    segmentDuration = Double.parseDouble(comma >= 0 ? value.substring(0, comma) : value);
+                } else if (!line.isBlank() && !line.startsWith("#") && segmentDuration > 0) {
+                    long size = Files.size(variantPlaylist.resolveSibling(line.trim()));
+                    peak = Math.max(peak, (long) (size * 8 / segmentDuration));
+                    totalBytes += size;
+                    totalSeconds += segmentDuration;
+                    segmentDuration = 0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Could not measure bandwidth of HLS variant {}: {}", variantPlaylist, e.getMessage());
+            return new long[] {0, 0};
+        }
+
+        long average = totalSeconds > 0 ? (long) (totalBytes * 8 / totalSeconds) : 0;
+        return new long[] {peak, average};
+    }
+
+    /**
+     * Save a claimed job's settings before it is handed to the worker pool
+     */
+    private void saveStartingJob(TranscodingJob job) {
+        if (!leaseService.saveClaimedJob(job)) {
+            throw new RuntimeException("Job " + job.getId() + " was cancelled or reclaimed before it started");
+        }
+    }
+
+    /**
+     * Start transcoding process on a reserved worker pool slot
+     */
+    private void startTranscodingProcess(TranscodingJob job, List<String> command, OutputFinalizer finalizer) {
+        runOnReservedSlot(job, () -> executeTranscodingJob(job, command, finalizer));
+    }
+
+    /**
+     * Run a job on its reserved worker pool slot and publish its outcome once the slot is free
+     */
+    private void runOnReservedSlot(TranscodingJob job, JobExecution execution) {
+        workerPool.runReserved("job-" + job.getId(), () -> {
+            // Registered before any process starts so a cancel in between is not lost
+            runningProcesses.put(job.getId(), ConcurrentHashMap.newKeySet());
+            runningPriorities.put(job.getId(), job.getPriority());
             try {
-                executeTranscodingJob(job, command);
+                execution.execute();
             } catch (Exception e) {
                 logger.error("Transcoding job failed: {}", job.getId(), e);
                 job.fail(e.getMessage());
-                jobRepository.save(job);
+                leaseService.saveClaimedJob(job);
+            } finally {
+                synchronized (suspendLock) {
+                    runningPriorities.remove(job.getId());
+                    // A job that ended while paused (e.g. cancelled) takes back its lent slot before releasing it
+                    if (suspendedJobs.remove(job.getId())) {
+                        workerPool.reclaimSlot();
+                    }
+                }
+                runningProcesses.remove(job.getId());
+                cancelledJobs.remove(job.getId());
+                progressRegistry.remove(job.getId());
+                runningLogs.remove(job.getId());
             }
+        }).whenComplete((ignored, error) -> {
+            // Published after the worker slot has been released so listeners can refill it
+            eventPublisher.publishEvent(TranscodingJobEvent.finished(job));
         });
-        
-        transcodingThread.setName("Transcoding-" + job.getId());
-        transcodingThread.start();
+    }
+
+    /**
+     * Gzip file with the complete FFmpeg output of a job that ran on this node, if full logs are enabled
+     */
+    public Path getFullLogFile(Long jobId) {
+        return Paths.get(outputDirectory, "logs", "job_" + jobId + ".log.gz");
+    }
+
+    /**
+     * Error lines and output tail of a job while it is running on this node
+     */
+    public Optional<String> getRunningJobLog(Long jobId) {
+        return Optional.ofNullable(runningLogs.get(jobId)).map(FFmpegJobLog::summary);
+    }
+
+    private FFmpegJobLog openJobLog(TranscodingJob job) {
+        FFmpegJobLog jobLog = new FFmpegJobLog(logTailChars, fullLogEnabled ? getFullLogFile(job.getId()) : null);
+        runningLogs.put(job.getId(), jobLog);
+        return jobLog;
+    }
+
+    /**
+     * Stop local processes of jobs that were cancelled on another node or reclaimed meanwhile
+     */
+    @EventListener
+    public void onTranscodingLeaseLost(TranscodingLeaseLostEvent event) {
+        event.getJobIds().forEach(this::cancelRunningJob);
+    }
+
+    /**
+     * Stop the FFmpeg process of a job running on this node
+     *
+     * @return true if a running process was found and destroyed
+     */
+    public boolean cancelRunningJob(Long jobId) {
+        Set<Process> processes = runningProcesses.get(jobId);
+        if (processes == null) {
+            return false;
+        }
+
+        logger.info("Stopping {} FFmpeg processes for cancelled job: {}", processes.size(), jobId);
+        cancelledJobs.add(jobId);
+        processes.forEach(Process::destroy);
+        if (suspendedJobs.contains(jobId)) {
+            // A stopped process only acts on SIGTERM once it is continued
+            processes.forEach(process -> signalProcess(process, "CONT"));
+        }
+        return true;
+    }
+
+    /**
+     * Pause one running BACKFILL job with SIGSTOP and lend its worker slot to the pool
+     *
+     * @return true if a job was paused
+     */
+    public boolean suspendBackfillJob() {
+        synchronized (suspendLock) {
+            for (Map.Entry<Long, TranscodingJob.Priority> entry : runningPriorities.entrySet()) {
+                Long jobId = entry.getKey();
+                if (entry.getValue() != TranscodingJob.Priority.BACKFILL
+                        || suspendedJobs.contains(jobId) || cancelledJobs.contains(jobId)) {
+                    continue;
+                }
+
+                Set<Process> processes = runningProcesses.getOrDefault(jobId, Set.of());
+                if (processes.isEmpty() || !processes.stream().allMatch(process -> signalProcess(process, "STOP"))) {
+                    processes.forEach(process -> signalProcess(process, "CONT"));
+                    continue;
+                }
+
+                suspendedJobs.add(jobId);
+                workerPool.lendSlot();
+                logger.info("Paused backfill transcoding job {} to make room for interactive work", jobId);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Continue paused jobs for as long as their worker slots can be taken back
+     *
+     * @return number of jobs continued
+     */
+    public int resumeSuspendedJobs() {
+        synchronized (suspendLock) {
+            int resumed = 0;
+            for (Long jobId : List.copyOf(suspendedJobs)) {
+                if (!workerPool.tryReclaimSlot()) {
+                    break;
+                }
+                suspendedJobs.remove(jobId);
+                runningProcesses.getOrDefault(jobId, Set.of()).forEach(process -> signalProcess(process, "CONT"));
+                logger.info("Resumed paused transcoding job {}", jobId);
+                resumed++;
+            }
+            return resumed;
+        }
+    }
+
+    public boolean hasSuspendedJobs() {
+        return !suspendedJobs.isEmpty();
+    }
+
+    /**
+     * Send a job control signal (STOP, CONT) to a process; Java has no API for these, so use kill(1)
+     */
+    private boolean signalProcess(Process process, String signal) {
+        if (!process.isAlive()) {
+            return false;
+        }
+        try {
+            Process kill = new ProcessBuilder("kill", "-" + signal, String.valueOf(process.pid())).start();
+            return kill.waitFor(5, TimeUnit.SECONDS) && kill.exitValue() == 0;
+        } catch (IOException e) {
+            logger.warn("Could not send SIG{} to process {}: {}", signal, process.pid(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Track a process of a running job, stopping it right away if the job was cancelled meanwhile
+     */
+    private void registerProcess(Long jobId, Process process) {
+        Set<Process> processes = runningProcesses.computeIfAbsent(jobId, id -> ConcurrentHashMap.newKeySet());
+        processes.add(process);
+        if (cancelledJobs.contains(jobId)) {
+            process.destroy();
+        } else if (suspendedJobs.contains(jobId)) {
+            // Next chunk of a paused job, keep it paused as well
+            signalProcess(process, "STOP");
+        }
+    }
+
+    private void unregisterProcess(Long jobId, Process process) {
+        Set<Process> processes = runningProcesses.get(jobId);
+        if (processes != null) {
+            processes.remove(process);
+        }
     }
 
     /**
      * Execute transcoding job with progress monitoring
      */
-    private void executeTranscodingJob(TranscodingJob job, List<String> command) throws IOException, InterruptedException {
+    private void executeTranscodingJob(TranscodingJob job, List<String> command, OutputFinalizer finalizer)
+            throws IOException, InterruptedException {
         logger.info("Executing transcoding job: {} with command: {}", job.getId(), String.join(" ", command));
         
         // Ensure output directory exists
@@ -282,48 +1032,62 @@ public class FFmpegTranscodingService {
         if (outputPath != null) {
             Files.createDirectories(outputPath);
         }
-        
+        if (job.getHlsPlaylistFile() != null) {
+            Path hlsOutputPath = Paths.get(job.getHlsPlaylistFile()).getParent();
+            if (hlsOutputPath != null) {
+                Files.createDirectories(hlsOutputPath);
+            }
+        }
+
         // Start job
         job.start();
-        jobRepository.save(job);
-        
-        // Execute FFmpeg process
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.redirectErrorStream(true);
+        if (!leaseService.saveClaimedJob(job)) {
+            return;
+        }
+        eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.STARTED));
         
-        Process process = processBuilder.start();
+        // Execute FFmpeg process, progress blocks on stdout and messages on stderr
+        Process process = new ProcessBuilder(command).start();
+        registerProcess(job.getId(), process);
         
-        StringBuilder logOutput = new StringBuilder();
+        FFmpegJobLog jobLog = openJobLog(job);
+        FFmpegService.StderrTail stderr = FFmpegService.StderrTail.capture(
+                process, "ffmpeg-stderr-" + job.getId(), jobLog::append);
+        CpuSampler cpuSampler = new CpuSampler(process);
+        String errorTail;
         
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                logOutput.append(line).append("\n");
-                
-                // Parse progress information
-                parseProgressLine(job, line);
-                
-                // Update job progress every 100 lines to avoid too frequent DB updates
-                if (logOutput.length() % 10000 == 0) {
-                    job.setFfmpegLog(logOutput.toString());
-                    jobRepository.save(job);
-                }
-            }
+        try {
+            // Persisted by the progress registry on its own cadence
+            new FFmpegProgressParser(process.getInputStream()).run(progress -> {
+                applyProgress(job, progress);
+                progressRegistry.update(job);
+                cpuSampler.sample();
+            });
+        } finally {
+            errorTail = stderr.get();
+            jobLog.close();
         }
         
         // Wait for process completion
         boolean finished = process.waitFor(transcodingTimeoutSeconds, TimeUnit.SECONDS);
+        workerPool.recordChildCpuTime(cpuSampler.getTotal());
         
         if (!finished) {
             process.destroyForcibly();
             throw new RuntimeException("Transcoding timed out after " + transcodingTimeoutSeconds + " seconds");
         }
         
-        // Update job with final results
-        job.setFfmpegLog(logOutput.toString());
+        // Update job with final results, the complete output is in the full log file
+        job.setFfmpegLog(jobLog.summary());
         
-        if (process.exitValue() == 0) {
+        if (cancelledJobs.contains(job.getId())) {
+            job.cancel();
+            logger.info("Transcoding job cancelled: {}", job.getId());
+        } else if (process.exitValue() == 0) {
             // Success
+            if (finalizer != null) {
+                finalizer.finish(job);
+            }
             job.complete();
             
             // Calculate output file size
@@ -331,76 +1095,461 @@ public class FFmpegTranscodingService {
             if (outputFile.exists()) {
                 job.setOutputSizeBytes(outputFile.length());
             }
+            recordOutputValidators(job);
             
             logger.info("Transcoding job completed successfully: {}", job.getId());
         } else {
             // Failure
-            job.fail("FFmpeg process failed with exit code: " + process.exitValue());
+            job.fail("FFmpeg process failed with exit code: " + process.exitValue()
+                     + (errorTail.isEmpty() ? "" : ": " + errorTail.replace("\n", " | ")));
             logger.error("Transcoding job failed: {} with exit code: {}", job.getId(), process.exitValue());
         }
         
-        jobRepository.save(job);
+        leaseService.saveClaimedJob(job);
     }
 
     /**
-     * Parse FFmpeg progress output
+     * Content-derived validators of a completed job's output, stored with the job so stream delivery
+     * can answer conditional requests without reading the files
      */
-    private void parseProgressLine(TranscodingJob job, String line) {
+    private void recordOutputValidators(TranscodingJob job) {
         try {
-            // Parse frame number
-            Matcher frameMatcher = FRAME_PATTERN.matcher(line);
-            if (frameMatcher.find()) {
-                long currentFrame = Long.parseLong(frameMatcher.group(1));
-                job.setCurrentFrame(currentFrame);
-                
-                // Calculate progress percentage if total frames is known
-                if (job.getTotalFrames() != null && job.getTotalFrames() > 0) {
-                    int progress = (int) ((currentFrame * 100) / job.getTotalFrames());
-                    job.setProgressPercent(Math.min(progress, 99)); // Never show 100% until complete
+            if (job.producesTranscodedFile() && job.getOutputFile() != null
+                    && Files.isRegularFile(Paths.get(job.getOutputFile()))) {
+                // Served as a strong ETag and matched against If-Range, so every byte counts
+                job.setOutputEtag(fingerprintService.fingerprint(Paths.get(job.getOutputFile()),
+                                                                  MediaFingerprintService.HashMode.FULL));
+            }
+            if (job.producesHls() && job.getHlsOutputFile() != null) {
+                job.setHlsEtag(hlsFingerprint(Paths.get(job.getHlsOutputFile()).getParent()));
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not compute output validators of job {}: {}", job.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * SHA-256 of the playlists of an HLS output directory (and its variant directories), and of the
+     * names and sizes of the segments, which are never rewritten once listed
+     */
+    private static String hlsFingerprint(Path hlsDir) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(hlsDir, 2)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        ByteBuffer size = ByteBuffer.allocate(Long.BYTES);
+        for (Path file : files) {
+            String name = hlsDir.relativize(file).toString();
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            if (name.endsWith(".m3u8")) {
+                digest.update(Files.readAllBytes(file));
+            } else {
+                digest.update(size.clear().putLong(Files.size(file)).flip());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Whether a transcode is worth splitting into parallel chunks: a long local file whose video is
+     * re-encoded anyway and that has no subtitle track to carry over
+     */
+    private boolean isChunkable(StreamSource streamSource, List<StreamTrack> selectedTracks, TranscodingProfile profile) {
+        if (!chunkedEnabled || streamSource.getDurationSeconds() == null
+                || streamSource.getDurationSeconds() < chunkedMinDurationSeconds) {
+            return false;
+        }
+        if (streamSource.getSourceType() != StreamSource.SourceType.FILE
+                || !Files.isRegularFile(Paths.get(streamSource.getSourceUrl()))) {
+            return false;
+        }
+
+        StreamTrack videoTrack = findTrack(selectedTracks, StreamTrack.TrackType.VIDEO);
+        boolean copiesVideo = videoTrack != null && videoTrack.isWebosCompatible() && !profile.isForceReencode();
+        return !copiesVideo && findTrack(selectedTracks, StreamTrack.TrackType.SUBTITLE) == null;
+    }
+
+    /**
+     * Transcode a long source as keyframe-aligned chunks encoded in parallel. The job's own worker slot
+     * is the first lane; idle slots of the pool are borrowed as extra lanes while no other job waits
+     * for one, and handed back after the chunk they are on once a job is queued. Audio is encoded in one
+     * piece (no priming gaps at chunk boundaries) and the chunks are joined losslessly with the
+     * concat demuxer.
+     */
+    private void executeChunkedTranscodingJob(TranscodingJob job, List<StreamTrack> selectedTracks,
+                                            TranscodingProfile profile, List<String> singlePassCommand)
+            throws IOException, InterruptedException {
+        StreamSource streamSource = job.getStreamSource();
+        String sourceUrl = streamSource.getSourceUrl();
+        double duration = streamSource.getDurationSeconds();
+
+        // Keyframes are only probed around the ideal split points
+        List<Double> targets = chunkTargets(duration);
+        List<Double> keyframes = ffmpegService.getKeyframeTimestamps(sourceUrl, targets, KEYFRAME_PROBE_WINDOW_SECONDS);
+        List<double[]> ranges = planChunks(keyframes, targets, duration);
+        if (ranges.size() < 2) {
+            logger.info("Not enough keyframes to split job {}, transcoding in one piece", job.getId());
+            executeTranscodingJob(job, singlePassCommand, null);
+            return;
+        }
+        boolean hasAudio = ffmpegService.hasStreamOfType(sourceUrl, "a");
+
+        Path outputPath = Paths.get(job.getOutputFile());
+        if (outputPath.getParent() != null) {
+            Files.createDirectories(outputPath.getParent());
+        }
+        Path workDir = Paths.get(outputDirectory, "chunks", "job_" + job.getId());
+        Files.createDirectories(workDir);
+
+        StreamTrack videoTrack = findTrack(selectedTracks, StreamTrack.TrackType.VIDEO);
+        StreamTrack audioTrack = findTrack(selectedTracks, StreamTrack.TrackType.AUDIO);
+
+        List<ChunkTask> tasks = new ArrayList<>();
+        Path audioFile = workDir.resolve("audio.m4a");
+        if (hasAudio) {
+            tasks.add(new ChunkTask(-1, buildChunkAudioCommand(sourceUrl, audioTrack, profile, audioFile), audioFile, 0));
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            double[] range = ranges.get(i);
+            Path chunkFile = workDir.resolve(String.format("chunk_%03d.mp4", i));
+            boolean last = i == ranges.size() - 1;
+            tasks.add(new ChunkTask(i, buildChunkVideoCommand(sourceUrl, videoTrack, profile, range, last, chunkFile),
+                                    chunkFile, range[1] - range[0]));
+        }
+
+        job.setFfmpegCommand(String.join(" ", tasks.get(hasAudio ? 1 : 0).command)
+                + " (1 of " + ranges.size() + " chunks)");
+        job.start();
+        if (!leaseService.saveClaimedJob(job)) {
+            return;
+        }
+        eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.STARTED));
+        logger.info("Executing chunked transcoding job: {} as {} chunks", job.getId(), ranges.size());
+
+        ChunkProgress progress = new ChunkProgress(ranges.size(), duration);
+        Queue<ChunkTask> pending = new ConcurrentLinkedQueue<>(tasks);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        FFmpegJobLog jobLog = openJobLog(job);
+
+        try {
+            // Borrow idle worker slots as extra lanes, unless other jobs are already waiting for them
+            int extraLanes = jobsWaiting() ? 0 : workerPool.tryReserveSlots(tasks.size() - 1);
+            List<CompletableFuture<Void>> lanes = new ArrayList<>();
+            for (int lane = 1; lane <= extraLanes; lane++) {
+                lanes.add(workerPool.runReserved("job-" + job.getId() + "-lane-" + lane,
+                                () -> runChunkLane(job, pending, progress, failure, jobLog, true))
+                        .whenComplete((ignored, error) -> eventPublisher.publishEvent(
+                                new TranscodingCapacityEvent("chunk lane of job " + job.getId() + " done"))));
+            }
+            logger.debug("Job {} runs its chunks on {} lanes", job.getId(), extraLanes + 1);
+
+            runChunkLane(job, pending, progress, failure, jobLog, false);
+            CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0])).handle((ignored, error) -> null).join();
+
+            boolean cancelled = cancelledJobs.contains(job.getId());
+            if (!cancelled && failure.get() == null) {
+                concatChunks(job, tasks, hasAudio ? audioFile : null, workDir, outputPath,
+                             profile.getOutputFormat(), jobLog);
+                jobLog.append("Joined " + ranges.size() + " chunks into " + outputPath);
+            }
+
+            jobLog.close();
+            synchronized (job) {
+                job.setFfmpegLog(jobLog.summary());
+                if (cancelled || cancelledJobs.contains(job.getId())) {
+                    job.cancel();
+                    logger.info("Transcoding job cancelled: {}", job.getId());
+                } else if (failure.get() != null) {
+                    job.fail("Chunked transcoding failed: " + failure.get().getMessage());
+                    logger.error("Chunked transcoding job failed: {}", job.getId());
+                } else {
+                    job.complete();
+                    job.setOutputSizeBytes(Files.size(outputPath));
+                    recordOutputValidators(job);
+                    logger.info("Chunked transcoding job completed successfully: {}", job.getId());
                 }
+                leaseService.saveClaimedJob(job);
             }
-            
-            // Parse processing speed
-            Matcher speedMatcher = SPEED_PATTERN.matcher(line);
-            if (speedMatcher.find()) {
-                job.setProcessingSpeed(speedMatcher.group(1) + "x");
+        } finally {
+            jobLog.close();
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * Ideal chunk starts after the first one, splitting [0, duration) into chunks of equal length
+     */
+    private List<Double> chunkTargets(double duration) {
+        int chunkCount = (int) Math.min(chunkedMaxChunks, Math.floor(duration / chunkedMinChunkSeconds));
+        List<Double> targets = new ArrayList<>();
+        for (int i = 1; i < chunkCount; i++) {
+            targets.add(duration * i / chunkCount);
+        }
+        return targets;
+    }
+
+    /**
+     * Split [0, duration) into chunks of roughly equal length, starting each chunk on the keyframe
+     * closest to its ideal start
+     */
+    private List<double[]> planChunks(List<Double> keyframes, List<Double> targets, double duration) {
+        List<Double> boundaries = new ArrayList<>();
+        boundaries.add(0.0);
+
+        if (!keyframes.isEmpty()) {
+            for (double target : targets) {
+                int position = Collections.binarySearch(keyframes, target);
+                int insertion = position >= 0 ? position : -position - 1;
+
+                double boundary = insertion >= keyframes.size() ? keyframes.get(keyframes.size() - 1)
+                        : insertion == 0 ? keyframes.get(0)
+                        : target - keyframes.get(insertion - 1) <= keyframes.get(insertion) - target
+                          ? keyframes.get(insertion - 1) : keyframes.get(insertion);
+
+                // Skip boundaries that would create tiny chunks (sparse keyframes)
+                if (boundary - boundaries.get(boundaries.size() - 1) >= chunkedMinChunkSeconds / 2.0
+                        && duration - boundary >= chunkedMinChunkSeconds / 2.0) {
+                    boundaries.add(boundary);
+                }
             }
-            
-            // Parse time progress
-            Matcher timeMatcher = TIME_PATTERN.matcher(line);
-            if (timeMatcher.find()) {
-                int hours = Integer.parseInt(timeMatcher.group(1));
-                int minutes = Integer.parseInt(timeMatcher.group(2));
-                int seconds = Integer.parseInt(timeMatcher.group(3));
-                
-                int totalSeconds = hours * 3600 + minutes * 60 + seconds;
-                
-                // Estimate completion time if we know the total duration
-                if (job.getStreamSource().getDurationSeconds() != null) {
-                    int totalDuration = job.getStreamSource().getDurationSeconds();
-                    if (totalDuration > 0 && totalSeconds > 0) {
-                        int progress = (int) ((totalSeconds * 100) / totalDuration);
-                        job.setProgressPercent(Math.min(progress, 99));
-                        
-                        // Estimate completion time based on current speed
-                        if (job.getProcessingSpeed() != null) {
-                            try {
-                                double speed = Double.parseDouble(job.getProcessingSpeed().replace("x", ""));
-                                if (speed > 0) {
-                                    int remainingSeconds = (int) ((totalDuration - totalSeconds) / speed);
-                                    job.setEstimatedCompletionAt(LocalDateTime.now().plusSeconds(remainingSeconds));
-                                }
-                            } catch (NumberFormatException e) {
-                                // Ignore parsing errors
-                            }
-                        }
-                    }
+        }
+
+        List<double[]> ranges = new ArrayList<>();
+        for (int i = 0; i < boundaries.size(); i++) {
+            double end = i + 1 < boundaries.size() ? boundaries.get(i + 1) : duration;
+            ranges.add(new double[] {boundaries.get(i), end});
+        }
+        return ranges;
+    }
+
+    private List<String> buildChunkVideoCommand(String sourceUrl, StreamTrack videoTrack, TranscodingProfile profile,
+                                                double[] range, boolean last, Path chunkFile) {
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-y", "-nostats", "-loglevel", "error",
+                                                       "-progress", "pipe:1"));
+        // Input seeking is frame accurate when re-encoding; frames in [start, end) go into this chunk
+        if (range[0] > 0) {
+            command.add("-ss");
+            command.add(String.format(Locale.ROOT, "%.6f", range[0]));
+        }
+        if (!last) {
+            command.add("-to");
+            command.add(String.format(Locale.ROOT, "%.6f", range[1]));
+        }
+        command.add("-i");
+        command.add(sourceUrl);
+        command.addAll(streamMap(videoTrack, "v"));
+        command.addAll(videoEncodeArgs(profile.getVideoCodec(), profile));
+        command.add("-f");
+        command.add("mp4");
+        command.add(chunkFile.toString());
+        return command;
+    }
+
+    private List<String> buildChunkAudioCommand(String sourceUrl, StreamTrack audioTrack, TranscodingProfile profile,
+                                                Path audioFile) {
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-y", "-nostats", "-loglevel", "error",
+                                                       "-i", sourceUrl));
+        command.addAll(streamMap(audioTrack, "a"));
+        if (audioTrack != null && audioTrack.isWebosCompatible() && !profile.isForceReencode()) {
+            command.addAll(List.of("-c:a", "copy"));
+        } else {
+            int channels = audioTrack != null && audioTrack.getChannels() != null
+                    ? Math.min(audioTrack.getChannels(), profile.getMaxAudioChannels())
+                    : profile.getMaxAudioChannels();
+            command.addAll(audioEncodeArgs(profile.getAudioCodec(), profile.getAudioBitrate(), channels));
+        }
+        command.add("-f");
+        command.add("mp4");
+        command.add(audioFile.toString());
+        return command;
+    }
+
+    /**
+     * Take chunks from the shared queue until it is empty, the job is cancelled or a chunk failed.
+     * A lane on a borrowed slot also stops after a chunk when other jobs are waiting, so they get the slot.
+     */
+    private void runChunkLane(TranscodingJob job, Queue<ChunkTask> pending, ChunkProgress progress,
+                              AtomicReference<Exception> failure, FFmpegJobLog jobLog, boolean borrowed) {
+        ChunkTask task;
+        while (failure.get() == null && !cancelledJobs.contains(job.getId()) && (task = pending.poll()) != null) {
+            ChunkTask current = task;
+            try {
+                runJobProcess(job, current.command, current.index < 0 ? null
+                        : seconds -> reportChunkProgress(job, progress, current.index, seconds), jobLog);
+                if (current.index >= 0) {
+                    progress.update(current.index, current.durationSeconds);
+                }
+                jobLog.append(current.describe() + " done");
+            } catch (Exception e) {
+                if (failure.compareAndSet(null, e)) {
+                    logger.error("{} of job {} failed", current.describe(), job.getId(), e);
+                    // The job fails as a whole, stop the other chunks
+                    runningProcesses.getOrDefault(job.getId(), Set.of()).forEach(Process::destroy);
                 }
             }
-            
-        } catch (Exception e) {
-            // Ignore parsing errors, continue processing
-            logger.debug("Failed to parse progress line: {}", line, e);
+            if (borrowed && !pending.isEmpty() && jobsWaiting()) {
+                logger.info("Job {} hands a borrowed lane back to waiting jobs", job.getId());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Whether transcoding jobs are waiting for a worker slot
+     */
+    private boolean jobsWaiting() {
+        try {
+            return jobRepository.countPendingJobsOfTypes(TranscodingJobQueueService.TRANSCODING_JOB_TYPE_NAMES) > 0;
+        } catch (RuntimeException e) {
+            logger.debug("Could not count pending transcoding jobs: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Roll the progress of all chunks up into the job, at most once a second
+     */
+    private void reportChunkProgress(TranscodingJob job, ChunkProgress progress, int chunk, double seconds) {
+        progress.update(chunk, seconds);
+
+        long now = System.currentTimeMillis();
+        if (now - progress.lastReportedAt < PROGRESS_REPORT_INTERVAL_MS) {
+            return;
+        }
+
+        synchronized (job) {
+            if (now - progress.lastReportedAt < PROGRESS_REPORT_INTERVAL_MS || job.isFinished()) {
+                return;
+            }
+            progress.lastReportedAt = now;
+
+            double encodedSeconds = progress.getEncodedSeconds();
+            job.setProgressPercent((int) Math.min(99, encodedSeconds * 100 / progress.totalSeconds));
+
+            double elapsedSeconds = (now - progress.startedAt) / 1000.0;
+            if (elapsedSeconds > 0 && encodedSeconds > 0) {
+                double speed = encodedSeconds / elapsedSeconds;
+                job.setProcessingSpeed(String.format(Locale.ROOT, "%.2fx", speed));
+                job.setEstimatedCompletionAt(LocalDateTime.now().plusSeconds(
+                        (long) ((progress.totalSeconds - encodedSeconds) / speed)));
+            }
+            progressRegistry.update(job);
+        }
+    }
+
+    /**
+     * Join the encoded chunks (and the audio) without re-encoding
+     */
+    private void concatChunks(TranscodingJob job, List<ChunkTask> tasks, Path audioFile, Path workDir,
+                              Path outputPath, String outputFormat, FFmpegJobLog jobLog)
+            throws IOException, InterruptedException {
+        StringBuilder list = new StringBuilder();
+        tasks.stream()
+                .filter(task -> task.index >= 0)
+                .sorted(Comparator.comparingInt(task -> task.index))
+                .forEach(task -> list.append("file '")
+                        .append(task.output.toAbsolutePath().toString().replace("'", "'\\''"))
+                        .append("'\n"));
+        Path listFile = workDir.resolve("chunks.txt");
+        Files.writeString(listFile, list.toString());
+
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-y", "-nostats", "-loglevel", "error",
+                                                       "-f", "concat", "-safe", "0", "-i", listFile.toString()));
+        if (audioFile != null) {
+            command.addAll(List.of("-i", audioFile.toString(), "-map", "0:v", "-map", "1:a"));
+        }
+        command.addAll(List.of("-c", "copy", "-f", outputFormat, outputPath.toString()));
+
+        runJobProcess(job, command, null, jobLog);
+    }
+
+    /**
+     * Run one FFmpeg process of a job, feeding {@code out_time_us} progress (in seconds) to the listener
+     * and its output to the job log
+     */
+    private void runJobProcess(TranscodingJob job, List<String> command, DoubleConsumer progressListener,
+                               FFmpegJobLog jobLog) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).start();
+        registerProcess(job.getId(), process);
+
+        FFmpegService.StderrTail stderr = FFmpegService.StderrTail.capture(
+                process, "ffmpeg-stderr-" + job.getId(), jobLog::append);
+        CpuSampler cpuSampler = new CpuSampler(process);
+
+        try {
+            new FFmpegProgressParser(process.getInputStream()).run(progress -> {
+                if (progressListener != null && progress.getOutTimeUs() != FFmpegProgressParser.UNKNOWN) {
+                    progressListener.accept(progress.getOutTimeUs() / 1_000_000.0);
+                }
+                cpuSampler.sample();
+            });
+
+            boolean finished = process.waitFor(transcodingTimeoutSeconds, TimeUnit.SECONDS);
+            workerPool.recordChildCpuTime(cpuSampler.getTotal());
+            if (!finished) {
+                process.destroyForcibly();
+                throw new RuntimeException("FFmpeg timed out after " + transcodingTimeoutSeconds + " seconds");
+            }
+            String errorTail = stderr.get();
+            if (process.exitValue() != 0 && !cancelledJobs.contains(job.getId())) {
+                throw new RuntimeException("FFmpeg exited with code " + process.exitValue() + ": "
+                        + errorTail.replace("\n", " | "));
+            }
+        } finally {
+            unregisterProcess(job.getId(), process);
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            logger.warn("Failed to clean up chunk directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Copy one {@code -progress} block onto the job. Percentage and ETA follow the output time against
+     * the source duration; the frame count is only used when the duration is not known.
+     */
+    private void applyProgress(TranscodingJob job, FFmpegProgressParser progress) {
+        long frame = progress.getFrame();
+        if (frame != FFmpegProgressParser.UNKNOWN) {
+            job.setCurrentFrame(frame);
+        }
+
+        double speed = progress.getSpeed();
+        if (!Double.isNaN(speed)) {
+            job.setProcessingSpeed(String.format(Locale.ROOT, "%.2fx", speed));
+        }
+
+        long bitrateKbps = progress.getBitrateKbps();
+        if (bitrateKbps != FFmpegProgressParser.UNKNOWN) {
+            job.setCurrentBitrateKbps(bitrateKbps);
+        }
+
+        Integer durationSeconds = job.getStreamSource().getDurationSeconds();
+        long outTimeUs = progress.getOutTimeUs();
+        if (durationSeconds != null && durationSeconds > 0 && outTimeUs > 0) {
+            long durationUs = durationSeconds * 1_000_000L;
+            long doneUs = Math.min(outTimeUs, durationUs);
+            job.setProgressPercent((int) Math.min(doneUs * 100 / durationUs, 99)); // Never show 100% until complete
+            if (speed > 0) {
+                long remainingMs = (long) ((durationUs - doneUs) / 1000 / speed);
+                job.setEstimatedCompletionAt(LocalDateTime.now().plus(Duration.ofMillis(remainingMs)));
+            }
+        } else if (frame > 0 && job.getTotalFrames() != null && job.getTotalFrames() > 0) {
+            job.setProgressPercent((int) Math.min(frame * 100 / job.getTotalFrames(), 99));
         }
     }
 
@@ -417,34 +1566,38 @@ public class FFmpegTranscodingService {
     }
 
     /**
-     * Generate HLS output directory path
+     * Generate HLS output directory path. Every job writes to its own directory, so a re-encode never
+     * rewrites the playlist and segments of a completed job that are served with its stored validator.
      */
-    private String generateHLSOutputPath(StreamSource streamSource, HLSProfile profile) {
+    private String generateHLSOutputPath(StreamSource streamSource, HLSProfile profile, Long jobId) {
         String dirName = String.format("stream_%d_%s_hls", 
                                      streamSource.getId(), 
                                      profile.getName().toLowerCase());
         
-        return Paths.get(outputDirectory, "hls", dirName).toString();
+        return Paths.get(outputDirectory, "hls", dirName, HLS_JOB_DIR_PREFIX + jobId).toString();
     }
 
     /**
-     * Create JSON string for target tracks
+     * Delete the HLS output directory of a job, when it has one of its own
      */
-    private String createTargetTracksJson(List<StreamTrack> tracks) {
-        StringBuilder json = new StringBuilder("{");
-        
-        for (int i = 0; i < tracks.size(); i++) {
-            StreamTrack track = tracks.get(i);
-            if (i > 0) json.append(",");
-            
-            json.append("\"").append(track.getTrackType().name().toLowerCase()).append("\":")
-                .append("{\"id\":").append(track.getId())
-                .append(",\"index\":").append(track.getTrackIndex())
-                .append(",\"codec\":\"").append(track.getCodecName()).append("\"}");
+    public void deleteHLSOutput(TranscodingJob job) throws IOException {
+        String playlist = job.getJobType() == TranscodingJob.JobType.TRANSCODE_HLS
+                ? job.getHlsPlaylistFile()
+                : job.getJobType() == TranscodingJob.JobType.SEGMENT ? job.getOutputFile() : null;
+        if (playlist == null) {
+            return;
+        }
+
+        // Directories shared by all jobs of a profile predate per-job output, and may hold a newer job's files
+        Path dir = Paths.get(playlist).getParent();
+        if (dir == null || !dir.getFileName().toString().equals(HLS_JOB_DIR_PREFIX + job.getId()) || !Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
         }
-        
-        json.append("}");
-        return json.toString();
     }
 
     /**
@@ -506,6 +1659,14 @@ public class FFmpegTranscodingService {
         public String getOutputFormat() { return outputFormat; }
         public boolean isForceReencode() { return forceReencode; }
 
+        /**
+         * Copy of this profile with another encoder preset
+         */
+        public TranscodingProfile withVideoPreset(String preset) {
+            return new TranscodingProfile(name, videoCodec, preset, videoCrf, maxWidth, audioCodec,
+                                          audioBitrate, maxAudioChannels, outputFormat, forceReencode);
+        }
+
         // Predefined profiles
         public static final TranscodingProfile WEBOS_COMPATIBLE = new TranscodingProfile(
                 "WebOS_Compatible", "libx264", "fast", 23, 1920, "aac", 128, 2, "mp4", false);
@@ -519,20 +1680,173 @@ public class FFmpegTranscodingService {
         private final int segmentDuration;
         private final String videoCodec;
         private final String audioCodec;
+        private final boolean adaptive;
 
         public HLSProfile(String name, int segmentDuration, String videoCodec, String audioCodec) {
+            this(name, segmentDuration, videoCodec, audioCodec, false);
+        }
+
+        public HLSProfile(String name, int segmentDuration, String videoCodec, String audioCodec, boolean adaptive) {
             this.name = name;
             this.segmentDuration = segmentDuration;
             this.videoCodec = videoCodec;
             this.audioCodec = audioCodec;
+            this.adaptive = adaptive;
         }
 
         public String getName() { return name; }
         public int getSegmentDuration() { return segmentDuration; }
         public String getVideoCodec() { return videoCodec; }
         public String getAudioCodec() { return audioCodec; }
+        public boolean isAdaptive() { return adaptive; }
 
         // Predefined HLS profiles
         public static final HLSProfile WEBOS_HLS = new HLSProfile("WebOS_HLS", 6, "libx264", "aac");
+
+        // Rendition ladder from jiptv.transcoding.abr-ladder with a master playlist
+        public static final HLSProfile WEBOS_ABR = new HLSProfile("WebOS_ABR", 6, "libx264", "aac", true);
+    }
+
+    /**
+     * One variant of an adaptive HLS ladder; a height of 0 means audio only
+     */
+    public static class HLSRendition {
+        public static final String DEFAULT_LADDER = "1080p:1080:5000:128,720p:720:2800:128,480p:480:1200:96,audio:0:0:96";
+
+        private final String name;
+        private final int height;
+        private final int videoBitrateKbps;
+        private final int audioBitrateKbps;
+
+        public HLSRendition(String name, int height, int videoBitrateKbps, int audioBitrateKbps) {
+            this.name = name;
+            this.height = height;
+            this.videoBitrateKbps = videoBitrateKbps;
+            this.audioBitrateKbps = audioBitrateKbps;
+        }
+
+        public String getName() { return name; }
+        public int getHeight() { return height; }
+        public int getVideoBitrateKbps() { return videoBitrateKbps; }
+        public int getAudioBitrateKbps() { return audioBitrateKbps; }
+        public boolean isAudioOnly() { return height <= 0; }
+
+        /**
+         * Configured bitrate in bits/s, used when the encoded segments cannot be measured
+         */
+        public long getNominalBandwidth() {
+            return (long) (isAudioOnly() ? audioBitrateKbps : videoBitrateKbps * 1.07 + audioBitrateKbps) * 1000;
+        }
+
+        /**
+         * Parse a ladder like {@code 1080p:1080:5000:128,audio:0:0:96} (name:height:videoKbps:audioKbps)
+         */
+        public static List<HLSRendition> parseLadder(String spec) {
+            List<HLSRendition> ladder = new ArrayList<>();
+            for (String entry : spec.split(",")) {
+                if (entry.isBlank()) {
+                    continue;
+                }
+                String[] parts = entry.trim().split(":");
+                if (parts.length != 4 || !parts[0].matches("[A-Za-z0-9_-]+")) {
+                    throw new IllegalArgumentException("Invalid ABR ladder entry: " + entry);
+                }
+                ladder.add(new HLSRendition(parts[0], Integer.parseInt(parts[1]),
+                        Integer.parseInt(parts[2]), Integer.parseInt(parts[3])));
+            }
+            if (ladder.isEmpty()) {
+                throw new IllegalArgumentException("ABR ladder is empty");
+            }
+            return ladder;
+        }
+    }
+
+    /**
+     * CPU time of an FFmpeg process, sampled while it runs since it can no longer be read once it exits
+     */
+    private static class CpuSampler {
+        private final Process process;
+        private Duration total = Duration.ZERO;
+        private long lastSample;
+
+        CpuSampler(Process process) {
+            this.process = process;
+        }
+
+        void sample() {
+            long now = System.currentTimeMillis();
+            if (now - lastSample > CPU_SAMPLE_INTERVAL_MS) {
+                total = process.info().totalCpuDuration().orElse(total);
+                lastSample = now;
+            }
+        }
+
+        Duration getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * One FFmpeg invocation of a chunked job; index -1 is the audio track
+     */
+    private static class ChunkTask {
+        private final int index;
+        private final List<String> command;
+        private final Path output;
+        private final double durationSeconds;
+
+        ChunkTask(int index, List<String> command, Path output, double durationSeconds) {
+            this.index = index;
+            this.command = command;
+            this.output = output;
+            this.durationSeconds = durationSeconds;
+        }
+
+        String describe() {
+            return index < 0 ? "Audio track" : "Chunk " + (index + 1);
+        }
+    }
+
+    /**
+     * Encoded seconds per chunk of a chunked job
+     */
+    private static class ChunkProgress {
+        private final double[] encodedSeconds;
+        private final double totalSeconds;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long lastReportedAt;
+
+        ChunkProgress(int chunks, double totalSeconds) {
+            this.encodedSeconds = new double[chunks];
+            this.totalSeconds = totalSeconds;
+        }
+
+        synchronized void update(int chunk, double seconds) {
+            encodedSeconds[chunk] = Math.max(encodedSeconds[chunk], seconds);
+        }
+
+        synchronized double getEncodedSeconds() {
+            double sum = 0;
+            for (double seconds : encodedSeconds) {
+                sum += seconds;
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Work executed on the reserved worker slot of a job
+     */
+    @FunctionalInterface
+    private interface JobExecution {
+        void execute() throws Exception;
+    }
+
+    /**
+     * Extra step run after FFmpeg exited successfully, before the job is marked completed
+     */
+    @FunctionalInterface
+    private interface OutputFinalizer {
+        void finish(TranscodingJob job) throws IOException;
     }
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+package nl.mallepetrus.jiptv.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Serves large media files with HTTP range support.
+ *
+ * Handles conditional requests (304 and 412), {@code Range} (single and multiple ranges), {@code If-Range}
+ * against the file's ETag or Last-Modified date, 206 and 416 responses. A whole file or a single range
+ * is handed to the connector as a sendfile region when it supports that (Tomcat NIO), so the bytes go
+ * from the page cache to the socket without passing through the JVM. Otherwise, and for
+ * multipart/byteranges, the file is copied with {@link FileChannel#transferTo}.
+ */
+@Service
+public class FileDeliveryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDeliveryService.class);
+
+    // Request attributes of the Tomcat sendfile contract (org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${jiptv.delivery.sendfile-enabled:true}")
+    private boolean sendfileEnabled;
+
+    @Value("${jiptv.delivery.max-ranges:16}")
+    private int maxRanges;
+
+    /**
+     * Write the file, or the requested ranges of it, to the response with the given headers
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, Path file,
+                      String contentType, String cacheControl) throws IOException {
+        serve(request, response, file, contentType, cacheControl, null, -1);
+    }
+
+    /**
+     * Same, validated by a content hash and date stored with the file instead of its size and
+     * modification time. Either may be null or -1 to fall back to the file's own.
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, Path file,
+                      String contentType, String cacheControl, String contentHash, long lastModified) throws IOException {
+        long length = Files.size(file);
+        if (lastModified < 0) {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+        }
+        String etag = contentHash != null ? "\"" + contentHash + "\"" : etag(length, lastModified);
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+
+        // If-None-Match / If-Modified-Since (304) and If-Match / If-Unmodified-Since (412)
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+        List<HttpRange> ranges = requestedRanges(request, etag, lastModified);
+        if (ranges == null) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!head) {
+                writeRegion(request, response, file, 0, length);
+            }
+            return;
+        }
+
+        long[][] regions = new long[ranges.size()][];
+        for (int i = 0; i < ranges.size(); i++) {
+            HttpRange range = ranges.get(i);
+            long start = -1;
+            long end = -1;
+            try {
+                start = range.getRangeStart(length);
+                end = range.getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                // Reported below
+            }
+            if (start < 0 || start >= length || end < start) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            regions[i] = new long[] {start, end};
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (regions.length == 1) {
+            long start = regions[0][0];
+            long end = regions[0][1];
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            response.setContentLengthLong(end - start + 1);
+            if (!head) {
+                writeRegion(request, response, file, start, end - start + 1);
+            }
+            return;
+        }
+
+        writeMultipart(response, file, contentType, length, regions, head);
+    }
+
+    /**
+     * Ranges to send: empty for the whole file, null when the Range header cannot be satisfied
+     */
+    private List<HttpRange> requestedRanges(HttpServletRequest request, String etag, long lastModified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return List.of();
+        }
+
+        // A stale If-Range means the client's partial copy is outdated, it gets the whole file
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                return List.of();
+            }
+            long ifRangeDate;
+            try {
+                ifRangeDate = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (RuntimeException e) {
+                return List.of();
+            }
+            if (ifRangeDate / 1000 != lastModified / 1000) {
+                return List.of();
+            }
+        }
+
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() > maxRanges ? null : ranges;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void writeRegion(HttpServletRequest request, HttpServletResponse response, Path file,
+                             long start, long count) throws IOException {
+        if (sendfileEnabled && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            // The connector writes the region after the request returns, straight from the file
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toRealPath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + count);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            transfer(channel, start, count, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    private void writeMultipart(HttpServletResponse response, Path file, String contentType, long length,
+                                long[][] regions, boolean head) throws IOException {
+        String boundary = UUID.randomUUID().toString();
+        byte[][] partHeaders = new byte[regions.length][];
+        long contentLength = 0;
+        for (int i = 0; i < regions.length; i++) {
+            partHeaders[i] = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + regions[i][0] + "-" + regions[i][1] + "/" + length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeaders[i].length + regions[i][1] - regions[i][0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < regions.length; i++) {
+                out.write(partHeaders[i]);
+                transfer(channel, regions[i][0], regions[i][1] - regions[i][0] + 1, target);
+            }
+        }
+        out.write(closing);
+    }
+
+    private void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                logger.debug("File shorter than expected while sending range, stopping at {}", position);
+                return;
+            }
+            position += sent;
+        }
+    }
+
+    private static String etag(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+}
@@ -0,0 +1,511 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.StreamSource;
+import nl.mallepetrus.jiptv.entity.StreamTrack;
+import nl.mallepetrus.jiptv.repository.StreamSourceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk import of a media library from a directory tree or an M3U playlist.
+ *
+ * Discovered sources flow through discover -> fingerprint -> FFprobe -> insert. Discovery is lazy and
+ * every source needs a slot on the ingest worker pool before it is processed, so at most
+ * {@code jiptv.ingest.max-parallel} sources are hashed or probed at the same time. Unreadable files
+ * and directories are skipped.
+ */
+@Service
+public class LibraryIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LibraryIngestionService.class);
+
+    private static final Pattern EXTINF = Pattern.compile("#EXTINF:\\s*(-?[0-9.]+)([^,]*),(.*)");
+    private static final Pattern TVG_NAME = Pattern.compile("tvg-name=\"([^\"]*)\"");
+    private static final int MAX_RECENT_ERRORS = 20;
+    private static final int MAX_IMPORTS_KEPT = 50;
+
+    private final StreamSourceRepository streamSourceRepository;
+    private final StreamManagementService streamManagementService;
+    private final FFmpegService ffmpegService;
+    private final MediaFingerprintService fingerprintService;
+    private final BoundedWorkerPool ingestPool;
+    private final TaskExecutor taskExecutor;
+
+    private final Map<String, ImportProgress> imports = new ConcurrentHashMap<>();
+
+    @Value("${jiptv.ingest.media-extensions:mkv,mp4,m4v,avi,mov,ts,m2ts,webm,wmv,mpg,mpeg,flv}")
+    private Set<String> mediaExtensions;
+
+    @Value("${jiptv.ingest.playlist-timeout-seconds:30}")
+    private int playlistTimeoutSeconds;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    @Autowired
+    public LibraryIngestionService(StreamSourceRepository streamSourceRepository,
+                                   StreamManagementService streamManagementService,
+                                   FFmpegService ffmpegService,
+                                   MediaFingerprintService fingerprintService,
+                                   @Qualifier("ingestWorkerPool") BoundedWorkerPool ingestPool,
+                                   @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor) {
+        this.streamSourceRepository = streamSourceRepository;
+        this.streamManagementService = streamManagementService;
+        this.ffmpegService = ffmpegService;
+        this.fingerprintService = fingerprintService;
+        this.ingestPool = ingestPool;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Start importing a directory, a local M3U file or an M3U URL in the background
+     */
+    public ImportProgress startImport(String source, boolean analyze) {
+        if (!isPlaylist(source) && !Files.isDirectory(Paths.get(source))) {
+            throw new IllegalArgumentException("Import source must be a directory or an M3U playlist: " + source);
+        }
+
+        ImportProgress progress = new ImportProgress(UUID.randomUUID().toString(), source, analyze);
+        imports.put(progress.getId(), progress);
+        pruneFinishedImports();
+
+        taskExecutor.execute(() -> runImport(progress));
+        logger.info("Started library import {} from {}", progress.getId(), source);
+        return progress;
+    }
+
+    public Optional<ImportProgress> getImport(String importId) {
+        return Optional.ofNullable(imports.get(importId));
+    }
+
+    public List<ImportProgress> getImports() {
+        return imports.values().stream()
+                .sorted(Comparator.comparing(ImportProgress::getStartedAt).reversed())
+                .toList();
+    }
+
+    /**
+     * Stop handing out new sources; sources already being processed finish normally
+     */
+    public boolean cancelImport(String importId) {
+        ImportProgress progress = imports.get(importId);
+        if (progress == null || progress.isFinished()) {
+            return false;
+        }
+        progress.cancel();
+        return true;
+    }
+
+    private void runImport(ImportProgress progress) {
+        progress.attach(Thread.currentThread());
+        try {
+            // Known sources are loaded once instead of queried per file
+            Set<String> knownUrls = ConcurrentHashMap.newKeySet();
+            knownUrls.addAll(streamSourceRepository.findAllSourceUrls());
+            Set<String> knownHashes = ConcurrentHashMap.newKeySet();
+            knownHashes.addAll(streamSourceRepository.findAllFileHashes());
+
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+            discover(progress, candidate -> {
+                if (progress.cancelled) {
+                    return false;
+                }
+                progress.discovered.incrementAndGet();
+
+                if (!knownUrls.add(candidate.url)) {
+                    progress.skipped.incrementAndGet();
+                    return true;
+                }
+
+                // Back-pressure: wait for a free ingest slot before taking the next source
+                try {
+                    ingestPool.reserveSlot();
+                } catch (InterruptedException e) {
+                    // Interrupted by cancelImport
+                    return false;
+                }
+
+                pending.add(ingestPool.runReserved("import-" + progress.getId().substring(0, 8),
+                        () -> ingest(progress, candidate, knownHashes)));
+                pending.removeIf(CompletableFuture::isDone);
+                return true;
+            });
+
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).handle((ignored, error) -> null).join();
+            progress.finish(progress.cancelled ? ImportStatus.CANCELLED : ImportStatus.COMPLETED, null);
+
+        } catch (Exception e) {
+            logger.error("Library import {} failed", progress.getId(), e);
+            progress.finish(progress.cancelled ? ImportStatus.CANCELLED : ImportStatus.FAILED, e.getMessage());
+        } finally {
+            progress.detach();
+        }
+
+        logger.info("Library import {} {}: {} discovered, {} imported, {} duplicates, {} skipped, {} failed in {} s ({} sources/s)",
+                   progress.getId(), progress.getStatus(), progress.getDiscovered(), progress.getImported(),
+                   progress.getDuplicates(), progress.getSkipped(), progress.getFailed(),
+                   progress.getElapsedSeconds(), String.format(Locale.ROOT, "%.1f", progress.getThroughputPerSecond()));
+    }
+
+    /**
+     * Fingerprint, probe and store one discovered source
+     */
+    private void ingest(ImportProgress progress, DiscoveredSource candidate, Set<String> knownHashes) {
+        try {
+            StreamSource streamSource = new StreamSource(candidate.name, candidate.sourceType, candidate.url);
+
+            String hash = null;
+            if (candidate.sourceType == StreamSource.SourceType.FILE) {
+                Path path = Paths.get(candidate.url);
+                streamSource.setFileModifiedAt(fingerprintService.lastModified(path));
+                hash = fingerprintService.fingerprint(path);
+                if (!knownHashes.add(hash)) {
+                    progress.duplicates.incrementAndGet();
+                    return;
+                }
+                streamSource.setFileHash(hash);
+            }
+
+            List<StreamTrack> tracks = List.of();
+            if (progress.isAnalyze()) {
+                try {
+                    // Analysis reuses the fingerprint instead of reading the file again
+                    FFmpegService.StreamAnalysisResult result = ffmpegService.analyzeStream(streamSource, hash);
+                    tracks = result.getTracks();
+                    streamSource.setAnalyzedAt(LocalDateTime.now());
+                } catch (RuntimeException e) {
+                    // Keep the source, it shows up in the sources needing analysis
+                    progress.analysisFailed.incrementAndGet();
+                    progress.recordError(candidate.url, e.getMessage());
+                }
+            }
+
+            streamManagementService.saveImportedSource(streamSource, tracks);
+            progress.imported.incrementAndGet();
+
+        } catch (Exception e) {
+            logger.warn("Failed to import {}: {}", candidate.url, e.getMessage());
+            progress.failed.incrementAndGet();
+            progress.recordError(candidate.url, e.getMessage());
+        }
+    }
+
+    /**
+     * Hand the sources of an import to a consumer one at a time, until it returns false
+     */
+    private void discover(ImportProgress progress, Predicate<DiscoveredSource> consumer)
+            throws IOException, InterruptedException {
+        String source = progress.getSource();
+        if (isPlaylist(source)) {
+            for (DiscoveredSource entry : parsePlaylist(source)) {
+                if (!consumer.test(entry)) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        Files.walkFileTree(Paths.get(source), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!Files.isRegularFile(file) || !isMediaFile(file)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                DiscoveredSource candidate = new DiscoveredSource(titleFromFileName(file), StreamSource.SourceType.FILE,
+                                                                  file.toAbsolutePath().toString());
+                return consumer.test(candidate) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.warn("Library import {} skips unreadable {}: {}", progress.getId(), file, e.getMessage());
+                progress.recordError(file.toString(), "Unreadable: " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Parse an extended M3U playlist. Entries with a duration of -1 are live channels.
+     */
+    private List<DiscoveredSource> parsePlaylist(String source) throws IOException, InterruptedException {
+        boolean remote = source.startsWith("http://") || source.startsWith("https://");
+        Path playlistDir = remote ? null : Paths.get(source).toAbsolutePath().getParent();
+
+        List<DiscoveredSource> entries = new ArrayList<>();
+        try (InputStream input = remote ? openRemotePlaylist(source) : Files.newInputStream(Paths.get(source));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+
+            String title = null;
+            boolean live = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                Matcher extinf = EXTINF.matcher(line);
+                if (extinf.matches()) {
+                    live = extinf.group(1).startsWith("-");
+                    Matcher tvgName = TVG_NAME.matcher(extinf.group(2));
+                    title = !extinf.group(3).isBlank() ? extinf.group(3).trim()
+                            : tvgName.find() ? tvgName.group(1) : null;
+                    continue;
+                }
+                if (line.startsWith("#")) {
+                    continue;
+                }
+
+                boolean url = line.contains("://");
+                String location = url || playlistDir == null ? line : playlistDir.resolve(line).normalize().toString();
+                StreamSource.SourceType sourceType = !url ? StreamSource.SourceType.FILE
+                        : live ? StreamSource.SourceType.IPTV_CHANNEL : StreamSource.SourceType.URL;
+                String name = title != null && !title.isBlank() ? title : titleFromLocation(line);
+
+                entries.add(new DiscoveredSource(name, sourceType, location));
+                title = null;
+                live = false;
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Download a playlist with a connect timeout and a limit on the whole download, so a stalled server
+     * cannot hang the import
+     */
+    private InputStream openRemotePlaylist(String source) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(source))
+                .timeout(Duration.ofSeconds(playlistTimeoutSeconds))
+                .GET()
+                .build();
+        CompletableFuture<HttpResponse<byte[]>> download = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> response;
+        try {
+            response = download.get(playlistTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            download.cancel(true);
+            throw new IOException("Playlist download timed out after " + playlistTimeoutSeconds + " seconds: " + source);
+        } catch (ExecutionException e) {
+            throw new IOException("Playlist download failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            download.cancel(true);
+            throw e;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Playlist download failed with HTTP " + response.statusCode() + ": " + source);
+        }
+        return new ByteArrayInputStream(response.body());
+    }
+
+    private boolean isPlaylist(String source) {
+        String lower = source.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".m3u") || lower.endsWith(".m3u8")
+                || ((lower.startsWith("http://") || lower.startsWith("https://")) && lower.contains(".m3u"));
+    }
+
+    private boolean isMediaFile(Path path) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 && mediaExtensions.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String titleFromLocation(String location) {
+        String trimmed = location.endsWith("/") ? location.substring(0, location.length() - 1) : location;
+        String title = titleFromFileName(Paths.get(trimmed.substring(trimmed.lastIndexOf('/') + 1)));
+        return title.isBlank() ? location : title;
+    }
+
+    private static String titleFromFileName(Path path) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String title = (dot > 0 ? fileName.substring(0, dot) : fileName).replace('_', ' ').replace('.', ' ').trim();
+        return title.length() > 255 ? title.substring(0, 255) : title;
+    }
+
+    private void pruneFinishedImports() {
+        if (imports.size() <= MAX_IMPORTS_KEPT) {
+            return;
+        }
+        imports.values().stream()
+                .filter(ImportProgress::isFinished)
+                .sorted(Comparator.comparing(ImportProgress::getStartedAt))
+                .limit(imports.size() - MAX_IMPORTS_KEPT)
+                .map(ImportProgress::getId)
+                .collect(Collectors.toList())
+                .forEach(imports::remove);
+    }
+
+    private static class DiscoveredSource {
+        private final String name;
+        private final StreamSource.SourceType sourceType;
+        private final String url;
+
+        DiscoveredSource(String name, StreamSource.SourceType sourceType, String url) {
+            this.name = name;
+            this.sourceType = sourceType;
+            this.url = url;
+        }
+    }
+
+    public enum ImportStatus {
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    /**
+     * Live counters of a library import
+     */
+    public static class ImportProgress {
+        private final String id;
+        private final String source;
+        private final boolean analyze;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private final long startedNanos = System.nanoTime();
+        private volatile LocalDateTime finishedAt;
+        private volatile long finishedNanos;
+        private volatile ImportStatus status = ImportStatus.RUNNING;
+        private volatile String errorMessage;
+        private volatile boolean cancelled;
+        private Thread runner; // Thread running the import, guarded by this
+
+        private final AtomicInteger discovered = new AtomicInteger();
+        private final AtomicInteger imported = new AtomicInteger();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger analysisFailed = new AtomicInteger();
+        private final Deque<String> recentErrors = new ArrayDeque<>();
+
+        ImportProgress(String id, String source, boolean analyze) {
+            this.id = id;
+            this.source = source;
+            this.analyze = analyze;
+        }
+
+        void recordError(String url, String message) {
+            synchronized (recentErrors) {
+                recentErrors.addLast(url + ": " + message);
+                if (recentErrors.size() > MAX_RECENT_ERRORS) {
+                    recentErrors.removeFirst();
+                }
+            }
+        }
+
+        synchronized void attach(Thread thread) {
+            runner = thread;
+        }
+
+        /**
+         * Forget the import thread, clearing an interrupt from a cancel that came in late so it cannot
+         * hit the next task of the pooled thread
+         */
+        synchronized void detach() {
+            runner = null;
+            Thread.interrupted();
+        }
+
+        /**
+         * Stop discovery, waking the import thread if it waits for an ingest slot
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        void finish(ImportStatus status, String errorMessage) {
+            this.finishedNanos = System.nanoTime();
+            this.finishedAt = LocalDateTime.now();
+            this.errorMessage = errorMessage;
+            this.status = status;
+        }
+
+        public String getId() { return id; }
+        public String getSource() { return source; }
+        public boolean isAnalyze() { return analyze; }
+        public LocalDateTime getStartedAt() { return startedAt; }
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+        public ImportStatus getStatus() { return status; }
+        public String getErrorMessage() { return errorMessage; }
+        public boolean isFinished() { return status != ImportStatus.RUNNING; }
+        public int getDiscovered() { return discovered.get(); }
+        public int getImported() { return imported.get(); }
+        public int getDuplicates() { return duplicates.get(); }
+        public int getSkipped() { return skipped.get(); }
+        public int getFailed() { return failed.get(); }
+        public int getAnalysisFailed() { return analysisFailed.get(); }
+
+        public List<String> getRecentErrors() {
+            synchronized (recentErrors) {
+                return List.copyOf(recentErrors);
+            }
+        }
+
+        public long getElapsedSeconds() {
+            long end = isFinished() ? finishedNanos : System.nanoTime();
+            return Duration.ofNanos(end - startedNanos).toSeconds();
+        }
+
+        /**
+         * Sources taken through the pipeline per second
+         */
+        public double getThroughputPerSecond() {
+            long end = isFinished() ? finishedNanos : System.nanoTime();
+            double seconds = (end - startedNanos) / 1_000_000_000.0;
+            int processed = imported.get() + duplicates.get() + failed.get();
+            return seconds > 0 ? processed / seconds : 0;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.StreamSource;
+import nl.mallepetrus.jiptv.repository.StreamSourceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps analysis results fresh without re-probing the whole library.
+ *
+ * A scheduled sweep walks the active, analyzed sources in id order. Sources analyzed by an older
+ * {@link StreamSource#CURRENT_ANALYSIS_VERSION} are re-analyzed. Local files are compared on size and
+ * modification time first; only when those differ is the file fingerprinted, and only when the
+ * fingerprint differs too is it re-analyzed. Fingerprint reads are capped by a byte budget and queued
+ * re-analyses by a count per sweep; a sweep that runs out continues where it stopped next time.
+ */
+@Service
+public class LibraryRescanService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LibraryRescanService.class);
+
+    private static final int PAGE_SIZE = 500;
+
+    private final StreamSourceRepository streamSourceRepository;
+    private final StreamManagementService streamManagementService;
+    private final MediaFingerprintService fingerprintService;
+
+    @Value("${jiptv.reanalysis.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jiptv.reanalysis.max-read-bytes:2147483648}")
+    private long maxReadBytes;
+
+    @Value("${jiptv.reanalysis.max-jobs:200}")
+    private int maxJobs;
+
+    private final AtomicBoolean sweeping = new AtomicBoolean(false);
+
+    // Id of the last source checked, the next sweep starts after it
+    private volatile long cursor = 0;
+
+    @Autowired
+    public LibraryRescanService(StreamSourceRepository streamSourceRepository,
+                                StreamManagementService streamManagementService,
+                                MediaFingerprintService fingerprintService) {
+        this.streamSourceRepository = streamSourceRepository;
+        this.streamManagementService = streamManagementService;
+        this.fingerprintService = fingerprintService;
+    }
+
+    // Holds a scheduler thread for the whole sweep, the pool is sized (spring.task.scheduling.pool.size)
+    // so lease heartbeats keep running meanwhile
+    @Scheduled(cron = "${jiptv.reanalysis.cron:0 0 3 * * *}")
+    public void scheduledSweep() {
+        if (enabled) {
+            sweep();
+        }
+    }
+
+    /**
+     * Check sources until the library has been covered once or a budget runs out.
+     * Returns null when a sweep is already in progress.
+     */
+    public SweepResult sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return null;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        SweepResult result = new SweepResult();
+        long startId = cursor;
+        long position = startId;
+        boolean wrapped = false;
+
+        try {
+            sweepLoop:
+            while (true) {
+                List<StreamSource> page = streamSourceRepository.findActiveAfterId(position, PageRequest.of(0, PAGE_SIZE));
+                if (page.isEmpty()) {
+                    if (wrapped || startId == 0) {
+                        position = 0;
+                        break;
+                    }
+                    wrapped = true;
+                    position = 0;
+                    continue;
+                }
+
+                for (StreamSource source : page) {
+                    if (wrapped && source.getId() > startId) {
+                        break sweepLoop;
+                    }
+                    if (!check(source, result)) {
+                        result.budgetExhausted = true;
+                        break sweepLoop;
+                    }
+                    position = source.getId();
+                }
+            }
+        } finally {
+            cursor = position;
+            sweeping.set(false);
+        }
+
+        logger.info("Re-analysis sweep checked {} sources in {} ms: {} unchanged, {} updated, {} queued, {} MB read{}",
+                   result.checked, System.currentTimeMillis() - startedAt, result.unchanged, result.updated,
+                   result.queued, result.bytesRead / (1024 * 1024),
+                   result.budgetExhausted ? ", budget exhausted" : "");
+        return result;
+    }
+
+    /**
+     * Check one source, returns false when it could not be checked within the remaining budget
+     */
+    private boolean check(StreamSource source, SweepResult result) {
+        if (!source.isAnalyzed()) {
+            return true;
+        }
+
+        if (!StreamSource.CURRENT_ANALYSIS_VERSION.equals(source.getAnalysisVersion())) {
+            return queue(source, "analysis version " + source.getAnalysisVersion(), result);
+        }
+
+        if (source.getSourceType() != StreamSource.SourceType.FILE) {
+            result.checked++;
+            result.unchanged++;
+            return true;
+        }
+
+        Path path = Paths.get(source.getSourceUrl());
+        if (!Files.isRegularFile(path)) {
+            logger.debug("Skipping re-analysis check of missing file: {}", path);
+            result.checked++;
+            return true;
+        }
+
+        try {
+            long size = Files.size(path);
+            LocalDateTime modifiedAt = fingerprintService.lastModified(path);
+            if (Objects.equals(source.getFileSize(), size) && modifiedAt.equals(source.getFileModifiedAt())) {
+                result.checked++;
+                result.unchanged++;
+                return true;
+            }
+
+            long readCost = fingerprintService.bytesToRead(size);
+            if (result.bytesRead + readCost > maxReadBytes && result.bytesRead > 0) {
+                return false;
+            }
+            if (result.queued >= maxJobs) {
+                return false;
+            }
+
+            String hash = fingerprintService.fingerprint(path);
+            result.bytesRead += readCost;
+
+            if (hash.equals(source.getFileHash())) {
+                // Touched or copied, content is the same
+                streamManagementService.recordFileState(source.getId(), size, hash, modifiedAt);
+                result.checked++;
+                result.updated++;
+                return true;
+            }
+            return queue(source, "file changed", result);
+
+        } catch (IOException e) {
+            logger.warn("Could not check {} for changes: {}", path, e.getMessage());
+            result.checked++;
+            return true;
+        }
+    }
+
+    private boolean queue(StreamSource source, String reason, SweepResult result) {
+        if (result.queued >= maxJobs) {
+            return false;
+        }
+
+        if (streamManagementService.requestReanalysis(source.getId())) {
+            logger.debug("Queued re-analysis of {} ({})", source.getName(), reason);
+            result.queued++;
+        }
+        result.checked++;
+        return true;
+    }
+
+    /**
+     * Counters of one sweep
+     */
+    public static class SweepResult {
+        private int checked;
+        private int unchanged;
+        private int updated;
+        private int queued;
+        private long bytesRead;
+        private boolean budgetExhausted;
+
+        public int getChecked() { return checked; }
+        public int getUnchanged() { return unchanged; }
+        public int getUpdated() { return updated; }
+        public int getQueued() { return queued; }
+        public long getBytesRead() { return bytesRead; }
+        public boolean isBudgetExhausted() { return budgetExhausted; }
+    }
+}
@@ -0,0 +1,149 @@
+package nl.mallepetrus.jiptv.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+
+/**
+ * Content hashes of media files, used to detect the same file being added twice.
+ *
+ * FULL hashes the whole file with SHA-256. SAMPLED hashes the file size, the head, the tail and a
+ * number of evenly spaced blocks, which reads a few MB regardless of file size. Files small enough
+ * to be covered by the samples are hashed in full in both modes. Hashes of the two modes are not
+ * comparable, so switching modes only affects duplicate detection for sources hashed afterwards.
+ */
+@Service
+public class MediaFingerprintService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaFingerprintService.class);
+
+    private static final int READ_BUFFER_BYTES = 1024 * 1024;
+
+    public enum HashMode {
+        FULL,
+        SAMPLED
+    }
+
+    @Value("${jiptv.ingest.hash-mode:SAMPLED}")
+    private HashMode hashMode;
+
+    @Value("${jiptv.ingest.sample-blocks:16}")
+    private int sampleBlocks;
+
+    @Value("${jiptv.ingest.sample-block-bytes:1048576}")
+    private int sampleBlockBytes;
+
+    // Reused direct buffer per thread, so hashing never allocates per file
+    private final ThreadLocal<ByteBuffer> readBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_BYTES));
+
+    /**
+     * Fingerprint of a file in the configured mode, as 64 hex characters
+     */
+    public String fingerprint(Path path) throws IOException {
+        return fingerprint(path, hashMode);
+    }
+
+    public String fingerprint(Path path, HashMode mode) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("File not found: " + path);
+        }
+
+        long startedAt = System.currentTimeMillis();
+        MessageDigest digest = newDigest();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long sampledBytes = (long) (sampleBlocks + 2) * sampleBlockBytes;
+
+            if (mode == HashMode.FULL || size <= sampledBytes) {
+                hashRange(channel, 0, size, digest);
+            } else {
+                hashSamples(channel, size, digest);
+            }
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        logger.debug("{} fingerprint of {} took {} ms", mode, path, System.currentTimeMillis() - startedAt);
+        return hash;
+    }
+
+    /**
+     * Bytes {@link #fingerprint(Path)} reads for a file of the given size in the configured mode
+     */
+    public long bytesToRead(long size) {
+        long sampledBytes = (long) (sampleBlocks + 2) * sampleBlockBytes;
+        return hashMode == HashMode.FULL ? size : Math.min(size, sampledBytes);
+    }
+
+    /**
+     * Modification time of a file, truncated to what a database timestamp keeps so stored values compare equal
+     */
+    public LocalDateTime lastModified(Path path) throws IOException {
+        return LocalDateTime.ofInstant(Files.getLastModifiedTime(path).toInstant(), ZoneId.systemDefault())
+                .truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    /**
+     * Size, head, {@code sampleBlocks} blocks spread evenly over the middle, and tail
+     */
+    private void hashSamples(FileChannel channel, long size, MessageDigest digest) throws IOException {
+        ByteBuffer sizeBytes = ByteBuffer.allocate(Long.BYTES).putLong(size);
+        digest.update(sizeBytes.flip());
+
+        hashRange(channel, 0, sampleBlockBytes, digest);
+
+        long middleStart = sampleBlockBytes;
+        long stride = (size - 2L * sampleBlockBytes) / (sampleBlocks + 1);
+        for (int i = 1; i <= sampleBlocks; i++) {
+            hashRange(channel, middleStart + i * stride - sampleBlockBytes / 2, sampleBlockBytes, digest);
+        }
+
+        hashRange(channel, size - sampleBlockBytes, sampleBlockBytes, digest);
+    }
+
+    /**
+     * Feed a byte range of the file to the digest through the reusable direct buffer
+     */
+    private void hashRange(FileChannel channel, long position, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = readBuffer.get();
+        long end = position + length;
+
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            position += read;
+            digest.update(buffer.flip());
+        }
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public HashMode getHashMode() {
+        return hashMode;
+    }
+}
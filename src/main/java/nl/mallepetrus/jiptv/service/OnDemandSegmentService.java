@@ -0,0 +1,458 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Lazy HLS: segments of a title are encoded from the source the first time a player requests them,
+ * together with a few segments ahead, and kept in a size-bounded LRU disk cache.
+ *
+ * Segments have a fixed duration derived from the analyzed stream duration, so the playlist can be
+ * generated without touching the source. Every segment is re-encoded and starts with a keyframe, and
+ * its timestamps are offset to its position in the title so consecutive segments play back seamlessly.
+ */
+@Service
+public class OnDemandSegmentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OnDemandSegmentService.class);
+
+    private final BoundedWorkerPool segmentPool;
+    private final EncoderCapabilityService capabilityService;
+
+    // Segments being encoded, so concurrent requests and prefetches share one FFmpeg run
+    private final Map<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    // Segments whose encode failed, with the time (millis) until which they are not tried again
+    private final Map<Path, Long> failedUntil = new ConcurrentHashMap<>();
+
+    // Cached segment files in access order, with their size in bytes
+    private final LinkedHashMap<Path, Long> cacheIndex = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes = 0;
+    private boolean cacheIndexLoaded = false;
+
+    @Value("${jiptv.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${jiptv.transcoding.on-demand.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jiptv.transcoding.on-demand.segment-seconds:6}")
+    private int segmentSeconds;
+
+    @Value("${jiptv.transcoding.on-demand.cache-dir:./transcoded/on-demand}")
+    private String cacheDirectory;
+
+    @Value("${jiptv.transcoding.on-demand.cache-max-bytes:10737418240}")
+    private long cacheMaxBytes;
+
+    @Value("${jiptv.transcoding.on-demand.prefetch-segments:3}")
+    private int prefetchSegments;
+
+    @Value("${jiptv.transcoding.on-demand.request-timeout-seconds:60}")
+    private int requestTimeoutSeconds;
+
+    @Value("${jiptv.transcoding.on-demand.reserve-timeout-ms:2000}")
+    private long reserveTimeoutMillis;
+
+    @Value("${jiptv.transcoding.on-demand.failure-backoff-seconds:30}")
+    private int failureBackoffSeconds;
+
+    @Autowired
+    public OnDemandSegmentService(@Qualifier("segmentWorkerPool") BoundedWorkerPool segmentPool,
+                                  EncoderCapabilityService capabilityService) {
+        this.segmentPool = segmentPool;
+        this.capabilityService = capabilityService;
+    }
+
+    /**
+     * Whether a stream can be played through lazily encoded segments: on-demand mode is enabled and
+     * the stream is a finite source with an analyzed duration
+     */
+    public boolean isAvailable(StreamSource streamSource) {
+        return enabled
+                && streamSource.getSourceType() != StreamSource.SourceType.IPTV_CHANNEL
+                && streamSource.getDurationSeconds() != null
+                && streamSource.getDurationSeconds() > 0;
+    }
+
+    public int getSegmentCount(StreamSource streamSource) {
+        return (streamSource.getDurationSeconds() + segmentSeconds - 1) / segmentSeconds;
+    }
+
+    /**
+     * VOD playlist listing every segment of the title; nothing is encoded until a segment is requested
+     */
+    public String buildPlaylist(StreamSource streamSource) {
+        int duration = streamSource.getDurationSeconds();
+        int segmentCount = getSegmentCount(streamSource);
+
+        StringBuilder playlist = new StringBuilder();
+        playlist.append("#EXTM3U\n");
+        playlist.append("#EXT-X-VERSION:3\n");
+        playlist.append("#EXT-X-TARGETDURATION:").append(segmentSeconds).append("\n");
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        playlist.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        playlist.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+
+        for (int i = 0; i < segmentCount; i++) {
+            int length = Math.min(segmentSeconds, duration - i * segmentSeconds);
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", (double) length));
+            playlist.append(segmentFileName(i)).append("\n");
+        }
+
+        playlist.append("#EXT-X-ENDLIST\n");
+        return playlist.toString();
+    }
+
+    /**
+     * Get a segment from the cache, encoding it if needed, and start encoding the next few segments.
+     * Does not wait for the encode, the returned future completes when the segment is on disk.
+     *
+     * @throws RejectedExecutionException when no encoder slot became free in time, the request may be retried
+     * @throws RuntimeException when encoding failed recently, or the future fails when this encode fails
+     */
+    public CompletableFuture<Path> getSegment(StreamSource streamSource, int index) {
+        if (index < 0 || index >= getSegmentCount(streamSource)) {
+            throw new IllegalArgumentException("Segment " + index + " is out of range for stream " + streamSource.getId());
+        }
+        ensureCacheIndexLoaded();
+
+        Path segmentPath = segmentPath(streamSource, index);
+        try {
+            if (Files.exists(segmentPath) && !inFlight.containsKey(segmentPath)) {
+                touch(segmentPath);
+                return CompletableFuture.completedFuture(segmentPath);
+            }
+
+            CompletableFuture<Path> pending = inFlight.get(segmentPath);
+            if (pending == null) {
+                if (failedRecently(segmentPath)) {
+                    throw new RuntimeException("Encoding segment " + index + " failed less than "
+                                               + failureBackoffSeconds + " seconds ago");
+                }
+                // Requested segments wait briefly for a slot, prefetches only use idle ones
+                if (!segmentPool.reserveSlot(reserveTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException("No segment encoder available for stream " + streamSource.getId());
+                }
+                pending = startEncode(streamSource, index, segmentPath);
+            }
+
+            // A copy, so a timed out request does not fail the encode other requests share
+            return pending.copy()
+                    .orTimeout(requestTimeoutSeconds, TimeUnit.SECONDS)
+                    .exceptionallyCompose(error -> CompletableFuture.failedFuture(segmentFailure(index, error)));
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a segment encoder", e);
+        } finally {
+            prefetch(streamSource, index);
+        }
+    }
+
+    private RuntimeException segmentFailure(int index, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return new RuntimeException("Encoding segment " + index + " timed out after " + requestTimeoutSeconds + " seconds");
+        }
+        return new RuntimeException("Encoding segment " + index + " failed: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Encode the segments following the requested one on idle encoder slots
+     */
+    private void prefetch(StreamSource streamSource, int index) {
+        int last = Math.min(index + prefetchSegments, getSegmentCount(streamSource) - 1);
+        for (int next = index + 1; next <= last; next++) {
+            Path segmentPath = segmentPath(streamSource, next);
+            if (Files.exists(segmentPath) || inFlight.containsKey(segmentPath) || failedRecently(segmentPath)) {
+                continue;
+            }
+            if (!segmentPool.tryReserveSlot()) {
+                return;
+            }
+            startEncode(streamSource, next, segmentPath);
+        }
+    }
+
+    /**
+     * Start encoding a segment on a reserved slot, or join an encode of the same segment already running
+     */
+    private CompletableFuture<Path> startEncode(StreamSource streamSource, int index, Path segmentPath) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(segmentPath, created);
+        if (existing != null) {
+            segmentPool.cancelReservation();
+            return existing;
+        }
+
+        segmentPool.runReserved("stream-" + streamSource.getId() + "-segment-" + index, () -> {
+            try {
+                encodeSegment(streamSource, index, segmentPath);
+                failedUntil.remove(segmentPath);
+                created.complete(segmentPath);
+            } catch (Exception e) {
+                logger.warn("Encoding segment {} of stream {} failed: {}", index, streamSource.getId(), e.getMessage());
+                failedUntil.put(segmentPath, System.currentTimeMillis() + failureBackoffSeconds * 1000L);
+                created.completeExceptionally(e);
+            } finally {
+                inFlight.remove(segmentPath, created);
+            }
+        }).whenComplete((ignored, error) -> {
+            if (error != null) {
+                inFlight.remove(segmentPath, created);
+                created.completeExceptionally(error);
+            }
+        });
+
+        return created;
+    }
+
+    private boolean failedRecently(Path segmentPath) {
+        Long until = failedUntil.get(segmentPath);
+        if (until == null) {
+            return false;
+        }
+        if (until > System.currentTimeMillis()) {
+            return true;
+        }
+        failedUntil.remove(segmentPath, until);
+        return false;
+    }
+
+    private void encodeSegment(StreamSource streamSource, int index, Path segmentPath)
+            throws IOException, InterruptedException {
+        Files.createDirectories(segmentPath.getParent());
+        Path tempPath = segmentPath.resolveSibling(segmentPath.getFileName() + ".tmp");
+
+        double start = (double) index * segmentSeconds;
+        List<String> command = buildSegmentCommand(streamSource.getSourceUrl(), start, tempPath);
+
+        long startedAt = System.currentTimeMillis();
+        // Nothing is written to stdout; stderr is drained on its own thread so the timeout applies to the process
+        Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        FFmpegService.StderrTail stderr = FFmpegService.StderrTail.capture(process, "segment-stderr");
+        try {
+            if (!process.waitFor(requestTimeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                Files.deleteIfExists(tempPath);
+                throw new RuntimeException("FFmpeg did not finish within " + requestTimeoutSeconds + " seconds");
+            }
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+
+        if (process.exitValue() != 0 || !Files.exists(tempPath)) {
+            Files.deleteIfExists(tempPath);
+            throw new RuntimeException("FFmpeg exited with code " + process.exitValue() + ": " + stderr.get().trim());
+        }
+
+        Files.move(tempPath, segmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Encoded segment {} of stream {} in {} ms", index, streamSource.getId(),
+                    System.currentTimeMillis() - startedAt);
+
+        addToCache(segmentPath, Files.size(segmentPath));
+    }
+
+    private List<String> buildSegmentCommand(String sourceUrl, double start, Path output) {
+        String startTime = String.format(Locale.ROOT, "%.3f", start);
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-nostdin");
+        command.add("-loglevel");
+        command.add("error");
+
+        // Input seeking is frame accurate when re-encoding
+        if (start > 0) {
+            command.add("-ss");
+            command.add(startTime);
+        }
+        command.add("-i");
+        command.add(sourceUrl);
+        command.add("-t");
+        command.add(String.valueOf(segmentSeconds));
+        command.add("-map");
+        command.add("0:v:0");
+        command.add("-map");
+        command.add("0:a:0?");
+
+        // Same WebOS-safe settings as the pre-encoded HLS profile, tuned for low latency
+        command.add("-c:v");
+        command.add("libx264");
+        command.add("-preset");
+        command.add(capabilityService.selectPreset("libx264", "veryfast"));
+        command.add("-crf");
+        command.add("23");
+        command.add("-pix_fmt");
+        command.add("yuv420p");
+        command.add("-c:a");
+        command.add("aac");
+        command.add("-b:a");
+        command.add("128k");
+        command.add("-ac");
+        command.add("2");
+
+        // Place the segment at its position in the title
+        command.add("-output_ts_offset");
+        command.add(startTime);
+        command.add("-muxdelay");
+        command.add("0");
+
+        command.add("-f");
+        command.add("mpegts");
+        command.add("-y");
+        command.add(output.toString());
+        return command;
+    }
+
+    private Path segmentPath(StreamSource streamSource, int index) {
+        return Paths.get(cacheDirectory, "stream_" + streamSource.getId(), sourceVersion(streamSource),
+                         segmentSeconds + "s", segmentFileName(index));
+    }
+
+    /**
+     * Directory name identifying the analyzed source content, so segments of a replaced file are not served
+     * after re-analysis. The old version's segments age out of the LRU cache.
+     */
+    private static String sourceVersion(StreamSource streamSource) {
+        if (streamSource.getFileHash() != null && !streamSource.getFileHash().isBlank()) {
+            String hash = streamSource.getFileHash().replaceAll("[^A-Za-z0-9]", "");
+            return "v" + hash.substring(0, Math.min(16, hash.length()));
+        }
+        if (streamSource.getFileModifiedAt() != null) {
+            return "m" + streamSource.getFileModifiedAt().toEpochSecond(ZoneOffset.UTC);
+        }
+        if (streamSource.getAnalyzedAt() != null) {
+            return "a" + streamSource.getAnalyzedAt().toEpochSecond(ZoneOffset.UTC);
+        }
+        return "v0";
+    }
+
+    private static String segmentFileName(int index) {
+        return String.format("segment_%03d.ts", index);
+    }
+
+    // Cache bookkeeping
+
+    private void touch(Path segmentPath) {
+        synchronized (cacheIndex) {
+            if (cacheIndex.get(segmentPath) == null) {
+                try {
+                    addToCacheLocked(segmentPath, Files.size(segmentPath));
+                } catch (IOException e) {
+                    logger.debug("Could not stat cached segment {}: {}", segmentPath, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void addToCache(Path segmentPath, long size) {
+        synchronized (cacheIndex) {
+            addToCacheLocked(segmentPath, size);
+            evictIfNeeded();
+        }
+    }
+
+    private void addToCacheLocked(Path segmentPath, long size) {
+        Long previous = cacheIndex.put(segmentPath, size);
+        cachedBytes += size - (previous != null ? previous : 0);
+    }
+
+    /**
+     * Drop least recently used segments until the cache fits its byte budget
+     */
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<Path, Long>> eldest = cacheIndex.entrySet().iterator();
+        while (cachedBytes > cacheMaxBytes && eldest.hasNext()) {
+            Map.Entry<Path, Long> entry = eldest.next();
+            if (inFlight.containsKey(entry.getKey())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(entry.getKey());
+            } catch (IOException e) {
+                logger.warn("Could not evict cached segment {}: {}", entry.getKey(), e.getMessage());
+                continue;
+            }
+            cachedBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Rebuild the LRU index from the segments left on disk by a previous run, oldest first
+     */
+    private void ensureCacheIndexLoaded() {
+        synchronized (cacheIndex) {
+            if (cacheIndexLoaded) {
+                return;
+            }
+            cacheIndexLoaded = true;
+
+            Path root = Paths.get(cacheDirectory);
+            if (!Files.isDirectory(root)) {
+                return;
+            }
+
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(path -> path.getFileName().toString().endsWith(".ts"))
+                     .sorted(Comparator.comparing(this::lastModified))
+                     .forEach(path -> {
+                         try {
+                             addToCacheLocked(path, Files.size(path));
+                         } catch (IOException e) {
+                             logger.debug("Skipping unreadable cached segment {}", path);
+                         }
+                     });
+                evictIfNeeded();
+                logger.info("Loaded {} cached on-demand segments ({} bytes)", cacheIndex.size(), cachedBytes);
+            } catch (IOException e) {
+                logger.warn("Could not scan on-demand segment cache {}: {}", root, e.getMessage());
+            }
+        }
+    }
+
+    private FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    public long getCachedBytes() {
+        synchronized (cacheIndex) {
+            return cachedBytes;
+        }
+    }
+}
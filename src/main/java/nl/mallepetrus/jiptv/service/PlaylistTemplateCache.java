@@ -0,0 +1,326 @@
+package nl.mallepetrus.jiptv.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HLS playlists parsed once and kept in memory as templates, so serving one does not read the disk
+ * and per-user URL tokens can be filled in without parsing it again.
+ *
+ * A template is the playlist's bytes plus the positions where each URI ends (URI lines, and URI
+ * attributes of tags such as EXT-X-MAP). Rendering with a token copies the bytes into a single array
+ * with the token query inserted at those positions. Without a token the original bytes are served
+ * as they are, or their gzip variant, which is compressed once when the template is built.
+ *
+ * A user's token stays the same within a token window, so renders are cached per template and token
+ * with their own gzip variant and ETag, and repeated requests of a user can be answered with 304.
+ */
+@Service
+public class PlaylistTemplateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlaylistTemplateCache.class);
+
+    private static final byte[] URI_ATTRIBUTE = "URI=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCHEME_SEPARATOR = "://".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUERY = {'?'};
+
+    @Value("${jiptv.delivery.playlist-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${jiptv.delivery.playlist-cache.gzip-min-bytes:512}")
+    private int gzipMinBytes;
+
+    @Value("${jiptv.delivery.playlist-cache.max-rendered:2000}")
+    private int maxRendered;
+
+    // Access ordered, guarded by itself
+    private final LinkedHashMap<String, PlaylistTemplate> templates = new LinkedHashMap<>(64, 0.75f, true);
+
+    // Renders with a token, access ordered, guarded by itself
+    private final LinkedHashMap<RenderKey, PlaylistTemplate> rendered = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * Template of a playlist file, or null when it does not exist. The validator identifies the file's
+     * content (a hash stored when its job completed); without one the file's size and modification
+     * time are checked on every call.
+     */
+    public PlaylistTemplate get(Long streamId, Path file, String validator) throws IOException {
+        long lastModified = -1;
+        if (validator == null) {
+            try {
+                lastModified = Files.getLastModifiedTime(file).toMillis();
+                validator = "W/\"" + Long.toHexString(Files.size(file)) + "-" + Long.toHexString(lastModified) + "\"";
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        String key = file.toString();
+        PlaylistTemplate template = lookup(key, validator);
+        if (template != null) {
+            return template;
+        }
+
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file);
+            if (lastModified < 0) {
+                lastModified = Files.getLastModifiedTime(file).toMillis();
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return store(key, new PlaylistTemplate(streamId, validator, validator, lastModified, content, gzipMinBytes));
+    }
+
+    /**
+     * Template of a generated playlist, built when none is cached under the key with the same validator.
+     * Its ETag is derived from the content.
+     */
+    public PlaylistTemplate get(Long streamId, String key, String validator, Supplier<String> content) {
+        PlaylistTemplate template = lookup(key, validator);
+        if (template != null) {
+            return template;
+        }
+
+        byte[] bytes = content.get().getBytes(StandardCharsets.UTF_8);
+        String etag = "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"";
+        return store(key, new PlaylistTemplate(streamId, validator, etag, -1, bytes, gzipMinBytes));
+    }
+
+    /**
+     * A template with {@code <param>=<token>} added to every URI, as a template of its own with gzip
+     * variant and an ETag derived from the template's and the token
+     */
+    public PlaylistTemplate render(PlaylistTemplate template, String param, String token) {
+        RenderKey key = new RenderKey(template, token);
+        synchronized (rendered) {
+            PlaylistTemplate render = rendered.get(key);
+            if (render != null) {
+                return render;
+            }
+        }
+
+        PlaylistTemplate render = template.withToken(param, token, gzipMinBytes);
+        synchronized (rendered) {
+            rendered.put(key, render);
+            Iterator<PlaylistTemplate> eldest = rendered.values().iterator();
+            while (rendered.size() > maxRendered && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return render;
+    }
+
+    /**
+     * Drop all templates of a stream
+     */
+    public void evictStream(Long streamId) {
+        synchronized (templates) {
+            templates.values().removeIf(template -> streamId.equals(template.streamId));
+        }
+        synchronized (rendered) {
+            rendered.values().removeIf(render -> streamId.equals(render.streamId));
+        }
+    }
+
+    @EventListener
+    public void onTranscodingJobEvent(TranscodingJobEvent event) {
+        // A new encode of a stream rewrites its playlists
+        if (event.getStreamSourceId() != null && event.getType() != TranscodingJobEvent.Type.QUEUED) {
+            evictStream(event.getStreamSourceId());
+        }
+    }
+
+    private PlaylistTemplate lookup(String key, String validator) {
+        synchronized (templates) {
+            PlaylistTemplate template = templates.get(key);
+            return template != null && template.validator.equals(validator) ? template : null;
+        }
+    }
+
+    private PlaylistTemplate store(String key, PlaylistTemplate template) {
+        synchronized (templates) {
+            templates.put(key, template);
+            Iterator<PlaylistTemplate> eldest = templates.values().iterator();
+            while (templates.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        logger.trace("Parsed playlist {} ({} bytes, {} URIs)", key, template.plain.length, template.uriEnds.length);
+        return template;
+    }
+
+    // Templates compare by identity, a replaced template never matches the renders of its predecessor
+    private record RenderKey(PlaylistTemplate template, String token) {
+    }
+
+    /**
+     * A parsed playlist
+     */
+    public static class PlaylistTemplate {
+        private final Long streamId;
+        private final String validator;
+        private final String etag;
+        private final long lastModified;
+        private final byte[] plain;
+        private final byte[] gzip;
+        private final int[] uriEnds; // Offsets in plain where a URI ends
+        private final boolean[] hasQuery; // Whether that URI already has a query string
+
+        PlaylistTemplate(Long streamId, String validator, String etag, long lastModified, byte[] plain, int gzipMinBytes) {
+            this.streamId = streamId;
+            this.validator = validator;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.plain = plain;
+            this.gzip = plain.length >= gzipMinBytes ? compress(plain) : null;
+
+            int[] ends = new int[16];
+            boolean[] queries = new boolean[16];
+            int count = 0;
+            int lineStart = 0;
+            while (lineStart < plain.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < plain.length && plain[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd > lineStart && plain[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+
+                int uriStart = -1;
+                int uriEnd = -1;
+                if (contentEnd > lineStart && plain[lineStart] != '#') {
+                    uriStart = lineStart;
+                    uriEnd = contentEnd;
+                } else if (contentEnd > lineStart) {
+                    int attribute = indexOf(plain, URI_ATTRIBUTE, lineStart, contentEnd);
+                    if (attribute >= 0) {
+                        uriStart = attribute + URI_ATTRIBUTE.length;
+                        uriEnd = uriStart;
+                        while (uriEnd < contentEnd && plain[uriEnd] != '"') {
+                            uriEnd++;
+                        }
+                    }
+                }
+
+                // Tokens are only for our own, relative URIs
+                if (uriEnd > uriStart && indexOf(plain, SCHEME_SEPARATOR, uriStart, uriEnd) < 0) {
+                    if (count == ends.length) {
+                        ends = Arrays.copyOf(ends, count * 2);
+                        queries = Arrays.copyOf(queries, count * 2);
+                    }
+                    ends[count] = uriEnd;
+                    queries[count] = indexOf(plain, QUERY, uriStart, uriEnd) >= 0;
+                    count++;
+                }
+                lineStart = lineEnd + 1;
+            }
+            this.uriEnds = Arrays.copyOf(ends, count);
+            this.hasQuery = Arrays.copyOf(queries, count);
+        }
+
+        private PlaylistTemplate(PlaylistTemplate source, String etag, byte[] plain, int gzipMinBytes) {
+            this.streamId = source.streamId;
+            this.validator = source.validator;
+            this.etag = etag;
+            this.lastModified = source.lastModified;
+            this.plain = plain;
+            this.gzip = plain.length >= gzipMinBytes ? compress(plain) : null;
+            this.uriEnds = new int[0];
+            this.hasQuery = new boolean[0];
+        }
+
+        PlaylistTemplate withToken(String param, String token, int gzipMinBytes) {
+            String tokenHash = DigestUtils.md5DigestAsHex(token.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+            return new PlaylistTemplate(this, etag.substring(0, etag.length() - 1) + "-" + tokenHash + "\"",
+                                        render(param, token), gzipMinBytes);
+        }
+
+        /**
+         * The playlist with {@code <param>=<token>} added to every URI, in one allocation for the result
+         */
+        public byte[] render(String param, String token) {
+            if (uriEnds.length == 0) {
+                return plain;
+            }
+
+            int insertLength = 1 + param.length() + 1 + token.length();
+            byte[] rendered = new byte[plain.length + uriEnds.length * insertLength];
+            int from = 0;
+            int to = 0;
+            for (int i = 0; i < uriEnds.length; i++) {
+                int length = uriEnds[i] - from;
+                System.arraycopy(plain, from, rendered, to, length);
+                to += length;
+                rendered[to++] = (byte) (hasQuery[i] ? '&' : '?');
+                to = writeAscii(param, rendered, to);
+                rendered[to++] = '=';
+                to = writeAscii(token, rendered, to);
+                from = uriEnds[i];
+            }
+            System.arraycopy(plain, from, rendered, to, plain.length - from);
+            return rendered;
+        }
+
+        public byte[] getPlain() { return plain; }
+        public byte[] getGzip() { return gzip; } // Null when too small or not smaller than plain
+        public long getLastModified() { return lastModified; } // -1 for generated playlists
+        public int getUriCount() { return uriEnds.length; }
+
+        /**
+         * ETag of the plain or the gzip variant
+         */
+        public String getEtag(boolean gzipped) {
+            return gzipped ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+        }
+
+        private static int writeAscii(String value, byte[] target, int offset) {
+            for (int i = 0; i < value.length(); i++) {
+                target[offset++] = (byte) value.charAt(i);
+            }
+            return offset;
+        }
+
+        private static int indexOf(byte[] bytes, byte[] pattern, int from, int to) {
+            outer:
+            for (int i = from; i <= to - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (bytes[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private static byte[] compress(byte[] plain) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(plain.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(plain);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return compressed.size() < plain.length ? compressed.toByteArray() : null;
+        }
+    }
+}
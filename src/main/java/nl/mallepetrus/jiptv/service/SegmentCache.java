@@ -0,0 +1,334 @@
+package nl.mallepetrus.jiptv.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot HLS segments held in RAM, so viewers of a popular title do not each read the same segment from disk.
+ *
+ * Segments are kept in direct (off-heap) buffers under a byte budget and evicted least recently used
+ * first. Concurrent misses on the same segment share one disk read. Segment files are written with
+ * temp_file and never change afterwards, except when a stream is encoded again into the same directory:
+ * entries of a stream are dropped when one of its jobs starts or finishes on this node, and any entry is
+ * checked against the file's size and modification time once it is older than the revalidation interval.
+ */
+@Service
+public class SegmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentCache.class);
+
+    @Value("${jiptv.delivery.segment-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jiptv.delivery.segment-cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${jiptv.delivery.segment-cache.max-segment-bytes:16777216}")
+    private long maxSegmentBytes;
+
+    @Value("${jiptv.delivery.segment-cache.revalidate-seconds:60}")
+    private long revalidateSeconds;
+
+    // Access ordered, guarded by itself
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Path, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long usedBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    @Autowired
+    public SegmentCache(MeterRegistry meterRegistry) {
+        this.hits = Counter.builder("jiptv.segment_cache.requests").tag("result", "hit")
+                .description("Segment requests served from the cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("jiptv.segment_cache.requests").tag("result", "miss")
+                .description("Segment requests read from disk")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("jiptv.segment_cache.evictions")
+                .description("Segments dropped to stay within the byte budget")
+                .register(meterRegistry);
+        Gauge.builder("jiptv.segment_cache.bytes", this, SegmentCache::getUsedBytes)
+                .description("Off-heap bytes held by cached segments")
+                .register(meterRegistry);
+        Gauge.builder("jiptv.segment_cache.segments", this, SegmentCache::getSegmentCount)
+                .description("Segments in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The segment as a resource, from memory when possible, or null when the file does not exist
+     */
+    public Resource get(Long streamId, Path file) throws IOException {
+        if (!enabled) {
+            return Files.isRegularFile(file) ? new FileSystemResource(file) : null;
+        }
+
+        Entry entry = lookup(file);
+        if (entry != null) {
+            hits.increment();
+            return new CachedSegment(entry, file);
+        }
+        misses.increment();
+
+        CompletableFuture<Entry> pending = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(file, pending);
+        if (existing != null) {
+            // Someone else is reading it already
+            try {
+                entry = existing.join();
+            } catch (CompletionException e) {
+                entry = null;
+            }
+            if (entry != null) {
+                return new CachedSegment(entry, file);
+            }
+            return Files.isRegularFile(file) ? new FileSystemResource(file) : null;
+        }
+
+        try {
+            entry = load(streamId, file);
+            if (entry != null) {
+                store(file, entry);
+            }
+            pending.complete(entry);
+        } catch (NoSuchFileException e) {
+            pending.complete(null);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(file);
+        }
+
+        if (entry == null) {
+            // Too large to cache
+            return new FileSystemResource(file);
+        }
+        return new CachedSegment(entry, file);
+    }
+
+    /**
+     * Drop all cached segments of a stream
+     */
+    public void evictStream(Long streamId) {
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (streamId.equals(entry.streamId)) {
+                    usedBytes -= entry.size;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @EventListener
+    public void onTranscodingJobEvent(TranscodingJobEvent event) {
+        // A new encode of a stream may rewrite the segments of an earlier one in place
+        if (event.getStreamSourceId() != null && event.getType() != TranscodingJobEvent.Type.QUEUED) {
+            evictStream(event.getStreamSourceId());
+        }
+    }
+
+    public long getUsedBytes() {
+        synchronized (entries) {
+            return usedBytes;
+        }
+    }
+
+    public int getSegmentCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Entry lookup(Path file) throws IOException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(file);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedAt < TimeUnit.SECONDS.toMillis(revalidateSeconds)) {
+            return entry;
+        }
+
+        // Old enough to make sure the file was not replaced
+        if (Files.isRegularFile(file) && Files.size(file) == entry.size
+                && Files.getLastModifiedTime(file).toMillis() == entry.lastModified) {
+            entry.checkedAt = now;
+            return entry;
+        }
+        remove(file, entry);
+        return null;
+    }
+
+    private Entry load(Long streamId, Path file) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxSegmentBytes || size > maxBytes) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return new Entry(streamId, buffer.asReadOnlyBuffer(), buffer.remaining(), lastModified);
+        }
+    }
+
+    private void store(Path file, Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.put(file, entry);
+            if (previous != null) {
+                usedBytes -= previous.size;
+            }
+            usedBytes += entry.size;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                if (evicted == entry) {
+                    continue;
+                }
+                usedBytes -= evicted.size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        logger.trace("Cached segment {} ({} bytes)", file, entry.size);
+    }
+
+    private void remove(Path file, Entry entry) {
+        synchronized (entries) {
+            if (entries.remove(file, entry)) {
+                usedBytes -= entry.size;
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Long streamId;
+        private final ByteBuffer data;
+        private final long size;
+        private final long lastModified;
+        private volatile long checkedAt = System.currentTimeMillis();
+
+        Entry(Long streamId, ByteBuffer data, long size, long lastModified) {
+            this.streamId = streamId;
+            this.data = data;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * A cached segment, read through its own view of the shared buffer
+     */
+    private static class CachedSegment extends AbstractResource {
+        private final Entry entry;
+        private final Path file;
+
+        CachedSegment(Entry entry, Path file) {
+            this.entry = entry;
+            this.file = file;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new BufferInputStream(entry.data.duplicate());
+        }
+
+        @Override
+        public long contentLength() {
+            return entry.size;
+        }
+
+        @Override
+        public long lastModified() {
+            return entry.lastModified;
+        }
+
+        @Override
+        public String getFilename() {
+            return file.getFileName().toString();
+        }
+
+        @Override
+        public String getDescription() {
+            return "cached segment [" + file + "]";
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
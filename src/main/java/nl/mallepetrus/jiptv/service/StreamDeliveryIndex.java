@@ -0,0 +1,262 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.StreamSource;
+import nl.mallepetrus.jiptv.entity.TranscodingJob;
+import nl.mallepetrus.jiptv.repository.StreamSourceRepository;
+import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of what can be played for each stream: its HLS and transcoded renditions, and the
+ * source itself when segments can be encoded on demand.
+ *
+ * Entries are loaded with one narrow query on first use and dropped when a job of the stream starts
+ * or finishes on this node. Jobs finishing on other nodes are picked up when the entry expires. Serving
+ * playlists and segments from the index does not touch the database.
+ */
+@Service
+public class StreamDeliveryIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamDeliveryIndex.class);
+
+    private final TranscodingJobRepository jobRepository;
+    private final StreamSourceRepository streamSourceRepository;
+    private final OnDemandSegmentService onDemandSegmentService;
+
+    @Value("${jiptv.delivery.index-ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${jiptv.delivery.index-max-streams:10000}")
+    private int maxStreams;
+
+    // Evicted streams keep an entry without deliveries for a TTL, carrying the generation a load must
+    // still see to be cached
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong generations = new AtomicLong();
+
+    @Autowired
+    public StreamDeliveryIndex(TranscodingJobRepository jobRepository,
+                               StreamSourceRepository streamSourceRepository,
+                               OnDemandSegmentService onDemandSegmentService) {
+        this.jobRepository = jobRepository;
+        this.streamSourceRepository = streamSourceRepository;
+        this.onDemandSegmentService = onDemandSegmentService;
+    }
+
+    public StreamDeliveries get(Long streamId) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(streamId);
+        if (entry != null && entry.deliveries != null && entry.expiresAt > now) {
+            return entry.deliveries;
+        }
+
+        long generation = entry != null ? entry.generation : 0;
+        StreamDeliveries deliveries = load(streamId);
+        if (entries.size() >= maxStreams) {
+            evictOldest(now);
+        }
+        // Not cached when the stream was evicted while loading, the load may have missed that change
+        entries.compute(streamId, (id, current) -> (current != null ? current.generation : 0) == generation
+                ? new Entry(deliveries, now + TimeUnit.SECONDS.toMillis(ttlSeconds), generation)
+                : current);
+        return deliveries;
+    }
+
+    /**
+     * Forget what is known about a stream, the next lookup reloads it
+     */
+    public void evict(Long streamId) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        entries.put(streamId, new Entry(null, expiresAt, generations.incrementAndGet()));
+    }
+
+    /**
+     * Drop expired entries, and when that is not enough the tenth of the entries closest to expiry
+     */
+    private void evictOldest(long now) {
+        entries.values().removeIf(existing -> existing.expiresAt <= now);
+        int excess = entries.size() - maxStreams + 1;
+        if (excess > 0) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(existing -> existing.getValue().expiresAt))
+                    .limit(excess + maxStreams / 10)
+                    .toList()
+                    .forEach(oldest -> entries.remove(oldest.getKey(), oldest.getValue()));
+        }
+    }
+
+    @EventListener
+    public void onTranscodingJobEvent(TranscodingJobEvent event) {
+        // Queued jobs have no output yet
+        if (event.getStreamSourceId() != null && event.getType() != TranscodingJobEvent.Type.QUEUED) {
+            evict(event.getStreamSourceId());
+        }
+    }
+
+    private StreamDeliveries load(Long streamId) {
+        List<Rendition> hls = new ArrayList<>();
+        Map<String, Rendition> transcoded = new HashMap<>();
+
+        for (Object[] row : jobRepository.findDeliverableOutputs(streamId)) {
+            Rendition rendition = new Rendition((Long) row[0], (TranscodingJob.JobType) row[1],
+                                                row[2] == TranscodingJob.Status.COMPLETED,
+                                                (String) row[3], (String) row[4], (String) row[5],
+                                                (String) row[6], (String) row[7], (LocalDateTime) row[8]);
+            if (rendition.producesHls() && rendition.getHlsOutputFile() != null) {
+                hls.add(rendition);
+            }
+            if (rendition.producesTranscodedFile() && rendition.isCompleted()
+                    && rendition.getOutputFile() != null && rendition.getProfile() != null) {
+                transcoded.putIfAbsent(rendition.getProfile(), rendition);
+            }
+        }
+
+        // Only needed when nothing pre-encoded can be played, such as a running encode without a playlist yet
+        StreamSource onDemandSource = null;
+        if (new StreamDeliveries(hls, transcoded, null).findPlayableHls(false).isEmpty()) {
+            onDemandSource = streamSourceRepository.findById(streamId)
+                    .filter(onDemandSegmentService::isAvailable)
+                    .orElse(null);
+        }
+
+        logger.debug("Loaded delivery index of stream {}: {} HLS renditions, {} transcoded profiles, on demand: {}",
+                    streamId, hls.size(), transcoded.size(), onDemandSource != null);
+        return new StreamDeliveries(hls, transcoded, onDemandSource);
+    }
+
+    private static class Entry {
+        private final StreamDeliveries deliveries; // Null for an evicted stream
+        private final long expiresAt;
+        private final long generation;
+
+        Entry(StreamDeliveries deliveries, long expiresAt, long generation) {
+            this.deliveries = deliveries;
+            this.expiresAt = expiresAt;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Playable output of one stream
+     */
+    public static class StreamDeliveries {
+        private final List<Rendition> hls; // Newest first, completed and running
+        private final Map<String, Rendition> transcodedByProfile;
+        private final StreamSource onDemandSource;
+
+        StreamDeliveries(List<Rendition> hls, Map<String, Rendition> transcodedByProfile, StreamSource onDemandSource) {
+            this.hls = Collections.unmodifiableList(hls);
+            this.transcodedByProfile = Collections.unmodifiableMap(transcodedByProfile);
+            this.onDemandSource = onDemandSource;
+        }
+
+        /**
+         * Latest completed HLS rendition, or else the latest running one whose (EVENT) playlist has
+         * been written, so playback can start while the encode is still in progress
+         */
+        public Optional<Rendition> findPlayableHls(boolean adaptiveOnly) {
+            Optional<Rendition> completed = hls.stream()
+                    .filter(rendition -> !adaptiveOnly || rendition.isAdaptive())
+                    .filter(Rendition::isCompleted)
+                    .findFirst();
+            if (completed.isPresent()) {
+                return completed;
+            }
+
+            return hls.stream()
+                    .filter(rendition -> !adaptiveOnly || rendition.isAdaptive())
+                    .filter(rendition -> !rendition.isCompleted())
+                    .filter(rendition -> new File(rendition.getHlsOutputFile()).exists())
+                    .findFirst();
+        }
+
+        /**
+         * Latest completed transcode of a profile
+         */
+        public Optional<Rendition> findTranscoded(String profile) {
+            return Optional.ofNullable(transcodedByProfile.get(profile));
+        }
+
+        /**
+         * The source, detached, when it had no playable HLS output when loaded and can be played through
+         * on-demand segments
+         */
+        public Optional<StreamSource> getOnDemandSource() {
+            return Optional.ofNullable(onDemandSource);
+        }
+    }
+
+    /**
+     * Output of one completed or running job
+     */
+    public static class Rendition {
+        private final Long jobId;
+        private final TranscodingJob.JobType jobType;
+        private final boolean completed;
+        private final String outputFile;
+        private final String hlsPlaylistFile;
+        private final String profile;
+        private final String outputEtag;
+        private final String hlsEtag;
+        private final LocalDateTime completedAt;
+
+        Rendition(Long jobId, TranscodingJob.JobType jobType, boolean completed,
+                  String outputFile, String hlsPlaylistFile, String profile,
+                  String outputEtag, String hlsEtag, LocalDateTime completedAt) {
+            this.jobId = jobId;
+            this.jobType = jobType;
+            this.completed = completed;
+            this.outputFile = outputFile;
+            this.hlsPlaylistFile = hlsPlaylistFile;
+            this.profile = profile;
+            this.outputEtag = outputEtag;
+            this.hlsEtag = hlsEtag;
+            this.completedAt = completedAt;
+        }
+
+        public boolean producesHls() {
+            return jobType == TranscodingJob.JobType.SEGMENT || jobType == TranscodingJob.JobType.TRANSCODE_HLS;
+        }
+
+        public boolean producesTranscodedFile() {
+            return jobType == TranscodingJob.JobType.TRANSCODE || jobType == TranscodingJob.JobType.TRANSCODE_HLS;
+        }
+
+        public String getHlsOutputFile() {
+            return jobType == TranscodingJob.JobType.TRANSCODE_HLS ? hlsPlaylistFile : outputFile;
+        }
+
+        public boolean isAdaptive() {
+            String hlsOutputFile = getHlsOutputFile();
+            return hlsOutputFile != null && hlsOutputFile.endsWith(FFmpegTranscodingService.MASTER_PLAYLIST);
+        }
+
+        public Long getJobId() { return jobId; }
+        public TranscodingJob.JobType getJobType() { return jobType; }
+        public boolean isCompleted() { return completed; }
+        public String getOutputFile() { return outputFile; }
+        public String getProfile() { return profile; }
+        public String getOutputEtag() { return outputEtag; } // Null until completed, and for jobs completed before V12
+        public String getHlsEtag() { return hlsEtag; }
+        public LocalDateTime getCompletedAt() { return completedAt; }
+    }
+}
@@ -6,10 +6,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -27,6 +33,8 @@ public class StreamManagementService {
     private final StreamSessionRepository sessionRepository;
     private final TranscodingJobRepository jobRepository;
     private final FFmpegService ffmpegService;
+    private final MediaFingerprintService fingerprintService;
+    private final ApplicationEventPublisher eventPublisher;
     private final RedisTemplate<String, Object> streamMetadataRedis;
     private final RedisTemplate<String, Object> streamUrlRedis;
 
@@ -43,6 +51,8 @@ public class StreamManagementService {
             StreamSessionRepository sessionRepository,
             TranscodingJobRepository jobRepository,
             FFmpegService ffmpegService,
+            MediaFingerprintService fingerprintService,
+            ApplicationEventPublisher eventPublisher,
             @Qualifier("streamMetadataRedisTemplate") RedisTemplate<String, Object> streamMetadataRedis,
             @Qualifier("streamUrlRedisTemplate") RedisTemplate<String, Object> streamUrlRedis) {
         
@@ -52,6 +62,8 @@ public class StreamManagementService {
         this.sessionRepository = sessionRepository;
         this.jobRepository = jobRepository;
         this.ffmpegService = ffmpegService;
+        this.fingerprintService = fingerprintService;
+        this.eventPublisher = eventPublisher;
         this.streamMetadataRedis = streamMetadataRedis;
         this.streamUrlRedis = streamUrlRedis;
     }
@@ -64,20 +76,45 @@ public class StreamManagementService {
         logger.info("Adding new stream source: {} ({})", name, sourceType);
         
         // Check for duplicate file hash if it's a file
-        if (sourceType == StreamSource.SourceType.FILE) {
-            // This would be calculated during analysis
+        String fileHash = null;
+        if (sourceType == StreamSource.SourceType.FILE && Files.isRegularFile(Paths.get(sourceUrl))) {
+            try {
+                fileHash = fingerprintService.fingerprint(Paths.get(sourceUrl));
+            } catch (IOException e) {
+                logger.warn("Could not fingerprint {}, skipping duplicate check: {}", sourceUrl, e.getMessage());
+            }
+            
+            if (fileHash != null) {
+                Optional<StreamSource> duplicate = streamSourceRepository.findFirstByFileHashOrderByIdAsc(fileHash);
+                if (duplicate.isPresent()) {
+                    throw new RuntimeException("File is already added as stream source: " 
+                            + duplicate.get().getName() + " (" + duplicate.get().getId() + ")");
+                }
+            }
         }
         
         StreamSource streamSource = new StreamSource(name, sourceType, sourceUrl);
         streamSource.setDescription(description);
+        streamSource.setFileHash(fileHash);
         streamSource = streamSourceRepository.save(streamSource);
         
         // Schedule analysis job
-        scheduleAnalysisJob(streamSource);
+        scheduleAnalysisJob(streamSource, TranscodingJob.Priority.PREFETCH);
         
         return streamSource;
     }
 
+    /**
+     * Persist a source found by a library import, together with the tracks from its analysis
+     */
+    public StreamSource saveImportedSource(StreamSource streamSource, List<StreamTrack> tracks) {
+        streamSource = streamSourceRepository.save(streamSource);
+        if (!tracks.isEmpty()) {
+            streamTrackRepository.saveAll(tracks);
+        }
+        return streamSource;
+    }
+
     /**
      * Analyze stream source using FFmpeg/FFprobe
      */
@@ -101,10 +138,8 @@ public class StreamManagementService {
             FFmpegService.StreamAnalysisResult result = ffmpegService.analyzeStream(streamSource);
             
             if (result.isAnalysisSuccessful()) {
-                // Save tracks to database
-                for (StreamTrack track : result.getTracks()) {
-                    streamTrackRepository.save(track);
-                }
+                // Save tracks to database in one batch
+                streamTrackRepository.saveAll(result.getTracks());
                 
                 // Update stream source
                 streamSource.setAnalyzedAt(LocalDateTime.now());
@@ -125,6 +160,31 @@ public class StreamManagementService {
         }
     }
 
+    /**
+     * Queue a re-analysis of a stream source, unless an analysis is already pending or running
+     */
+    public boolean requestReanalysis(Long streamSourceId) {
+        StreamSource streamSource = streamSourceRepository.findById(streamSourceId)
+                .orElseThrow(() -> new RuntimeException("Stream source not found: " + streamSourceId));
+        
+        boolean inProgress = jobRepository.findAnalysisJobsForStream(streamSource).stream()
+                .anyMatch(job -> job.getStatus() != TranscodingJob.Status.COMPLETED);
+        if (inProgress) {
+            return false;
+        }
+        
+        // Background re-analysis, must not hold up analysis of newly added sources
+        scheduleAnalysisJob(streamSource, TranscodingJob.Priority.BACKFILL);
+        return true;
+    }
+
+    /**
+     * Store the current size, hash and modification time of a file without re-analyzing it
+     */
+    public void recordFileState(Long streamSourceId, long fileSize, String fileHash, LocalDateTime fileModifiedAt) {
+        streamSourceRepository.updateFileState(streamSourceId, fileSize, fileHash, fileModifiedAt);
+    }
+
     /**
      * Get stream source with tracks (cached)
      */
@@ -245,11 +305,24 @@ public class StreamManagementService {
     /**
      * Schedule FFprobe analysis job
      */
-    private void scheduleAnalysisJob(StreamSource streamSource) {
+    private void scheduleAnalysisJob(StreamSource streamSource, TranscodingJob.Priority priority) {
         TranscodingJob analysisJob = new TranscodingJob(streamSource, 
                                                        TranscodingJob.JobType.ANALYSIS, 
                                                        streamSource.getSourceUrl());
-        jobRepository.save(analysisJob);
+        analysisJob.setPriority(priority);
+        TranscodingJob savedJob = jobRepository.save(analysisJob);
+        
+        // Dispatch to the probe lane once the job row is visible to the claim query
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    eventPublisher.publishEvent(TranscodingJobEvent.of(savedJob, TranscodingJobEvent.Type.QUEUED));
+                }
+            });
+        } else {
+            eventPublisher.publishEvent(TranscodingJobEvent.of(savedJob, TranscodingJobEvent.Type.QUEUED));
+        }
         
         logger.info("Scheduled analysis job for stream: {}", streamSource.getName());
     }
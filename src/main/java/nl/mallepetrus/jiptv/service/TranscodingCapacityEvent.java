@@ -0,0 +1,21 @@
+package nl.mallepetrus.jiptv.service;
+
+/**
+ * Application event published when worker slots were freed or jobs were put back in the queue
+ * without a job event of their own, so pending jobs should be dispatched
+ */
+public class TranscodingCapacityEvent {
+
+    private final String reason;
+
+    public TranscodingCapacityEvent(String reason) {
+        this.reason = reason;
+    }
+
+    public String getReason() { return reason; }
+
+    @Override
+    public String toString() {
+        return "TranscodingCapacityEvent{reason=" + reason + "}";
+    }
+}
@@ -0,0 +1,250 @@
+package nl.mallepetrus.jiptv.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.mallepetrus.jiptv.dto.TranscodingJobUpdateResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes job progress and state changes to server-sent event subscribers.
+ *
+ * A single publisher thread fans out to every subscriber: state changes as soon as they are published,
+ * progress of the jobs running on this node (as parsed from FFmpeg into the progress registry) at most
+ * once per push interval per job. Each event is serialized once, whatever the number of subscribers,
+ * and none of it touches the database. Slow clients only hold up this thread, never FFmpeg output or
+ * the scheduler.
+ *
+ * Subscribers to one job and to the whole queue are capped separately, and each user can hold only
+ * a few streams, so one client cannot take all of them.
+ */
+@Service
+public class TranscodingEventBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranscodingEventBroadcaster.class);
+
+    private static final String SNAPSHOT_EVENT = "snapshot";
+    private static final String STATE_EVENT = "state";
+    private static final String PROGRESS_EVENT = "progress";
+
+    private final TranscodingProgressRegistry progressRegistry;
+    private final ObjectMapper objectMapper;
+
+    @Value("${jiptv.transcoding.events.push-interval-ms:1000}")
+    private long pushIntervalMs;
+
+    @Value("${jiptv.transcoding.events.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+
+    @Value("${jiptv.transcoding.events.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    @Value("${jiptv.transcoding.events.max-job-subscribers:200}")
+    private int maxJobSubscribers;
+
+    @Value("${jiptv.transcoding.events.max-queue-subscribers:20}")
+    private int maxQueueSubscribers;
+
+    @Value("${jiptv.transcoding.events.max-subscribers-per-user:5}")
+    private int maxSubscribersPerUser;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<TranscodingJobUpdateResponse> stateChanges = new LinkedBlockingQueue<>();
+    private Thread publisher;
+
+    @Autowired
+    public TranscodingEventBroadcaster(TranscodingProgressRegistry progressRegistry, ObjectMapper objectMapper) {
+        this.progressRegistry = progressRegistry;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Subscribe a user to the events of one job, or of all jobs when jobId is null.
+     * The snapshot, when given, is sent first.
+     */
+    public SseEmitter subscribe(Long jobId, Object snapshot, String username) {
+        SseEmitter emitter = new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes));
+        Subscriber subscriber = new Subscriber(jobId, username, emitter);
+
+        // Counted from here on, but sent nothing until the snapshot is out
+        synchronized (subscribers) {
+            checkLimits(jobId, username);
+            subscribers.add(subscriber);
+        }
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> subscribers.remove(subscriber));
+
+        if (snapshot != null) {
+            try {
+                emitter.send(SseEmitter.event().name(SNAPSHOT_EVENT).data(snapshot, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                // Gone already, or completed because the job just finished
+                subscribers.remove(subscriber);
+                emitter.completeWithError(e);
+                return emitter;
+            }
+        }
+
+        subscriber.ready = true;
+        startPublisher();
+        logger.debug("Transcoding event subscriber added for {}, {} subscribers",
+                    jobId != null ? "job " + jobId : "all jobs", subscribers.size());
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void checkLimits(Long jobId, String username) {
+        int sameKind = 0;
+        int sameUser = 0;
+        for (Subscriber existing : subscribers) {
+            if ((existing.jobId == null) == (jobId == null)) {
+                sameKind++;
+            }
+            if (username != null && username.equals(existing.username)) {
+                sameUser++;
+            }
+        }
+
+        if (sameKind >= (jobId == null ? maxQueueSubscribers : maxJobSubscribers)) {
+            throw new RuntimeException("Too many transcoding event subscribers, try again later");
+        }
+        if (username != null && sameUser >= maxSubscribersPerUser) {
+            throw new RuntimeException("Too many open transcoding event streams for user " + username);
+        }
+    }
+
+    @EventListener
+    public void onTranscodingJobEvent(TranscodingJobEvent event) {
+        if (!subscribers.isEmpty()) {
+            stateChanges.offer(TranscodingJobUpdateResponse.state(event));
+        }
+    }
+
+    private synchronized void startPublisher() {
+        if (publisher == null) {
+            publisher = new Thread(this::publish, "transcoding-events");
+            publisher.setDaemon(true);
+            publisher.start();
+        }
+    }
+
+    private void publish() {
+        long lastProgressPush = 0;
+        long lastHeartbeat = System.currentTimeMillis();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TranscodingJobUpdateResponse change = stateChanges.poll(pushIntervalMs, TimeUnit.MILLISECONDS);
+                while (change != null) {
+                    broadcast(STATE_EVENT, change);
+                    if (!TranscodingJobEvent.Type.QUEUED.name().equals(change.getType())
+                            && !TranscodingJobEvent.Type.STARTED.name().equals(change.getType())) {
+                        completeJobSubscribers(change.getJobId());
+                    }
+                    change = stateChanges.poll();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastProgressPush >= pushIntervalMs && !subscribers.isEmpty()) {
+                    progressRegistry.forEachUnpublished((jobId, progress) ->
+                            broadcast(PROGRESS_EVENT, TranscodingJobUpdateResponse.progress(jobId, progress)));
+                    lastProgressPush = now;
+                }
+                if (now - lastHeartbeat >= TimeUnit.SECONDS.toMillis(heartbeatSeconds)) {
+                    heartbeat();
+                    lastHeartbeat = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.warn("Pushing transcoding events failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void broadcast(String eventName, TranscodingJobUpdateResponse update) {
+        Set<ResponseBodyEmitter.DataWithMediaType> event = null;
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.wants(update.getJobId())) {
+                continue;
+            }
+            if (event == null) {
+                try {
+                    event = SseEmitter.event()
+                            .name(eventName)
+                            .data(objectMapper.writeValueAsString(update), MediaType.APPLICATION_JSON)
+                            .build();
+                } catch (JsonProcessingException e) {
+                    logger.warn("Could not serialize transcoding event of job {}: {}", update.getJobId(), e.getMessage());
+                    return;
+                }
+            }
+            send(subscriber, event);
+        }
+    }
+
+    private void heartbeat() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Set<ResponseBodyEmitter.DataWithMediaType> comment = SseEmitter.event().comment("keep-alive").build();
+        subscribers.stream().filter(subscriber -> subscriber.ready).forEach(subscriber -> send(subscriber, comment));
+    }
+
+    /**
+     * A job reached a final state, nothing more will be sent about it
+     */
+    private void completeJobSubscribers(Long jobId) {
+        for (Subscriber subscriber : subscribers) {
+            if (jobId.equals(subscriber.jobId)) {
+                subscribers.remove(subscriber);
+                subscriber.emitter.complete();
+            }
+        }
+    }
+
+    private void send(Subscriber subscriber, Set<ResponseBodyEmitter.DataWithMediaType> event) {
+        try {
+            subscriber.emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            // Client went away, the container completes the emitter
+            subscribers.remove(subscriber);
+        }
+    }
+
+    private static class Subscriber {
+        private final Long jobId;
+        private final String username;
+        private final SseEmitter emitter;
+        private volatile boolean ready; // Snapshot sent
+
+        Subscriber(Long jobId, String username, SseEmitter emitter) {
+            this.jobId = jobId;
+            this.username = username;
+            this.emitter = emitter;
+        }
+
+        boolean wants(Long eventJobId) {
+            return ready && (jobId == null || jobId.equals(eventJobId));
+        }
+    }
+}
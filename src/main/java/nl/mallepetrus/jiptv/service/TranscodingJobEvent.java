@@ -0,0 +1,62 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.TranscodingJob;
+
+/**
+ * Application event published whenever a transcoding job changes state
+ */
+public class TranscodingJobEvent {
+
+    private final Long jobId;
+    private final Long streamSourceId;
+    private final TranscodingJob.JobType jobType;
+    private final Type type;
+
+    public TranscodingJobEvent(Long jobId, Long streamSourceId, TranscodingJob.JobType jobType, Type type) {
+        this.jobId = jobId;
+        this.streamSourceId = streamSourceId;
+        this.jobType = jobType;
+        this.type = type;
+    }
+
+    public static TranscodingJobEvent of(TranscodingJob job, Type type) {
+        Long streamSourceId = job.getStreamSource() != null ? job.getStreamSource().getId() : null;
+        return new TranscodingJobEvent(job.getId(), streamSourceId, job.getJobType(), type);
+    }
+
+    public static TranscodingJobEvent finished(TranscodingJob job) {
+        Type type = switch (job.getStatus()) {
+            case COMPLETED -> Type.COMPLETED;
+            case CANCELLED -> Type.CANCELLED;
+            case FAILED -> Type.FAILED;
+            // Back in the queue or running on another node: it was reclaimed while it ran here
+            case PENDING, RUNNING -> Type.QUEUED;
+        };
+        return of(job, type);
+    }
+
+    public enum Type {
+        QUEUED,
+        STARTED,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    public Long getJobId() { return jobId; }
+    public Long getStreamSourceId() { return streamSourceId; }
+    public TranscodingJob.JobType getJobType() { return jobType; }
+    public Type getType() { return type; }
+
+    /**
+     * Whether this event may have freed (or requires) a worker slot
+     */
+    public boolean triggersDispatch() {
+        return type != Type.STARTED;
+    }
+
+    @Override
+    public String toString() {
+        return "TranscodingJobEvent{jobId=" + jobId + ", type=" + type + "}";
+    }
+}
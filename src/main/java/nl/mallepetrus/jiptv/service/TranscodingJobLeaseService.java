@@ -0,0 +1,190 @@
+package nl.mallepetrus.jiptv.service;
+
+import jakarta.annotation.PostConstruct;
+import nl.mallepetrus.jiptv.entity.TranscodingJob;
+import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Claims transcoding jobs atomically so several backend nodes can share one queue.
+ *
+ * A claim locks the next PENDING row with {@code FOR UPDATE SKIP LOCKED}, flips it to RUNNING and
+ * takes a lease on it. Leases of jobs running on this node are renewed by a heartbeat; jobs whose
+ * lease expired (crashed node) are put back in the queue. State of a claimed job is only written
+ * while the claim holds, and the heartbeat stops local jobs that were cancelled or reclaimed.
+ */
+@Service
+public class TranscodingJobLeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranscodingJobLeaseService.class);
+
+    private final TranscodingJobRepository jobRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Jobs claimed by this node that are not finished yet
+    private final Set<Long> localJobs = ConcurrentHashMap.newKeySet();
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${jiptv.transcoding.lease-seconds:120}")
+    private int leaseSeconds;
+
+    private final String nodeId;
+
+    @Autowired
+    public TranscodingJobLeaseService(TranscodingJobRepository jobRepository,
+                                      ApplicationEventPublisher eventPublisher,
+                                      PlatformTransactionManager transactionManager,
+                                      @Value("${jiptv.transcoding.node-id:}") String configuredNodeId) {
+        this.jobRepository = jobRepository;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.nodeId = configuredNodeId != null && !configuredNodeId.isBlank() ? configuredNodeId : defaultNodeId();
+    }
+
+    /**
+     * Requeue jobs this node claimed before a restart, as those can never finish. Runs while the
+     * context starts, before scheduling and event dispatch can claim jobs for this run; the queue
+     * is dispatched once the context is up (scheduled poll), so no event is needed.
+     */
+    @PostConstruct
+    public void releaseLeasesOfPreviousRun() {
+        try {
+            Integer ownJobs = transactionTemplate.execute(status -> jobRepository.releaseLeasesOfNode(nodeId));
+            if (ownJobs != null && ownJobs > 0) {
+                logger.warn("Requeued {} transcoding jobs claimed by a previous run of node {}", ownJobs, nodeId);
+            }
+        } catch (DataAccessException e) {
+            // Not fatal, those jobs are reclaimed once their leases expire
+            logger.error("Could not requeue transcoding jobs of a previous run of node {}: {}", nodeId, e.getMessage());
+        }
+    }
+
+    /**
+     * Claim the next pending job of the given types for this node
+     */
+    @Transactional
+    public Optional<TranscodingJob> claimNextJob(Collection<TranscodingJob.JobType> jobTypes) {
+        List<String> typeNames = jobTypes.stream().map(Enum::name).toList();
+
+        Optional<Long> jobId = jobRepository.lockNextPendingJobId(typeNames);
+        if (jobId.isEmpty()) {
+            return Optional.empty();
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        int claimed = jobRepository.claimJob(jobId.get(), nodeId, now, now.plusSeconds(leaseSeconds));
+        if (claimed == 0) {
+            return Optional.empty();
+        }
+
+        localJobs.add(jobId.get());
+        logger.debug("Node {} claimed transcoding job {}", nodeId, jobId.get());
+
+        return jobRepository.findByIdWithStreamSource(jobId.get());
+    }
+
+    /**
+     * Save the state of a job claimed by this node. When the job was cancelled or reclaimed by another
+     * node meanwhile nothing is written, the job gets the status it has in the database instead and
+     * false is returned.
+     */
+    public boolean saveClaimedJob(TranscodingJob job) {
+        if (jobRepository.updateClaimedJob(job, nodeId, LocalDateTime.now()) > 0) {
+            return true;
+        }
+
+        jobRepository.findStatusById(job.getId()).ifPresent(job::setStatus);
+        release(job.getId());
+        logger.warn("Transcoding job {} is no longer claimed by node {} (now {}), its state was not saved",
+                   job.getId(), nodeId, job.getStatus());
+        return false;
+    }
+
+    /**
+     * Stop renewing the lease of a job that will not run on this node anymore
+     */
+    public void release(Long jobId) {
+        localJobs.remove(jobId);
+    }
+
+    @EventListener
+    public void onTranscodingJobEvent(TranscodingJobEvent event) {
+        if (event.getType() != TranscodingJobEvent.Type.QUEUED
+                && event.getType() != TranscodingJobEvent.Type.STARTED) {
+            release(event.getJobId());
+        }
+    }
+
+    /**
+     * Heartbeat: extend the leases of all jobs running on this node, and stop the ones that are not
+     * running under this node's claim anymore (cancelled on another node, or reclaimed)
+     */
+    @Scheduled(fixedRateString = "${jiptv.transcoding.lease-heartbeat-ms:30000}")
+    @Transactional
+    public void renewLeases() {
+        if (localJobs.isEmpty()) {
+            return;
+        }
+
+        Set<Long> jobIds = Set.copyOf(localJobs);
+        int renewed = jobRepository.renewLeases(jobIds, nodeId, LocalDateTime.now().plusSeconds(leaseSeconds));
+        if (renewed == jobIds.size()) {
+            return;
+        }
+
+        Set<Long> lostJobIds = new HashSet<>(jobIds);
+        lostJobIds.removeAll(jobRepository.findClaimedJobIds(jobIds, nodeId));
+        // Jobs that finished since the copy was taken are not running here anymore either
+        lostJobIds.retainAll(localJobs);
+        if (!lostJobIds.isEmpty()) {
+            logger.warn("Transcoding jobs {} on node {} were cancelled or reclaimed, stopping them", lostJobIds, nodeId);
+            localJobs.removeAll(lostJobIds);
+            eventPublisher.publishEvent(new TranscodingLeaseLostEvent(lostJobIds));
+        }
+    }
+
+    /**
+     * Put jobs of nodes that stopped sending heartbeats back in the queue
+     */
+    @Scheduled(fixedRateString = "${jiptv.transcoding.lease-heartbeat-ms:30000}")
+    @Transactional
+    public void reclaimExpiredLeases() {
+        int expired = jobRepository.releaseExpiredLeases(LocalDateTime.now());
+        if (expired > 0) {
+            logger.warn("Reclaimed {} transcoding jobs with expired leases", expired);
+            eventPublisher.publishEvent(new TranscodingCapacityEvent(expired + " expired leases reclaimed"));
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private static String defaultNodeId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "node-" + ProcessHandle.current().pid();
+        }
+    }
+}
@@ -1,18 +1,32 @@
 package nl.mallepetrus.jiptv.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import nl.mallepetrus.jiptv.entity.StreamSource;
 import nl.mallepetrus.jiptv.entity.StreamTrack;
 import nl.mallepetrus.jiptv.entity.TranscodingJob;
+import nl.mallepetrus.jiptv.repository.StreamTrackRepository;
 import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -24,9 +38,31 @@ public class TranscodingJobQueueService {
 
     private final TranscodingJobRepository jobRepository;
     private final FFmpegTranscodingService transcodingService;
+    private final BoundedWorkerPool workerPool;
+    private final BoundedWorkerPool probePool;
+    private final TranscodingJobLeaseService leaseService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final StreamManagementService streamManagementService;
+    private final FFmpegService ffmpegService;
+    private final StreamTrackRepository streamTrackRepository;
 
-    @Value("${jiptv.transcoding.max-concurrent-jobs:2}")
-    private int maxConcurrentJobs;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Job types executed on the transcoding worker pool
+    private static final List<TranscodingJob.JobType> TRANSCODING_JOB_TYPES = List.of(
+            TranscodingJob.JobType.TRANSCODE, TranscodingJob.JobType.SEGMENT, TranscodingJob.JobType.TRANSCODE_HLS);
+
+    // Short FFprobe/single-frame jobs, executed on their own lane so they never wait behind encodes
+    private static final List<TranscodingJob.JobType> PROBE_JOB_TYPES = List.of(
+            TranscodingJob.JobType.ANALYSIS, TranscodingJob.JobType.THUMBNAIL);
+
+    private static final int THUMBNAIL_WIDTH = 480;
+
+    static final List<String> TRANSCODING_JOB_TYPE_NAMES =
+            TRANSCODING_JOB_TYPES.stream().map(Enum::name).toList();
+
+    private static final List<String> PROBE_JOB_TYPE_NAMES =
+            PROBE_JOB_TYPES.stream().map(Enum::name).toList();
 
     @Value("${jiptv.transcoding.job-timeout-hours:4}")
     private int jobTimeoutHours;
@@ -34,17 +70,65 @@ public class TranscodingJobQueueService {
     @Value("${jiptv.transcoding.cleanup-days:7}")
     private int cleanupDays;
 
+    @Value("${jiptv.transcoding.output-dir:./transcoded}")
+    private String outputDirectory;
+
+    @Value("${jiptv.transcoding.preemption.enabled:true}")
+    private boolean preemptionEnabled;
+
     @Autowired
     public TranscodingJobQueueService(TranscodingJobRepository jobRepository,
-                                    FFmpegTranscodingService transcodingService) {
+                                    FFmpegTranscodingService transcodingService,
+                                    @Qualifier("transcodingWorkerPool") BoundedWorkerPool workerPool,
+                                    @Qualifier("probeWorkerPool") BoundedWorkerPool probePool,
+                                    TranscodingJobLeaseService leaseService,
+                                    ApplicationEventPublisher eventPublisher,
+                                    StreamManagementService streamManagementService,
+                                    FFmpegService ffmpegService,
+                                    StreamTrackRepository streamTrackRepository,
+                                    MeterRegistry meterRegistry) {
         this.jobRepository = jobRepository;
         this.transcodingService = transcodingService;
+        this.workerPool = workerPool;
+        this.probePool = probePool;
+        this.leaseService = leaseService;
+        this.eventPublisher = eventPublisher;
+        this.streamManagementService = streamManagementService;
+        this.ffmpegService = ffmpegService;
+        this.streamTrackRepository = streamTrackRepository;
+
+        // Jobs wait in the database rather than in the pools, so their backlog is counted there
+        Gauge.builder("jiptv.workers.queued", this, service -> service.countPendingJobs(TRANSCODING_JOB_TYPE_NAMES))
+                .tag("pool", workerPool.getName())
+                .description("Pending jobs waiting for a worker slot")
+                .register(meterRegistry);
+        Gauge.builder("jiptv.workers.queued", this, service -> service.countPendingJobs(PROBE_JOB_TYPE_NAMES))
+                .tag("pool", probePool.getName())
+                .description("Pending jobs waiting for a worker slot")
+                .register(meterRegistry);
+    }
+
+    private double countPendingJobs(List<String> jobTypeNames) {
+        try {
+            return jobRepository.countPendingJobsOfTypes(jobTypeNames);
+        } catch (RuntimeException e) {
+            logger.debug("Could not count pending jobs: {}", e.getMessage());
+            return Double.NaN;
+        }
     }
 
     /**
      * Queue transcoding job for WebOS compatibility
      */
     public TranscodingJob queueTranscodingJob(StreamSource streamSource, List<StreamTrack> selectedTracks) {
+        return queueTranscodingJob(streamSource, selectedTracks, TranscodingJob.Priority.PREFETCH, null);
+    }
+
+    /**
+     * Queue transcoding job for WebOS compatibility in the given priority class
+     */
+    public TranscodingJob queueTranscodingJob(StreamSource streamSource, List<StreamTrack> selectedTracks,
+                                              TranscodingJob.Priority priority, String requestedBy) {
         logger.info("Queueing transcoding job for stream: {}", streamSource.getName());
         
         // Check if there's already a pending/running job for this stream
@@ -53,7 +137,7 @@ public class TranscodingJobQueueService {
         
         if (!existingJobs.isEmpty()) {
             logger.info("Transcoding job already exists for stream: {}, returning existing job", streamSource.getName());
-            return existingJobs.get(0);
+            return escalate(existingJobs.get(0), priority);
         }
         
         // Create new transcoding job
@@ -61,13 +145,15 @@ public class TranscodingJobQueueService {
                                               streamSource.getSourceUrl());
         job.setTranscodingProfile(FFmpegTranscodingService.TranscodingProfile.WEBOS_COMPATIBLE.getName());
         job.setTargetTracks(createTargetTracksJson(selectedTracks));
+        job.setPriority(priority);
+        job.setRequestedBy(requestedBy);
         
         job = jobRepository.save(job);
         
         logger.info("Created transcoding job: {} for stream: {}", job.getId(), streamSource.getName());
         
-        // Try to process immediately if capacity allows
-        processNextJobIfCapacityAvailable();
+        // Let the dispatcher start it immediately if capacity allows
+        eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.QUEUED));
         
         return job;
     }
@@ -76,92 +162,306 @@ public class TranscodingJobQueueService {
      * Queue HLS generation job
      */
     public TranscodingJob queueHLSJob(StreamSource streamSource, List<StreamTrack> selectedTracks) {
+        return queueHLSJob(streamSource, selectedTracks, false);
+    }
+
+    /**
+     * Queue HLS generation job, optionally as an adaptive bitrate ladder with a master playlist
+     */
+    public TranscodingJob queueHLSJob(StreamSource streamSource, List<StreamTrack> selectedTracks, boolean adaptive) {
+        return queueHLSJob(streamSource, selectedTracks, adaptive, TranscodingJob.Priority.PREFETCH, null);
+    }
+
+    /**
+     * Queue HLS generation job in the given priority class
+     */
+    public TranscodingJob queueHLSJob(StreamSource streamSource, List<StreamTrack> selectedTracks, boolean adaptive,
+                                      TranscodingJob.Priority priority, String requestedBy) {
         logger.info("Queueing HLS generation job for stream: {}", streamSource.getName());
         
-        // Check if there's already a pending/running HLS job for this stream
-        List<TranscodingJob> existingJobs = jobRepository.findByStreamSourceAndJobTypeAndStatusInOrderByCreatedAtDesc(
-                streamSource, TranscodingJob.JobType.SEGMENT, 
+        FFmpegTranscodingService.HLSProfile profile = adaptive
+                ? FFmpegTranscodingService.HLSProfile.WEBOS_ABR
+                : FFmpegTranscodingService.HLSProfile.WEBOS_HLS;
+
+        // Check if there's already a pending/running HLS job with the same profile for this stream
+        List<TranscodingJob> existingJobs = jobRepository.findByStreamSourceAndJobTypeAndTranscodingProfileAndStatusInOrderByCreatedAtDesc(
+                streamSource, TranscodingJob.JobType.SEGMENT, profile.getName(),
                 List.of(TranscodingJob.Status.PENDING, TranscodingJob.Status.RUNNING));
         
         if (!existingJobs.isEmpty()) {
-            logger.info("HLS job already exists for stream: {}, returning existing job", streamSource.getName());
-            return existingJobs.get(0);
+            logger.info("HLS job with profile {} already exists for stream: {}, returning existing job",
+                       profile.getName(), streamSource.getName());
+            return escalate(existingJobs.get(0), priority);
         }
         
         // Create new HLS job
         TranscodingJob job = new TranscodingJob(streamSource, TranscodingJob.JobType.SEGMENT, 
                                               streamSource.getSourceUrl());
-        job.setTranscodingProfile(FFmpegTranscodingService.HLSProfile.WEBOS_HLS.getName());
+        job.setTranscodingProfile(profile.getName());
+        job.setTargetTracks(createTargetTracksJson(selectedTracks));
+        job.setPriority(priority);
+        job.setRequestedBy(requestedBy);
+        
+        job = jobRepository.save(job);
+        
+        logger.info("Created HLS job: {} for stream: {} with profile: {}", job.getId(), streamSource.getName(), profile.getName());
+        
+        // Let the dispatcher start it immediately if capacity allows
+        eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.QUEUED));
+        
+        return job;
+    }
+
+    /**
+     * Queue a job that produces both the MP4 rendition and the HLS segments in a single FFmpeg run
+     */
+    public TranscodingJob queueTranscodeAndHLSJob(StreamSource streamSource, List<StreamTrack> selectedTracks) {
+        return queueTranscodeAndHLSJob(streamSource, selectedTracks, TranscodingJob.Priority.PREFETCH, null);
+    }
+
+    /**
+     * Queue a combined transcode and HLS job in the given priority class
+     */
+    public TranscodingJob queueTranscodeAndHLSJob(StreamSource streamSource, List<StreamTrack> selectedTracks,
+                                                  TranscodingJob.Priority priority, String requestedBy) {
+        logger.info("Queueing combined transcode and HLS job for stream: {}", streamSource.getName());
+        
+        // Check if there's already a pending/running job for this stream
+        List<TranscodingJob> existingJobs = jobRepository.findByStreamSourceAndStatusInOrderByCreatedAtDesc(
+                streamSource, List.of(TranscodingJob.Status.PENDING, TranscodingJob.Status.RUNNING));
+        
+        if (!existingJobs.isEmpty()) {
+            logger.info("Transcoding job already exists for stream: {}, returning existing job", streamSource.getName());
+            return escalate(existingJobs.get(0), priority);
+        }
+        
+        // Create new combined job, the HLS output always uses the WebOS HLS profile
+        TranscodingJob job = new TranscodingJob(streamSource, TranscodingJob.JobType.TRANSCODE_HLS, 
+                                              streamSource.getSourceUrl());
+        job.setTranscodingProfile(FFmpegTranscodingService.TranscodingProfile.WEBOS_COMPATIBLE.getName());
         job.setTargetTracks(createTargetTracksJson(selectedTracks));
+        job.setPriority(priority);
+        job.setRequestedBy(requestedBy);
         
         job = jobRepository.save(job);
         
-        logger.info("Created HLS job: {} for stream: {}", job.getId(), streamSource.getName());
+        logger.info("Created combined transcode and HLS job: {} for stream: {}", job.getId(), streamSource.getName());
+        
+        // Let the dispatcher start it immediately if capacity allows
+        eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.QUEUED));
         
-        // Try to process immediately if capacity allows
-        processNextJobIfCapacityAvailable();
+        return job;
+    }
+
+    /**
+     * Move a pending job that is requested again with a more urgent priority up the queue
+     */
+    private TranscodingJob escalate(TranscodingJob job, TranscodingJob.Priority priority) {
+        if (job.getStatus() != TranscodingJob.Status.PENDING || priority.compareTo(job.getPriority()) >= 0) {
+            return job;
+        }
         
+        if (jobRepository.raisePendingJobPriority(job.getId(), priority) > 0) {
+            logger.info("Raised priority of job {} from {} to {}", job.getId(), job.getPriority(), priority);
+            job.setPriority(priority);
+            eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.QUEUED));
+        }
         return job;
     }
 
+    /**
+     * Refill free worker slots as soon as a job is queued, finishes, fails or is cancelled
+     */
+    @Async
+    @EventListener
+    public void onTranscodingJobEvent(TranscodingJobEvent event) {
+        if (!event.triggersDispatch()) {
+            return;
+        }
+        
+        logger.debug("Dispatching transcoding queue after {}", event);
+        dispatchPendingJobs();
+    }
+
+    @EventListener
+    public void onTranscodingCapacityEvent(TranscodingCapacityEvent event) {
+        logger.debug("Dispatching transcoding queue after {}", event);
+        dispatchPendingJobs();
+    }
+
     /**
      * Process next job in queue if capacity is available
      */
     @Async
     public CompletableFuture<Void> processNextJobIfCapacityAvailable() {
-        long runningJobs = jobRepository.countRunningJobs();
-        
-        if (runningJobs >= maxConcurrentJobs) {
-            logger.debug("Maximum concurrent jobs ({}) reached, not starting new job", maxConcurrentJobs);
-            return CompletableFuture.completedFuture(null);
+        if (!startNextJob(probePool, PROBE_JOB_TYPES)) {
+            startNextJob(workerPool, TRANSCODING_JOB_TYPES);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Start pending jobs until both lanes are full or the queue is empty. Paused backfill jobs get
+     * their slots back before new work starts, unless interactive jobs are waiting; interactive jobs
+     * that find the transcoding lane full pause running backfill jobs to get a slot.
+     */
+    private int dispatchPendingJobs() {
+        int started = 0;
+        while (startNextJob(probePool, PROBE_JOB_TYPES)) {
+            started++;
         }
         
-        Optional<TranscodingJob> nextJob = jobRepository.findNextJobToProcess();
-        if (nextJob.isEmpty()) {
-            logger.debug("No pending jobs in queue");
-            return CompletableFuture.completedFuture(null);
+        if (transcodingService.hasSuspendedJobs() && !interactiveJobsWaiting()) {
+            transcodingService.resumeSuspendedJobs();
+        }
+        while (startNextJob(workerPool, TRANSCODING_JOB_TYPES)) {
+            started++;
         }
         
-        TranscodingJob job = nextJob.get();
-        logger.info("Starting transcoding job: {} (type: {})", job.getId(), job.getJobType());
+        if (preemptionEnabled && workerPool.getAvailableSlots() == 0) {
+            while (interactiveJobsWaiting() && transcodingService.suspendBackfillJob()) {
+                if (!startNextJob(workerPool, TRANSCODING_JOB_TYPES)) {
+                    // Claimed by another node meanwhile, no reason to keep the backfill job paused
+                    transcodingService.resumeSuspendedJobs();
+                    break;
+                }
+                started++;
+            }
+        }
+        return started;
+    }
+
+    private boolean interactiveJobsWaiting() {
+        return jobRepository.countPendingJobsWithPriority(
+                TranscodingJob.Priority.INTERACTIVE.name(), TRANSCODING_JOB_TYPE_NAMES) > 0;
+    }
+
+    /**
+     * Reserve a slot on a lane, claim the next pending job of that lane and start it on that slot
+     *
+     * @return true if a job was claimed and another attempt may succeed
+     */
+    private boolean startNextJob(BoundedWorkerPool pool, List<TranscodingJob.JobType> jobTypes) {
+        // Reserve a worker slot first so concurrent callers can never oversubscribe the pool
+        if (!pool.tryReserveSlot()) {
+            logger.debug("Maximum concurrent {} jobs ({}) reached, not starting new job", pool.getName(), pool.getMaxConcurrent());
+            return false;
+        }
         
+        boolean started = false;
         try {
-            processTranscodingJob(job);
-        } catch (Exception e) {
-            logger.error("Failed to process transcoding job: {}", job.getId(), e);
-            job.fail("Job processing failed: " + e.getMessage());
-            jobRepository.save(job);
+            // Atomic claim, safe against other nodes and overlapping dispatches
+            Optional<TranscodingJob> nextJob = leaseService.claimNextJob(jobTypes);
+            if (nextJob.isEmpty()) {
+                logger.debug("No pending jobs in queue");
+                return false;
+            }
+            
+            TranscodingJob job = nextJob.get();
+            logger.info("Starting transcoding job: {} (type: {})", job.getId(), job.getJobType());
+            
+            try {
+                started = processTranscodingJob(job);
+            } catch (Exception e) {
+                logger.error("Failed to process transcoding job: {}", job.getId(), e);
+                job.fail("Job processing failed: " + e.getMessage());
+                leaseService.saveClaimedJob(job);
+            }
+            
+            if (!started) {
+                leaseService.release(job.getId());
+            }
+            return true;
+        } finally {
+            if (!started) {
+                pool.cancelReservation();
+            }
         }
-        
-        return CompletableFuture.completedFuture(null);
     }
 
     /**
-     * Process a specific transcoding job
+     * Process a specific transcoding job on the reserved worker slot
+     *
+     * @return true if the job was handed to the worker pool
      */
-    private void processTranscodingJob(TranscodingJob job) {
+    private boolean processTranscodingJob(TranscodingJob job) {
         switch (job.getJobType()) {
             case TRANSCODE:
-                processTranscodeJob(job);
-                break;
+                return processTranscodeJob(job);
             case SEGMENT:
-                processHLSJob(job);
-                break;
+                return processHLSJob(job);
+            case TRANSCODE_HLS:
+                return processTranscodeAndHLSJob(job);
             case ANALYSIS:
-                // Analysis jobs are handled by FFmpegService
-                logger.warn("Analysis job {} should not be processed by transcoding queue", job.getId());
-                break;
+                return startProbeJob(job, this::runAnalysisJob);
+            case THUMBNAIL:
+                return startProbeJob(job, this::runThumbnailJob);
             default:
                 logger.error("Unknown job type: {} for job: {}", job.getJobType(), job.getId());
                 job.fail("Unknown job type: " + job.getJobType());
-                jobRepository.save(job);
+                leaseService.saveClaimedJob(job);
+                return false;
+        }
+    }
+
+    /**
+     * Run an analysis or thumbnail job on the reserved probe lane slot
+     */
+    private boolean startProbeJob(TranscodingJob job, ProbeWork work) {
+        job.start();
+        if (!leaseService.saveClaimedJob(job)) {
+            return false;
         }
+        eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.STARTED));
+        
+        probePool.runReserved("job-" + job.getId(), () -> {
+            try {
+                work.run(job);
+                job.complete();
+                logger.info("{} job completed: {}", job.getJobType(), job.getId());
+            } catch (Exception e) {
+                logger.error("{} job failed: {}", job.getJobType(), job.getId(), e);
+                job.fail(job.getJobType() + " failed: " + e.getMessage());
+            }
+            leaseService.saveClaimedJob(job);
+        }).whenComplete((ignored, error) -> {
+            if (error != null && !job.isFinished()) {
+                job.fail("Job execution failed: " + error.getMessage());
+                leaseService.saveClaimedJob(job);
+            }
+            eventPublisher.publishEvent(TranscodingJobEvent.finished(job));
+        });
+        return true;
+    }
+
+    private void runAnalysisJob(TranscodingJob job) {
+        streamManagementService.analyzeStreamSource(job.getStreamSource().getId());
+    }
+
+    /**
+     * Grab a frame at 10% of the title (at most one minute in) so it is past any intro black
+     */
+    private void runThumbnailJob(TranscodingJob job) {
+        StreamSource streamSource = job.getStreamSource();
+        double position = streamSource.getDurationSeconds() != null
+                ? Math.min(60, streamSource.getDurationSeconds() * 0.1) : 0;
+        
+        Path outputFile = Paths.get(outputDirectory, "thumbnails", "stream_" + streamSource.getId() + ".jpg");
+        ffmpegService.generateThumbnail(job.getInputFile(), outputFile, position, THUMBNAIL_WIDTH);
+        
+        job.setOutputFile(outputFile.toString());
+        job.setOutputSizeBytes(outputFile.toFile().length());
+    }
+
+    @FunctionalInterface
+    private interface ProbeWork {
+        void run(TranscodingJob job) throws Exception;
     }
 
     /**
      * Process transcoding job
      */
-    private void processTranscodeJob(TranscodingJob job) {
+    private boolean processTranscodeJob(TranscodingJob job) {
         try {
             // Parse selected tracks from job
             List<StreamTrack> selectedTracks = parseTargetTracks(job);
@@ -170,19 +470,21 @@ public class TranscodingJobQueueService {
             FFmpegTranscodingService.TranscodingProfile profile = getTranscodingProfile(job.getTranscodingProfile());
             
             // Start transcoding
-            transcodingService.startTranscodingJob(job.getStreamSource(), selectedTracks, profile);
+            transcodingService.startTranscodingJob(job, selectedTracks, profile);
+            return true;
             
         } catch (Exception e) {
             logger.error("Failed to start transcoding for job: {}", job.getId(), e);
             job.fail("Failed to start transcoding: " + e.getMessage());
-            jobRepository.save(job);
+            leaseService.saveClaimedJob(job);
+            return false;
         }
     }
 
     /**
      * Process HLS generation job
      */
-    private void processHLSJob(TranscodingJob job) {
+    private boolean processHLSJob(TranscodingJob job) {
         try {
             // Parse selected tracks from job
             List<StreamTrack> selectedTracks = parseTargetTracks(job);
@@ -191,12 +493,38 @@ public class TranscodingJobQueueService {
             FFmpegTranscodingService.HLSProfile profile = getHLSProfile(job.getTranscodingProfile());
             
             // Start HLS generation
-            transcodingService.generateHLSSegments(job.getStreamSource(), selectedTracks, profile);
+            transcodingService.generateHLSSegments(job, selectedTracks, profile);
+            return true;
             
         } catch (Exception e) {
             logger.error("Failed to start HLS generation for job: {}", job.getId(), e);
             job.fail("Failed to start HLS generation: " + e.getMessage());
-            jobRepository.save(job);
+            leaseService.saveClaimedJob(job);
+            return false;
+        }
+    }
+
+    /**
+     * Process combined transcode and HLS job
+     */
+    private boolean processTranscodeAndHLSJob(TranscodingJob job) {
+        try {
+            // Parse selected tracks from job
+            List<StreamTrack> selectedTracks = parseTargetTracks(job);
+            
+            // Get profiles
+            FFmpegTranscodingService.TranscodingProfile profile = getTranscodingProfile(job.getTranscodingProfile());
+            FFmpegTranscodingService.HLSProfile hlsProfile = FFmpegTranscodingService.HLSProfile.WEBOS_HLS;
+            
+            // Start single-pass transcoding
+            transcodingService.startTranscodeAndHLSJob(job, selectedTracks, profile, hlsProfile);
+            return true;
+            
+        } catch (Exception e) {
+            logger.error("Failed to start combined transcode and HLS for job: {}", job.getId(), e);
+            job.fail("Failed to start combined transcode and HLS: " + e.getMessage());
+            leaseService.saveClaimedJob(job);
+            return false;
         }
     }
 
@@ -222,6 +550,8 @@ public class TranscodingJobQueueService {
         switch (profileName) {
             case "WebOS_HLS":
                 return FFmpegTranscodingService.HLSProfile.WEBOS_HLS;
+            case "WebOS_ABR":
+                return FFmpegTranscodingService.HLSProfile.WEBOS_ABR;
             default:
                 logger.warn("Unknown HLS profile: {}, using default", profileName);
                 return FFmpegTranscodingService.HLSProfile.WEBOS_HLS;
@@ -229,17 +559,38 @@ public class TranscodingJobQueueService {
     }
 
     /**
-     * Parse target tracks from JSON
+     * Load the tracks selected when the job was queued, in the order they were stored.
+     * The JSON format is: {"video":{"id":1,"index":0,"codec":"h264"},"audio":{"id":2,"index":1,"codec":"aac"}}
+     * and may repeat a type, so the ids are read with a streaming parser rather than into a map.
      */
     private List<StreamTrack> parseTargetTracks(TranscodingJob job) {
-        // For now, return empty list - in production this would parse the JSON
-        // and return the actual StreamTrack objects from the database
-        // This is a simplified implementation for the current scope
-        
-        // TODO: Implement proper JSON parsing and track retrieval
-        // The JSON format is: {"video":{"id":1,"index":0,"codec":"h264"},"audio":{"id":2,"index":1,"codec":"aac"}}
-        
-        return List.of();
+        String json = job.getTargetTracks();
+        if (json == null || json.isBlank()) {
+            return List.of();
+        }
+
+        List<Long> trackIds = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && "id".equals(parser.currentName())
+                        && parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                    trackIds.add(parser.getLongValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Invalid target tracks of job " + job.getId() + ": " + json, e);
+        }
+        if (trackIds.isEmpty()) {
+            return List.of();
+        }
+
+        List<StreamTrack> tracks = new ArrayList<>(streamTrackRepository.findAllById(trackIds));
+        if (tracks.size() < trackIds.size()) {
+            logger.warn("Job {} selected {} tracks, only {} still exist", job.getId(), trackIds.size(), tracks.size());
+        }
+        tracks.sort(Comparator.comparingInt(track -> trackIds.indexOf(track.getId())));
+        return tracks;
     }
 
     /**
@@ -263,22 +614,21 @@ public class TranscodingJobQueueService {
     }
 
     /**
-     * Scheduled job to process queue every minute
+     * Safety net poll of the queue; jobs are normally dispatched from job events
      */
-    @Scheduled(fixedRate = 60000) // Every minute
+    @Scheduled(fixedRateString = "${jiptv.transcoding.queue-poll-interval-ms:60000}")
     public void processJobQueue() {
         logger.debug("Processing transcoding job queue...");
         
-        long runningJobs = jobRepository.countRunningJobs();
         long pendingJobs = jobRepository.countPendingJobs();
         
-        logger.debug("Queue status: {} running, {} pending jobs", runningJobs, pendingJobs);
+        logger.debug("Queue status: {} active worker slots, {} pending jobs", workerPool.getActiveSlots(), pendingJobs);
         
-        // Process jobs while we have capacity
-        while (runningJobs < maxConcurrentJobs && pendingJobs > 0) {
-            processNextJobIfCapacityAvailable();
-            runningJobs++;
-            pendingJobs--;
+        if (pendingJobs > 0 && (workerPool.getAvailableSlots() > 0 || probePool.getAvailableSlots() > 0)) {
+            int started = dispatchPendingJobs();
+            if (started > 0) {
+                logger.info("Queue poll started {} pending jobs that were not dispatched by events", started);
+            }
         }
     }
 
@@ -298,6 +648,11 @@ public class TranscodingJobQueueService {
                 logger.warn("Cancelling stuck job: {} (started: {})", job.getId(), job.getStartedAt());
                 job.cancel();
                 jobRepository.save(job);
+                
+                // A stuck process still holds a worker slot; its exit triggers the next dispatch
+                if (!transcodingService.cancelRunningJob(job.getId())) {
+                    eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.CANCELLED));
+                }
             }
         }
     }
@@ -328,6 +683,12 @@ public class TranscodingJobQueueService {
                         }
                     }
                     
+                    // Delete the job's own HLS playlist and segments
+                    transcodingService.deleteHLSOutput(job);
+                    
+                    // Delete the full FFmpeg log if it was written on this node
+                    java.nio.file.Files.deleteIfExists(transcodingService.getFullLogFile(job.getId()));
+                    
                     // Delete job record
                     jobRepository.delete(job);
                     logger.debug("Cleaned up job: {}", job.getId());
@@ -349,16 +710,48 @@ public class TranscodingJobQueueService {
         List<Object[]> typeCounts = jobRepository.getJobCountsByType();
         Double avgDuration = jobRepository.getAverageJobDurationMinutes();
         
-        return new JobQueueStatistics(pending, running, maxConcurrentJobs, statusCounts, 
+        return new JobQueueStatistics(pending, running, workerPool.getMaxConcurrent(), statusCounts, 
                                     typeCounts, avgDuration != null ? avgDuration : 0.0);
     }
 
+    /**
+     * Cancel a single job, stopping its FFmpeg process if it runs on this node
+     */
+    public TranscodingJob cancelJob(Long jobId) {
+        TranscodingJob job = jobRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("Transcoding job not found: " + jobId));
+        
+        if (job.isFinished()) {
+            throw new RuntimeException("Cannot cancel finished job: " + jobId);
+        }
+        
+        job.cancel();
+        job = jobRepository.save(job);
+        
+        // A running job publishes its own event once the process has exited and its slot is free
+        if (!transcodingService.cancelRunningJob(jobId)) {
+            eventPublisher.publishEvent(TranscodingJobEvent.of(job, TranscodingJobEvent.Type.CANCELLED));
+        }
+        
+        return job;
+    }
+
     /**
      * Cancel all jobs for a specific stream
      */
     public int cancelJobsForStream(StreamSource streamSource) {
         logger.info("Cancelling all jobs for stream: {}", streamSource.getName());
-        return jobRepository.cancelJobsForStream(streamSource, LocalDateTime.now());
+        
+        List<TranscodingJob> runningJobs = jobRepository.findByStreamSourceAndStatusInOrderByCreatedAtDesc(
+                streamSource, List.of(TranscodingJob.Status.RUNNING));
+        
+        int cancelled = jobRepository.cancelJobsForStream(streamSource, LocalDateTime.now());
+        
+        for (TranscodingJob job : runningJobs) {
+            transcodingService.cancelRunningJob(job.getId());
+        }
+        
+        return cancelled;
     }
 
     // Statistics class
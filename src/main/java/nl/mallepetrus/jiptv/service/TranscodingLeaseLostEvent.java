@@ -0,0 +1,23 @@
+package nl.mallepetrus.jiptv.service;
+
+import java.util.Set;
+
+/**
+ * Application event published when jobs this node runs were cancelled or reclaimed by another node,
+ * so their processes here must stop
+ */
+public class TranscodingLeaseLostEvent {
+
+    private final Set<Long> jobIds;
+
+    public TranscodingLeaseLostEvent(Set<Long> jobIds) {
+        this.jobIds = jobIds;
+    }
+
+    public Set<Long> getJobIds() { return jobIds; }
+
+    @Override
+    public String toString() {
+        return "TranscodingLeaseLostEvent{jobIds=" + jobIds + "}";
+    }
+}
@@ -0,0 +1,157 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.TranscodingJob;
+import nl.mallepetrus.jiptv.repository.TranscodingJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Live progress of the jobs running on this node.
+ *
+ * FFmpeg output updates the registry as often as it likes; changed entries are written to the
+ * database on a fixed cadence with a single progress-only UPDATE per job, instead of saving the whole
+ * job (including its log) on every update. Progress reads on this node are served from memory, and
+ * changes are pushed to live subscribers by {@link TranscodingEventBroadcaster}.
+ */
+@Service
+public class TranscodingProgressRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranscodingProgressRegistry.class);
+
+    private final TranscodingJobRepository jobRepository;
+
+    private final Map<Long, JobProgress> progressByJob = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TranscodingProgressRegistry(TranscodingJobRepository jobRepository) {
+        this.jobRepository = jobRepository;
+    }
+
+    /**
+     * Record the current progress fields of a running job
+     */
+    public void update(TranscodingJob job) {
+        progressByJob.computeIfAbsent(job.getId(), id -> new JobProgress()).set(job);
+    }
+
+    /**
+     * Forget a job once its final state has been saved; pending progress of it is never flushed
+     */
+    public void remove(Long jobId) {
+        progressByJob.remove(jobId);
+    }
+
+    public Optional<JobProgress> get(Long jobId) {
+        return Optional.ofNullable(progressByJob.get(jobId));
+    }
+
+    /**
+     * Copy live progress onto a job loaded from the database, for responses
+     */
+    public TranscodingJob overlay(TranscodingJob job) {
+        JobProgress progress = progressByJob.get(job.getId());
+        if (progress != null && !job.isFinished()) {
+            progress.applyTo(job);
+        }
+        return job;
+    }
+
+    /**
+     * Hand every job whose progress changed since the previous call to the consumer, for live push
+     */
+    public void forEachUnpublished(BiConsumer<Long, JobProgress> consumer) {
+        progressByJob.forEach((jobId, progress) -> {
+            if (progress.markPublished()) {
+                consumer.accept(jobId, progress);
+            }
+        });
+    }
+
+    /**
+     * Write changed progress of all running jobs, coalescing every update since the last flush
+     */
+    @Scheduled(fixedRateString = "${jiptv.transcoding.progress-flush-ms:5000}")
+    @Transactional
+    public void flush() {
+        int flushed = 0;
+        for (Map.Entry<Long, JobProgress> entry : progressByJob.entrySet()) {
+            JobProgress progress = entry.getValue();
+            Integer progressPercent;
+            Long currentFrame;
+            String processingSpeed;
+            LocalDateTime estimatedCompletionAt;
+            // Copy under the lock, write outside it so FFmpeg output is never held up by the database
+            synchronized (progress) {
+                if (!progress.dirty) {
+                    continue;
+                }
+                progress.dirty = false;
+                progressPercent = progress.progressPercent;
+                currentFrame = progress.currentFrame;
+                processingSpeed = progress.processingSpeed;
+                estimatedCompletionAt = progress.estimatedCompletionAt;
+            }
+            jobRepository.updateJobProgress(entry.getKey(), progressPercent, currentFrame,
+                                            processingSpeed, estimatedCompletionAt);
+            flushed++;
+        }
+        if (flushed > 0) {
+            logger.debug("Flushed progress of {} transcoding jobs", flushed);
+        }
+    }
+
+    /**
+     * Latest progress of one job
+     */
+    public static class JobProgress {
+        private Integer progressPercent;
+        private Long currentFrame;
+        private String processingSpeed;
+        private LocalDateTime estimatedCompletionAt;
+        private Long currentBitrateKbps; // Not persisted
+        private boolean dirty;
+        private boolean published;
+
+        synchronized void set(TranscodingJob job) {
+            progressPercent = job.getProgressPercent();
+            currentFrame = job.getCurrentFrame();
+            processingSpeed = job.getProcessingSpeed();
+            estimatedCompletionAt = job.getEstimatedCompletionAt();
+            currentBitrateKbps = job.getCurrentBitrateKbps();
+            dirty = true;
+            published = false;
+        }
+
+        synchronized boolean markPublished() {
+            if (published) {
+                return false;
+            }
+            published = true;
+            return true;
+        }
+
+        synchronized void applyTo(TranscodingJob job) {
+            job.setProgressPercent(progressPercent);
+            job.setCurrentFrame(currentFrame);
+            job.setProcessingSpeed(processingSpeed);
+            job.setEstimatedCompletionAt(estimatedCompletionAt);
+            job.setCurrentBitrateKbps(currentBitrateKbps);
+        }
+
+        public synchronized Integer getProgressPercent() { return progressPercent; }
+        public synchronized Long getCurrentFrame() { return currentFrame; }
+        public synchronized String getProcessingSpeed() { return processingSpeed; }
+        public synchronized LocalDateTime getEstimatedCompletionAt() { return estimatedCompletionAt; }
+        public synchronized Long getCurrentBitrateKbps() { return currentBitrateKbps; }
+    }
+}
@@ -0,0 +1,14 @@
+-- Transcoding Job Priority
+-- V10: Priority classes and requester for fair-share scheduling
+
+-- INTERACTIVE = a viewer is waiting, PREFETCH = likely to be watched soon, BACKFILL = bulk/background work
+ALTER TABLE transcoding_jobs ADD COLUMN priority VARCHAR(20) NOT NULL DEFAULT 'PREFETCH';
+ALTER TABLE transcoding_jobs ADD CONSTRAINT chk_job_priority
+    CHECK (priority IN ('INTERACTIVE', 'PREFETCH', 'BACKFILL'));
+
+-- User that queued the job, NULL for jobs queued by the system
+ALTER TABLE transcoding_jobs ADD COLUMN requested_by VARCHAR(100);
+
+-- Running jobs per requester, counted for fair share when picking the next pending job
+CREATE INDEX idx_transcoding_jobs_running_requester ON transcoding_jobs(requested_by)
+    WHERE status = 'RUNNING';
@@ -0,0 +1,5 @@
+-- Transcoding Job Delivery Index
+-- V11: Look up the playable output of a stream without scanning its whole job history
+
+CREATE INDEX idx_transcoding_jobs_deliverable ON transcoding_jobs(stream_source_id, created_at DESC)
+    WHERE status IN ('COMPLETED', 'RUNNING') AND job_type IN ('TRANSCODE', 'SEGMENT', 'TRANSCODE_HLS');
@@ -0,0 +1,5 @@
+-- Transcoding Job Output Validators
+-- V12: Content hashes of a completed job's output, served as ETags by stream delivery
+
+ALTER TABLE transcoding_jobs ADD COLUMN output_etag VARCHAR(64);
+ALTER TABLE transcoding_jobs ADD COLUMN hls_etag VARCHAR(64);
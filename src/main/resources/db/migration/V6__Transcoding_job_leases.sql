@@ -0,0 +1,14 @@
+-- Transcoding Job Leases
+-- V6: Lease columns so multiple backend nodes can claim jobs atomically
+
+-- Node that claimed the job and until when its claim is valid
+ALTER TABLE transcoding_jobs ADD COLUMN claimed_by VARCHAR(100);
+ALTER TABLE transcoding_jobs ADD COLUMN lease_expires_at TIMESTAMP;
+
+-- Pending queue lookup used by SELECT ... FOR UPDATE SKIP LOCKED
+CREATE INDEX idx_transcoding_jobs_pending ON transcoding_jobs(created_at)
+    WHERE status = 'PENDING';
+
+-- Expired lease lookup for reclaiming jobs of crashed nodes
+CREATE INDEX idx_transcoding_jobs_lease ON transcoding_jobs(lease_expires_at)
+    WHERE status = 'RUNNING';
@@ -0,0 +1,10 @@
+-- Combined Transcode + HLS Jobs
+-- V7: One FFmpeg run producing both the MP4 rendition and the HLS segments
+
+-- Allow the combined job type
+ALTER TABLE transcoding_jobs DROP CONSTRAINT chk_job_type;
+ALTER TABLE transcoding_jobs ADD CONSTRAINT chk_job_type
+    CHECK (job_type IN ('ANALYSIS', 'TRANSCODE', 'THUMBNAIL', 'SEGMENT', 'TRANSCODE_HLS'));
+
+-- HLS playlist of a combined job; output_file holds its MP4 rendition
+ALTER TABLE transcoding_jobs ADD COLUMN hls_playlist_file TEXT;
@@ -0,0 +1,7 @@
+-- Stream Track Id Pooling
+-- V8: Hand out stream_tracks ids in blocks of 50 so Hibernate can batch track inserts
+
+ALTER SEQUENCE stream_tracks_id_seq INCREMENT BY 50;
+
+-- Hibernate's pooled optimizer uses the range (value - 49 .. value], so move past existing ids
+SELECT setval('stream_tracks_id_seq', (SELECT COALESCE(MAX(id), 0) FROM stream_tracks) + 50);
@@ -0,0 +1,4 @@
+-- Stream Source File Modification Time
+-- V9: Detect changed files without hashing them, for incremental re-analysis
+
+ALTER TABLE stream_sources ADD COLUMN file_modified_at TIMESTAMP;
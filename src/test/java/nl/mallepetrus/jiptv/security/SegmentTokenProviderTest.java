@@ -0,0 +1,92 @@
+package nl.mallepetrus.jiptv.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentTokenProviderTest {
+
+    private static final String SECRET = "test_segment_token_secret_of_at_least_32_chars";
+
+    private final SegmentTokenProvider provider = new SegmentTokenProvider(true, SECRET, 3600);
+
+    @Test
+    void verifiesIssuedToken() {
+        String token = provider.issue(42L, 7L);
+
+        assertEquals(7L, provider.verify(token, 42L));
+    }
+
+    @Test
+    void tokenCarriesOnlyTheUserId() {
+        String token = provider.issue(42L, 7L);
+
+        assertTrue(token.matches("[0-9]+\\.7\\.[A-Za-z0-9_-]+"), token);
+    }
+
+    @Test
+    void sameTokenWithinAWindow() {
+        assertEquals(provider.issue(42L, 7L), provider.issue(42L, 7L));
+    }
+
+    @Test
+    void expiresAfterTheTtl() {
+        String token = provider.issue(42L, 7L);
+        long expires = Long.parseLong(token.substring(0, token.indexOf('.')));
+        long now = System.currentTimeMillis() / 1000;
+
+        // Rounded up to the next window (a quarter of the TTL) and valid for the TTL from there
+        assertTrue(expires >= now + 3600 && expires <= now + 3600 + 900, token);
+    }
+
+    @Test
+    void rejectsExpiredToken() {
+        SegmentTokenProvider expired = new SegmentTokenProvider(true, SECRET, -7200);
+
+        assertNull(expired.verify(expired.issue(42L, 7L), 42L));
+    }
+
+    @Test
+    void rejectsTokenOfAnotherStream() {
+        assertNull(provider.verify(provider.issue(42L, 7L), 43L));
+    }
+
+    @Test
+    void rejectsTamperedToken() {
+        String token = provider.issue(42L, 7L);
+        String[] parts = token.split("\\.");
+
+        assertNull(provider.verify(parts[0] + ".8." + parts[2], 42L));
+        assertNull(provider.verify((Long.parseLong(parts[0]) + 3600) + "." + parts[1] + "." + parts[2], 42L));
+        assertNull(new SegmentTokenProvider(true, SECRET + "-other", 3600).verify(token, 42L));
+    }
+
+    @Test
+    void rejectsMalformedToken() {
+        assertNull(provider.verify("", 42L));
+        assertNull(provider.verify("abc", 42L));
+        assertNull(provider.verify("abc.def.ghi", 42L));
+        assertNull(provider.verify("99999999999.!!.??", 42L));
+        assertNull(provider.verify("99999999999.alice.abc", 42L));
+    }
+
+    @Test
+    void userIdOfJwtAndTokenPrincipals() {
+        UserPrincipal user = new UserPrincipal(7L, "alice@example.com", "", List.of());
+
+        assertEquals(7L, SegmentTokenProvider.userId(UsernamePasswordAuthenticationToken.authenticated(user, null, List.of())));
+        assertEquals(7L, SegmentTokenProvider.userId(UsernamePasswordAuthenticationToken.authenticated(7L, null, List.of())));
+        assertNull(SegmentTokenProvider.userId(UsernamePasswordAuthenticationToken.authenticated("anonymousUser", null, List.of())));
+    }
+
+    @Test
+    void requiresLongSecret() {
+        assertThrows(IllegalArgumentException.class, () -> new SegmentTokenProvider(true, "short", 3600));
+    }
+}
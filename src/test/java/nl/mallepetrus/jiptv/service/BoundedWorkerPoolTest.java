@@ -0,0 +1,170 @@
+package nl.mallepetrus.jiptv.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedWorkerPoolTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BoundedWorkerPool pool = new BoundedWorkerPool("test", 2, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void reservesUpToTheLimit() {
+        assertTrue(pool.tryReserveSlot());
+        assertTrue(pool.tryReserveSlot());
+        assertFalse(pool.tryReserveSlot());
+
+        assertEquals(2, pool.getActiveSlots());
+        assertEquals(0, pool.getAvailableSlots());
+        assertEquals(1.0, pool.getSaturation());
+        assertEquals(1.0, meterRegistry.get("jiptv.workers.rejected").counter().count());
+    }
+
+    @Test
+    void cancelledReservationFreesTheSlot() {
+        assertTrue(pool.tryReserveSlot());
+        assertTrue(pool.tryReserveSlot());
+
+        pool.cancelReservation();
+
+        assertEquals(1, pool.getActiveSlots());
+        assertTrue(pool.tryReserveSlot());
+    }
+
+    @Test
+    void timedReservationGivesUpWhenFull() throws InterruptedException {
+        assertEquals(2, pool.tryReserveSlots(5));
+
+        assertFalse(pool.reserveSlot(10, TimeUnit.MILLISECONDS));
+        assertEquals(1.0, meterRegistry.get("jiptv.workers.rejected").counter().count());
+    }
+
+    @Test
+    void borrowingFewerSlotsIsNotARejection() {
+        assertTrue(pool.tryReserveSlot());
+
+        assertEquals(1, pool.tryReserveSlots(3));
+        assertEquals(0, pool.tryReserveSlots(1));
+        assertEquals(0.0, meterRegistry.get("jiptv.workers.rejected").counter().count());
+    }
+
+    @Test
+    void releasesSlotBeforeTheFutureCompletes() throws Exception {
+        assertTrue(pool.tryReserveSlot());
+
+        CompletableFuture<Integer> availableOnCompletion = pool.runReserved("task", () -> { })
+                .thenApply(ignored -> pool.getAvailableSlots());
+
+        assertEquals(2, availableOnCompletion.get(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getActiveSlots());
+    }
+
+    @Test
+    void releasesSlotWhenTheTaskFails() {
+        assertTrue(pool.tryReserveSlot());
+
+        CompletableFuture<Void> future = pool.runReserved("failing", () -> {
+            throw new RuntimeException("boom");
+        });
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertEquals("boom", failure.getCause().getMessage());
+        assertEquals(0, pool.getActiveSlots());
+    }
+
+    @Test
+    void lentSlotRunsAnotherTaskOnItsOwnThread() throws Exception {
+        CountDownLatch paused = new CountDownLatch(2);
+        CountDownLatch resume = new CountDownLatch(1);
+
+        assertTrue(pool.tryReserveSlot());
+        assertTrue(pool.tryReserveSlot());
+        CompletableFuture<Void> first = pool.runReserved("first", () -> await(paused, resume));
+        CompletableFuture<Void> second = pool.runReserved("second", () -> await(paused, resume));
+        assertTrue(paused.await(5, TimeUnit.SECONDS));
+
+        // A paused task lends its slot, which admits a third task next to the two threads
+        pool.lendSlot();
+        assertEquals(1, pool.getActiveSlots());
+        assertTrue(pool.tryReserveSlot());
+        CountDownLatch thirdRan = new CountDownLatch(1);
+        CompletableFuture<Void> third = pool.runReserved("third", thirdRan::countDown);
+
+        assertTrue(thirdRan.await(5, TimeUnit.SECONDS));
+        third.get(5, TimeUnit.SECONDS);
+        assertTrue(pool.getThreadCount() >= 3);
+
+        // The slot is free again, reclaim it before the paused task finishes
+        assertTrue(pool.tryReclaimSlot());
+        assertEquals(2, pool.getActiveSlots());
+
+        resume.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(0, pool.getActiveSlots());
+    }
+
+    @Test
+    void reclaimFailsWhileTheLentSlotIsInUse() {
+        assertTrue(pool.tryReserveSlot());
+        assertTrue(pool.tryReserveSlot());
+
+        pool.lendSlot();
+        assertTrue(pool.tryReserveSlot());
+
+        assertFalse(pool.tryReclaimSlot());
+        assertEquals(2, pool.getActiveSlots());
+    }
+
+    @Test
+    void forcedReclaimOvercommitsUntilASlotIsReleased() {
+        assertTrue(pool.tryReserveSlot());
+        assertTrue(pool.tryReserveSlot());
+        pool.lendSlot();
+        assertTrue(pool.tryReserveSlot());
+
+        pool.reclaimSlot();
+
+        assertEquals(3, pool.getActiveSlots());
+        assertEquals(0, pool.getAvailableSlots());
+        assertFalse(pool.tryReserveSlot());
+
+        // The borrower finishing brings the pool back to its limit, still full
+        pool.cancelReservation();
+        assertEquals(2, pool.getActiveSlots());
+        assertFalse(pool.tryReserveSlot());
+
+        pool.cancelReservation();
+        assertTrue(pool.tryReserveSlot());
+    }
+
+    @Test
+    void requiresAtLeastOneSlot() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedWorkerPool("empty", 0, meterRegistry));
+    }
+
+    private static void await(CountDownLatch paused, CountDownLatch resume) {
+        paused.countDown();
+        try {
+            resume.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package nl.mallepetrus.jiptv.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FFmpegProgressParserTest {
+
+    private static final String BLOCK = """
+            frame=250
+            fps=49.95
+            stream_0_0_q=28.0
+            bitrate= 812.3kbits/s
+            total_size=1015808
+            out_time_us=10000000
+            out_time_ms=10000000
+            out_time=00:00:10.000000
+            dup_frames=0
+            drop_frames=0
+            speed=1.99x
+            progress=continue
+            """;
+
+    @Test
+    void readsTelemetryKeysOfABlock() throws IOException {
+        List<Snapshot> blocks = parse(BLOCK);
+
+        assertEquals(1, blocks.size());
+        Snapshot block = blocks.get(0);
+        assertEquals(250, block.frame);
+        assertEquals(10_000_000, block.outTimeUs);
+        assertEquals(1015808, block.totalSize);
+        assertEquals(1.99, block.speed, 1e-9);
+        assertEquals(812, block.bitrateKbps);
+        assertFalse(block.end);
+    }
+
+    @Test
+    void ignoresKeysThatOnlySharePrefixes() throws IOException {
+        // out_time_ms and out_time must not be taken for out_time_us, frames for frame
+        List<Snapshot> blocks = parse("""
+                out_time_us=5000000
+                out_time_ms=7000000
+                out_time=00:00:09.000000
+                frames=999
+                frame=120
+                progress=continue
+                """);
+
+        assertEquals(5_000_000, blocks.get(0).outTimeUs);
+        assertEquals(120, blocks.get(0).frame);
+    }
+
+    @Test
+    void negativeAndNotAvailableValuesAreUnknown() throws IOException {
+        List<Snapshot> blocks = parse("""
+                frame=0
+                total_size=N/A
+                out_time_us=-9223372036854775807
+                speed=N/A
+                progress=continue
+                """);
+
+        Snapshot block = blocks.get(0);
+        assertEquals(0, block.frame);
+        assertEquals(FFmpegProgressParser.UNKNOWN, block.totalSize);
+        assertEquals(FFmpegProgressParser.UNKNOWN, block.outTimeUs);
+        assertTrue(Double.isNaN(block.speed));
+        assertEquals(FFmpegProgressParser.UNKNOWN, block.bitrateKbps);
+    }
+
+    @Test
+    void reportsEveryBlockAndTheEnd() throws IOException {
+        List<Snapshot> blocks = parse(BLOCK + """
+                frame=500
+                out_time_us=20000000
+                speed=2x
+                progress=end
+                """);
+
+        assertEquals(2, blocks.size());
+        assertFalse(blocks.get(0).end);
+        assertTrue(blocks.get(1).end);
+        assertEquals(500, blocks.get(1).frame);
+        assertEquals(2.0, blocks.get(1).speed, 1e-9);
+        assertEquals(2, blocks.get(1).blocks);
+    }
+
+    @Test
+    void acceptsCarriageReturns() throws IOException {
+        List<Snapshot> blocks = parse("frame=42\r\nspeed=0.5x\r\nprogress=end\r\n");
+
+        assertEquals(1, blocks.size());
+        assertEquals(42, blocks.get(0).frame);
+        assertEquals(0.5, blocks.get(0).speed, 1e-9);
+        assertTrue(blocks.get(0).end);
+    }
+
+    @Test
+    void skipsOverLongLines() throws IOException {
+        String longLine = "frame=" + "1".repeat(300) + "\n";
+        List<Snapshot> blocks = parse("frame=7\n" + longLine + "progress=continue\n");
+
+        // The over-long line is dropped as a whole, the value before it stays
+        assertEquals(1, blocks.size());
+        assertEquals(7, blocks.get(0).frame);
+    }
+
+    @Test
+    void overLongProgressLineDoesNotCloseABlock() throws IOException {
+        String longLine = "progress=" + "x".repeat(300) + "\n";
+        List<Snapshot> blocks = parse("frame=7\n" + longLine + "frame=8\nprogress=continue\n");
+
+        assertEquals(1, blocks.size());
+        assertEquals(8, blocks.get(0).frame);
+    }
+
+    @Test
+    void ignoresLinesWithoutSeparatorAndUnterminatedLastLine() throws IOException {
+        List<Snapshot> blocks = parse("garbage\n=5\nframe=3\nprogress=continue\nframe=4\nprogress=end");
+
+        assertEquals(1, blocks.size());
+        assertEquals(3, blocks.get(0).frame);
+    }
+
+    private static List<Snapshot> parse(String output) throws IOException {
+        List<Snapshot> blocks = new ArrayList<>();
+        new FFmpegProgressParser(new ByteArrayInputStream(output.getBytes(StandardCharsets.US_ASCII)))
+                .run(progress -> blocks.add(new Snapshot(progress)));
+        return blocks;
+    }
+
+    // The parser is reused between blocks, so the listener copies its values
+    private static class Snapshot {
+        private final long outTimeUs;
+        private final long frame;
+        private final double speed;
+        private final long totalSize;
+        private final long bitrateKbps;
+        private final boolean end;
+        private final long blocks;
+
+        Snapshot(FFmpegProgressParser progress) {
+            this.outTimeUs = progress.getOutTimeUs();
+            this.frame = progress.getFrame();
+            this.speed = progress.getSpeed();
+            this.totalSize = progress.getTotalSize();
+            this.bitrateKbps = progress.getBitrateKbps();
+            this.end = progress.isEnd();
+            this.blocks = progress.getBlocks();
+        }
+    }
+}
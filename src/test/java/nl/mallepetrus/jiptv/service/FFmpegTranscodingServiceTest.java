@@ -0,0 +1,45 @@
+package nl.mallepetrus.jiptv.service;
+
+import nl.mallepetrus.jiptv.entity.StreamTrack;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FFmpegTranscodingServiceTest {
+
+    private static final List<FFmpegTranscodingService.HLSRendition> LADDER =
+            FFmpegTranscodingService.HLSRendition.parseLadder(FFmpegTranscodingService.HLSRendition.DEFAULT_LADDER);
+
+    @Test
+    void ladderOf720pSourceDropsThe1080pRung() {
+        assertEquals(List.of("720p", "480p", "audio"), names(select(720)));
+    }
+
+    @Test
+    void ladderOf1080pSourceKeepsAllRungs() {
+        assertEquals(List.of("1080p", "720p", "480p", "audio"), names(select(1080)));
+    }
+
+    @Test
+    void ladderOfSmallSourceKeepsLowestVideoRung() {
+        assertEquals(List.of("480p", "audio"), names(select(360)));
+    }
+
+    @Test
+    void ladderWithoutKnownHeightIsComplete() {
+        assertEquals(4, FFmpegTranscodingService.selectRenditions(LADDER, null).size());
+        assertEquals(4, select(null).size());
+    }
+
+    private static List<FFmpegTranscodingService.HLSRendition> select(Integer height) {
+        StreamTrack videoTrack = new StreamTrack(null, 0, StreamTrack.TrackType.VIDEO);
+        videoTrack.setHeight(height);
+        return FFmpegTranscodingService.selectRenditions(LADDER, videoTrack);
+    }
+
+    private static List<String> names(List<FFmpegTranscodingService.HLSRendition> renditions) {
+        return renditions.stream().map(FFmpegTranscodingService.HLSRendition::getName).toList();
+    }
+}
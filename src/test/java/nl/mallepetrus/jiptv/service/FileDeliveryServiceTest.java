@@ -0,0 +1,252 @@
+package nl.mallepetrus.jiptv.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileDeliveryServiceTest {
+
+    private static final String CONTENT_TYPE = "video/mp4";
+    private static final String CACHE_CONTROL = "public, max-age=0";
+    private static final long LAST_MODIFIED = Instant.parse("2024-01-15T10:00:00Z").toEpochMilli();
+
+    @TempDir
+    Path tempDir;
+
+    private FileDeliveryService service;
+    private Path file;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        service = new FileDeliveryService();
+        ReflectionTestUtils.setField(service, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(service, "maxRanges", 4);
+
+        content = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+        file = tempDir.resolve("movie.mp4");
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(LAST_MODIFIED));
+    }
+
+    @Test
+    void servesWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = serve(request("GET"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(CACHE_CONTROL, response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals(CONTENT_TYPE, response.getContentType());
+        assertEquals(content.length, response.getContentLengthLong());
+        assertArrayEquals(content, response.getContentAsByteArray());
+        assertTrue(response.getHeader(HttpHeaders.ETAG) != null);
+    }
+
+    @Test
+    void servesSingleRange() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-15/36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(6, response.getContentLengthLong());
+        assertEquals("abcdef", response.getContentAsString());
+    }
+
+    @Test
+    void servesSuffixAndOpenEndedRanges() throws IOException {
+        MockHttpServletRequest suffix = request("GET");
+        suffix.addHeader(HttpHeaders.RANGE, "bytes=-4");
+        MockHttpServletResponse response = serve(suffix);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 32-35/36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("wxyz", response.getContentAsString());
+
+        MockHttpServletRequest openEnded = request("GET");
+        openEnded.addHeader(HttpHeaders.RANGE, "bytes=30-");
+        response = serve(openEnded);
+
+        assertEquals("bytes 30-35/36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("uvwxyz", response.getContentAsString());
+    }
+
+    @Test
+    void servesMultipleRangesAsMultipart() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,10-11");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        String contentType = response.getContentType();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+        String body = response.getContentAsString();
+        assertEquals(body.length(), response.getContentLengthLong());
+        assertEquals("\r\n--" + boundary + "\r\n"
+                + "Content-Type: video/mp4\r\nContent-Range: bytes 0-1/36\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: video/mp4\r\nContent-Range: bytes 10-11/36\r\n\r\nab"
+                + "\r\n--" + boundary + "--\r\n", body);
+    }
+
+    @Test
+    void rejectsUnsatisfiableRange() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-200");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */36", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void rejectsTooManyRanges() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-0,2-2,4-4,6-6,8-8");
+
+        assertEquals(416, serve(request).getStatus());
+    }
+
+    @Test
+    void rejectsMalformedRange() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.RANGE, "bytes=abc");
+
+        assertEquals(416, serve(request).getStatus());
+    }
+
+    @Test
+    void honoursMatchingIfRange() throws IOException {
+        String etag = serve(request("GET")).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest byEtag = request("GET");
+        byEtag.addHeader(HttpHeaders.RANGE, "bytes=0-2");
+        byEtag.addHeader(HttpHeaders.IF_RANGE, etag);
+        assertEquals(206, serve(byEtag).getStatus());
+
+        MockHttpServletRequest byDate = request("GET");
+        byDate.addHeader(HttpHeaders.RANGE, "bytes=0-2");
+        byDate.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED));
+        assertEquals(206, serve(byDate).getStatus());
+    }
+
+    @Test
+    void servesWholeFileForStaleIfRange() throws IOException {
+        MockHttpServletRequest byEtag = request("GET");
+        byEtag.addHeader(HttpHeaders.RANGE, "bytes=0-2");
+        byEtag.addHeader(HttpHeaders.IF_RANGE, "\"outdated\"");
+        MockHttpServletResponse response = serve(byEtag);
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(content, response.getContentAsByteArray());
+
+        MockHttpServletRequest byDate = request("GET");
+        byDate.addHeader(HttpHeaders.RANGE, "bytes=0-2");
+        byDate.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED - 60_000));
+        assertEquals(200, serve(byDate).getStatus());
+    }
+
+    @Test
+    void headSendsHeadersWithoutBody() throws IOException {
+        MockHttpServletResponse whole = serve(request("HEAD"));
+
+        assertEquals(200, whole.getStatus());
+        assertEquals(content.length, whole.getContentLengthLong());
+        assertEquals(0, whole.getContentAsByteArray().length);
+
+        MockHttpServletRequest ranged = request("HEAD");
+        ranged.addHeader(HttpHeaders.RANGE, "bytes=0-1,10-11");
+        MockHttpServletResponse multipart = serve(ranged);
+
+        assertEquals(206, multipart.getStatus());
+        assertTrue(multipart.getContentLengthLong() > 4);
+        assertEquals(0, multipart.getContentAsByteArray().length);
+    }
+
+    @Test
+    void notModifiedTakesPrecedenceOverRange() throws IOException {
+        String etag = serve(request("GET")).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-200");
+        MockHttpServletResponse response = serve(request);
+
+        // Checked before the range, so not a 416 either
+        assertEquals(304, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void failedPreconditionTakesPrecedenceOverRange() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.addHeader(HttpHeaders.IF_UNMODIFIED_SINCE, httpDate(LAST_MODIFIED - 60_000));
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-2");
+
+        assertEquals(412, serve(request).getStatus());
+    }
+
+    @Test
+    void usesStoredContentHashAsEtag() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(request("GET"), response, file, CONTENT_TYPE, CACHE_CONTROL, "abc123", LAST_MODIFIED);
+
+        assertEquals("\"abc123\"", response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void handsRegionToSendfileWhenSupported() throws IOException {
+        MockHttpServletRequest request = request("GET");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(file.toRealPath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(10L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(16L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(request, response, file, CONTENT_TYPE, CACHE_CONTROL);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method) {
+        return new MockHttpServletRequest(method, "/api/stream-delivery/video/1");
+    }
+
+    private static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,144 @@
+package nl.mallepetrus.jiptv.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PlaylistTemplateCacheTest {
+
+    private static final String MEDIA_PLAYLIST = """
+            #EXTM3U
+            #EXT-X-VERSION:7
+            #EXT-X-TARGETDURATION:6
+            #EXT-X-MAP:URI="init.mp4"
+            #EXT-X-KEY:METHOD=AES-128,URI="https://keys.example.com/key?id=1",IV=0x1
+            #EXTINF:6.000,
+            segment_000.m4s
+            #EXTINF:6.000,
+            segment_001.m4s?v=2
+            #EXTINF:6.000,
+            https://cdn.example.com/segment_002.m4s
+            #EXT-X-ENDLIST
+            """;
+
+    private PlaylistTemplateCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new PlaylistTemplateCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 10);
+        ReflectionTestUtils.setField(cache, "gzipMinBytes", 64);
+        ReflectionTestUtils.setField(cache, "maxRendered", 10);
+    }
+
+    @Test
+    void addsTokenToRelativeUriLinesAndAttributes() {
+        PlaylistTemplateCache.PlaylistTemplate template = template(MEDIA_PLAYLIST);
+
+        // init.mp4, segment_000 and segment_001, not the absolute key and segment URIs
+        assertEquals(3, template.getUriCount());
+        assertEquals("""
+                #EXTM3U
+                #EXT-X-VERSION:7
+                #EXT-X-TARGETDURATION:6
+                #EXT-X-MAP:URI="init.mp4?token=abc"
+                #EXT-X-KEY:METHOD=AES-128,URI="https://keys.example.com/key?id=1",IV=0x1
+                #EXTINF:6.000,
+                segment_000.m4s?token=abc
+                #EXTINF:6.000,
+                segment_001.m4s?v=2&token=abc
+                #EXTINF:6.000,
+                https://cdn.example.com/segment_002.m4s
+                #EXT-X-ENDLIST
+                """, render(template, "abc"));
+    }
+
+    @Test
+    void keepsCarriageReturnsAfterTheUri() {
+        PlaylistTemplateCache.PlaylistTemplate template = template("#EXTM3U\r\n#EXTINF:6.0,\r\na.ts\r\nb.ts");
+
+        assertEquals(2, template.getUriCount());
+        assertEquals("#EXTM3U\r\n#EXTINF:6.0,\r\na.ts?token=t\r\nb.ts?token=t", render(template, "t"));
+    }
+
+    @Test
+    void rendersMasterPlaylistVariantsAndMediaAttributes() {
+        PlaylistTemplateCache.PlaylistTemplate template = template("""
+                #EXTM3U
+                #EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID="aud",NAME="en",URI="audio/en.m3u8"
+                #EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO="aud"
+                720p/index.m3u8
+                """);
+
+        assertEquals("""
+                #EXTM3U
+                #EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID="aud",NAME="en",URI="audio/en.m3u8?token=t"
+                #EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO="aud"
+                720p/index.m3u8?token=t
+                """, render(template, "t"));
+    }
+
+    @Test
+    void servesOriginalBytesWithoutUris() {
+        byte[] plain = "#EXTM3U\n#EXT-X-ENDLIST\n".getBytes(StandardCharsets.UTF_8);
+        PlaylistTemplateCache.PlaylistTemplate template = cache.get(1L, "empty", "v1", () -> new String(plain, StandardCharsets.UTF_8));
+
+        assertEquals(0, template.getUriCount());
+        assertArrayEquals(plain, template.getPlain());
+        assertSame(template.getPlain(), template.render("token", "t"));
+        assertNull(template.getGzip()); // Below gzip-min-bytes
+    }
+
+    @Test
+    void cachesTemplatesByValidator() {
+        PlaylistTemplateCache.PlaylistTemplate first = cache.get(1L, "key", "v1", () -> MEDIA_PLAYLIST);
+
+        assertSame(first, cache.get(1L, "key", "v1", () -> "#EXTM3U\n"));
+        assertNotSame(first, cache.get(1L, "key", "v2", () -> MEDIA_PLAYLIST));
+    }
+
+    @Test
+    void cachesRendersPerTokenWithTheirOwnEtag() {
+        PlaylistTemplateCache.PlaylistTemplate template = template(MEDIA_PLAYLIST);
+
+        PlaylistTemplateCache.PlaylistTemplate first = cache.render(template, "token", "abc");
+        assertSame(first, cache.render(template, "token", "abc"));
+        PlaylistTemplateCache.PlaylistTemplate other = cache.render(template, "token", "xyz");
+
+        assertNotEquals(template.getEtag(false), first.getEtag(false));
+        assertNotEquals(first.getEtag(false), other.getEtag(false));
+        assertNotEquals(first.getEtag(false), first.getEtag(true));
+        assertNotNull(first.getGzip());
+        assertEquals(0, first.getUriCount()); // Served as is
+        assertEquals(render(template, "abc"), new String(first.getPlain(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void evictingAStreamDropsTemplatesAndRenders() {
+        PlaylistTemplateCache.PlaylistTemplate template = template(MEDIA_PLAYLIST);
+        PlaylistTemplateCache.PlaylistTemplate render = cache.render(template, "token", "abc");
+
+        cache.evictStream(1L);
+
+        assertNotSame(template, cache.get(1L, "key", "v1", () -> MEDIA_PLAYLIST));
+        assertNotSame(render, cache.render(template, "token", "abc"));
+    }
+
+    private PlaylistTemplateCache.PlaylistTemplate template(String playlist) {
+        return cache.get(1L, "key", "v1", () -> playlist);
+    }
+
+    private static String render(PlaylistTemplateCache.PlaylistTemplate template, String token) {
+        return new String(template.render("token", token), StandardCharsets.UTF_8);
+    }
+}